@@ -0,0 +1,689 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A search query that combines words with the operators {@code AND},
+ * {@code OR} and {@code NOT}, grouped with parentheses, such as
+ * {@code (apple OR banana) AND NOT cherry}. {@code NOT} binds tightest, then
+ * {@code AND}, then {@code OR}, and words with no operator between them are
+ * joined with {@code OR}, the same as a regular search. A {@code NOT} right
+ * after a word, as in {@code apple NOT cherry}, means {@code AND NOT}.
+ *
+ * {@code NOT} only removes locations from what the rest of an {@code AND}
+ * matches, so a query that is only negated words matches nothing. The query
+ * count of a matching location is the number of times the words that are not
+ * negated appear in it, so results are ranked the same way as a regular
+ * search.
+ *
+ * The query is evaluated as a tree of cursors over the postings of its words,
+ * one location at a time. An {@code AND} moves its rarest child first and skips
+ * the others ahead to each of its locations by galloping through their sorted
+ * location IDs, so the rarest word drives the scan.
+ *
+ * @author evancarlson
+ *
+ * @see InvertedIndex#booleanSearch(BooleanQuery, boolean)
+ */
+public class BooleanQuery {
+
+	/** Matches a parenthesis or any other run of text. */
+	private static final Pattern TOKEN_REGEX = Pattern.compile("[()]|[^\\s()]+");
+
+	/** Matches a query that uses an operator or a parenthesis. */
+	private static final Pattern BOOLEAN_REGEX = Pattern.compile("\\b(AND|OR|NOT)\\b|[()]");
+
+	/** The root of the query tree, or {@code null} if the query is empty. */
+	private final Node root;
+
+	/**
+	 * Initializes a query from the root of its tree.
+	 *
+	 * @param root the root of the query tree, or {@code null} for an empty query
+	 */
+	private BooleanQuery(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Checks whether a query uses an operator or a parenthesis, and should be
+	 * parsed with {@link #parse(String)} rather than as a set of words. Operators
+	 * must be written in capitals.
+	 *
+	 * @param line a user-input query string
+	 * @return {@code true} if the query uses boolean operators
+	 */
+	public static boolean isBoolean(String line) {
+		return BOOLEAN_REGEX.matcher(line).find();
+	}
+
+	/**
+	 * Parses a query string into a query tree, cleaning and stemming every word the
+	 * same way documents are. An operator missing an operand, unbalanced
+	 * parentheses and parentheses nested too deeply are ignored.
+	 *
+	 * @param line a user-input query string
+	 * @return the parsed query
+	 */
+	public static BooleanQuery parse(String line) {
+		Stemmer stemmer = StemCache.SHARED;
+		Tokenizer tokenizer = new Tokenizer();
+		ArrayList<String> tokens = new ArrayList<>();
+
+		Matcher matcher = TOKEN_REGEX.matcher(line);
+		while (matcher.find()) {
+			String token = matcher.group();
+			if (token.equals("(") || token.equals(")") || isOperator(token)) {
+				tokens.add(token);
+				continue;
+			}
+			// a token such as "apple-pie" may clean to more than one word
+			for (String word : tokenizer.parse(token)) {
+				tokens.add(stemmer.stem(word).toString());
+			}
+		}
+
+		Parser parser = new Parser(tokens);
+		ArrayList<Node> parts = new ArrayList<>();
+		while (!parser.done()) {
+			parts.add(parser.or());
+			// skip a closing parenthesis that was never opened
+			parser.accept(")");
+		}
+		return new BooleanQuery(Node.join(parts, false));
+	}
+
+	/**
+	 * Checks whether a token is one of the operators.
+	 *
+	 * @param token a token of a query
+	 * @return {@code true} for {@code AND}, {@code OR} or {@code NOT}
+	 */
+	private static boolean isOperator(String token) {
+		return token.equals("AND") || token.equals("OR") || token.equals("NOT");
+	}
+
+	/**
+	 * Checks whether the query has nothing to search for.
+	 *
+	 * @return {@code true} if the query has no words
+	 */
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * Adds the query count of every location matching the query to an
+	 * accumulator.
+	 *
+	 * @param postings finds the postings of every key matching a query word
+	 * @param counts   the query count of each location ID; locations with an ID
+	 *                 past the end are left out
+	 */
+	public void accumulate(Function<String, List<PostingList>> postings, int[] counts) {
+		if (root == null) {
+			return;
+		}
+		Cursor cursor = root.cursor(postings);
+		for (int document = cursor.next(); document != Cursor.END; document = cursor.next()) {
+			if (document < counts.length) {
+				counts[document] += cursor.count();
+			}
+		}
+	}
+
+	/**
+	 * Returns the cleaned and stemmed query with every group in parentheses, which
+	 * can be parsed back into the same query.
+	 */
+	@Override
+	public String toString() {
+		return root == null ? "" : root.toString(true);
+	}
+
+	/**
+	 * Reads a list of tokens into a query tree by recursive descent. Only groups
+	 * in parentheses recurse, and only up to a fixed depth, so no query can run
+	 * the parser out of stack.
+	 */
+	private static class Parser {
+
+		/** The most groups in parentheses that are nested inside each other. */
+		private static final int MAX_DEPTH = 64;
+
+		/** The tokens of the query. */
+		private final List<String> tokens;
+
+		/** The index of the next token to read. */
+		private int next;
+
+		/** The number of groups being read. */
+		private int depth;
+
+		/**
+		 * Initializes a parser.
+		 *
+		 * @param tokens the operators, parentheses and stemmed words of the query
+		 */
+		private Parser(List<String> tokens) {
+			this.tokens = tokens;
+			this.next = 0;
+			this.depth = 0;
+		}
+
+		/**
+		 * Checks whether every token has been read.
+		 *
+		 * @return {@code true} if there are no tokens left
+		 */
+		private boolean done() {
+			return next >= tokens.size();
+		}
+
+		/**
+		 * Reads the next token if it is the given one.
+		 *
+		 * @param token the expected token
+		 * @return {@code true} if the token was read
+		 */
+		private boolean accept(String token) {
+			if (!done() && tokens.get(next).equals(token)) {
+				next++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Reads words and groups joined by {@code OR} or by nothing at all, up to
+		 * the end of the current group.
+		 *
+		 * @return the query tree, or {@code null} if there was nothing to read
+		 */
+		private Node or() {
+			ArrayList<Node> children = new ArrayList<>();
+			while (!done() && !tokens.get(next).equals(")")) {
+				accept("OR");
+				children.add(and());
+			}
+			return Node.join(children, false);
+		}
+
+		/**
+		 * Reads words and groups joined by {@code AND} or {@code NOT}.
+		 *
+		 * @return the query tree, or {@code null} if there was nothing to read
+		 */
+		private Node and() {
+			ArrayList<Node> children = new ArrayList<>();
+			children.add(unary());
+			while (true) {
+				if (accept("AND")) {
+					children.add(unary());
+				}
+				else if (!done() && tokens.get(next).equals("NOT")) {
+					children.add(unary());
+				}
+				else {
+					break;
+				}
+			}
+			return Node.join(children, true);
+		}
+
+		/**
+		 * Reads a word, a group in parentheses, or a negated one of those. A
+		 * parenthesis nested more than {@link #MAX_DEPTH} groups deep is ignored.
+		 *
+		 * @return the query tree, or {@code null} if there was nothing to read
+		 */
+		private Node unary() {
+			boolean negated = false;
+			while (!done() && !tokens.get(next).equals(")")) {
+				String token = tokens.get(next++);
+				switch (token) {
+					case "NOT":
+						negated = !negated;
+						break;
+					case "(":
+						if (depth < MAX_DEPTH) {
+							depth++;
+							Node group = or();
+							depth--;
+							accept(")");
+							return negate(group, negated);
+						}
+						break;
+					case "AND":
+					case "OR":
+						// an operator with nothing before it
+						break;
+					default:
+						return negate(new Node(token, null, false, false), negated);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Negates a node if asked to.
+		 *
+		 * @param node    the node, or {@code null}
+		 * @param negated {@code true} to negate the node
+		 * @return the node, its negation, or {@code null} if there was no node
+		 */
+		private static Node negate(Node node, boolean negated) {
+			if (node == null || !negated) {
+				return node;
+			}
+			// a double negative cancels out
+			return node.negated ? node.children[0] : new Node(null, new Node[] { node }, false, true);
+		}
+	}
+
+	/**
+	 * A node of a query tree: a word, an {@code AND} or {@code OR} of other
+	 * nodes, or a negated node.
+	 */
+	private static class Node {
+
+		/** The cleaned and stemmed word, or {@code null} if this is not a word. */
+		private final String word;
+
+		/** The children of the node, or {@code null} for a word. */
+		private final Node[] children;
+
+		/** {@code true} for an {@code AND}, {@code false} for an {@code OR}. */
+		private final boolean and;
+
+		/** {@code true} if this node negates its only child. */
+		private final boolean negated;
+
+		/**
+		 * Initializes a node.
+		 *
+		 * @param word     the word, or {@code null}
+		 * @param children the children, or {@code null} for a word
+		 * @param and      {@code true} to join the children with {@code AND}
+		 * @param negated  {@code true} to negate the only child
+		 */
+		private Node(String word, Node[] children, boolean and, boolean negated) {
+			this.word = word;
+			this.children = children;
+			this.and = and;
+			this.negated = negated;
+		}
+
+		/**
+		 * Joins nodes with {@code AND} or {@code OR}, leaving out missing ones.
+		 *
+		 * @param nodes the nodes to join, some of which may be {@code null}
+		 * @param and   {@code true} to join with {@code AND}
+		 * @return the joined node, the only node, or {@code null} if there are none
+		 */
+		private static Node join(List<Node> nodes, boolean and) {
+			Node[] children = nodes.stream().filter(node -> node != null).toArray(Node[]::new);
+			if (children.length == 0) {
+				return null;
+			}
+			return children.length == 1 ? children[0] : new Node(null, children, and, false);
+		}
+
+		/**
+		 * Creates a cursor over the locations matching this node.
+		 *
+		 * @param postings finds the postings of every key matching a query word
+		 * @return a cursor that has not been moved yet
+		 */
+		private Cursor cursor(Function<String, List<PostingList>> postings) {
+			if (word != null) {
+				return Cursor.or(postings.apply(word).stream().map(Term::new).toArray(Cursor[]::new));
+			}
+			if (negated) {
+				// a negation on its own matches nothing
+				return Cursor.or();
+			}
+			if (!and) {
+				return Cursor.or(Arrays.stream(children).map(child -> child.cursor(postings)).toArray(Cursor[]::new));
+			}
+
+			ArrayList<Cursor> required = new ArrayList<>();
+			ArrayList<Cursor> excluded = new ArrayList<>();
+			for (Node child : children) {
+				if (child.negated) {
+					excluded.add(child.children[0].cursor(postings));
+				}
+				else {
+					required.add(child.cursor(postings));
+				}
+			}
+			if (required.isEmpty()) {
+				return Cursor.or();
+			}
+			Cursor cursor = required.size() == 1 ? required.get(0) : new And(required.toArray(new Cursor[0]));
+			return excluded.isEmpty() ? cursor : new AndNot(cursor, Cursor.or(excluded.toArray(new Cursor[0])));
+		}
+
+		/**
+		 * Returns the node as query text.
+		 *
+		 * @param top {@code true} if the node is not inside another, and needs no
+		 *            parentheses
+		 * @return the query text of the node
+		 */
+		private String toString(boolean top) {
+			if (word != null) {
+				return word;
+			}
+			if (negated) {
+				return "NOT " + children[0].toString(false);
+			}
+			String[] parts = Arrays.stream(children).map(child -> child.toString(false)).toArray(String[]::new);
+			String joined = String.join(and ? " AND " : " OR ", parts);
+			return top ? joined : "(" + joined + ")";
+		}
+	}
+
+	/**
+	 * Walks the location IDs matching part of a query in ascending order.
+	 */
+	private abstract static class Cursor {
+
+		/** The location ID of a cursor that has walked past its last location. */
+		protected static final int END = Integer.MAX_VALUE;
+
+		/** The current location ID, -1 before the first one, or {@link #END}. */
+		protected int document = -1;
+
+		/**
+		 * Moves to the next matching location.
+		 *
+		 * @return the new location ID, or {@link #END}
+		 */
+		protected abstract int next();
+
+		/**
+		 * Moves to the first matching location whose ID is at least a target, which
+		 * must be greater than the current one.
+		 *
+		 * @param target the target location ID
+		 * @return the new location ID, or {@link #END}
+		 */
+		protected abstract int advance(int target);
+
+		/**
+		 * Returns the query count of the current location.
+		 *
+		 * @return the number of times the words that are not negated appear in it
+		 */
+		protected abstract int count();
+
+		/**
+		 * Returns an estimate of the number of locations the cursor walks, used to
+		 * move the rarest cursors first.
+		 *
+		 * @return the most locations the cursor can match
+		 */
+		protected abstract long cost();
+
+		/**
+		 * Creates a cursor over the locations matching any of several cursors.
+		 *
+		 * @param cursors the cursors to join
+		 * @return a cursor that matches nothing, the only cursor, or an {@code OR}
+		 */
+		private static Cursor or(Cursor... cursors) {
+			return cursors.length == 1 ? cursors[0] : new Or(cursors);
+		}
+	}
+
+	/**
+	 * Walks the postings of a single key.
+	 */
+	private static class Term extends Cursor {
+
+		/** The postings of the key. */
+		private final PostingList postings;
+
+		/** The index of the current location in the postings. */
+		private int index = -1;
+
+		/**
+		 * Initializes a cursor over the postings of a key.
+		 *
+		 * @param postings the postings of the key
+		 */
+		private Term(PostingList postings) {
+			this.postings = postings;
+		}
+
+		@Override
+		protected int next() {
+			index++;
+			return document = index < postings.size() ? postings.document(index) : END;
+		}
+
+		@Override
+		protected int advance(int target) {
+			index = postings.seek(Math.max(0, index), target);
+			return document = index < postings.size() ? postings.document(index) : END;
+		}
+
+		@Override
+		protected int count() {
+			return postings.positions(index).size();
+		}
+
+		@Override
+		protected long cost() {
+			return postings.size();
+		}
+	}
+
+	/**
+	 * Walks the locations matched by every one of several cursors, leapfrogging
+	 * from the rarest.
+	 */
+	private static class And extends Cursor {
+
+		/** The cursors to intersect, rarest first. */
+		private final Cursor[] cursors;
+
+		/**
+		 * Initializes an intersection.
+		 *
+		 * @param cursors the cursors to intersect
+		 */
+		private And(Cursor[] cursors) {
+			this.cursors = cursors.clone();
+			Arrays.sort(this.cursors, Comparator.comparingLong(Cursor::cost));
+		}
+
+		@Override
+		protected int next() {
+			return align(cursors[0].next());
+		}
+
+		@Override
+		protected int advance(int target) {
+			return align(cursors[0].advance(target));
+		}
+
+		/**
+		 * Skips the other cursors ahead to a location of the rarest one, moving the
+		 * rarest one ahead again whenever another cursor skips past it.
+		 *
+		 * @param target a location ID of the rarest cursor
+		 * @return the first location matched by every cursor, or {@link #END}
+		 */
+		private int align(int target) {
+			int i = 1;
+			while (target != END && i < cursors.length) {
+				if (cursors[i].document < target) {
+					cursors[i].advance(target);
+				}
+				if (cursors[i].document > target) {
+					target = cursors[0].advance(cursors[i].document);
+					i = 1;
+				}
+				else {
+					i++;
+				}
+			}
+			return document = target;
+		}
+
+		@Override
+		protected int count() {
+			int count = 0;
+			for (Cursor cursor : cursors) {
+				count += cursor.count();
+			}
+			return count;
+		}
+
+		@Override
+		protected long cost() {
+			return cursors[0].cost();
+		}
+	}
+
+	/**
+	 * Walks the locations matched by any of several cursors.
+	 */
+	private static class Or extends Cursor {
+
+		/** The cursors to join. */
+		private final Cursor[] cursors;
+
+		/**
+		 * Initializes a union.
+		 *
+		 * @param cursors the cursors to join, which may be none
+		 */
+		private Or(Cursor[] cursors) {
+			this.cursors = cursors;
+		}
+
+		@Override
+		protected int next() {
+			for (Cursor cursor : cursors) {
+				if (cursor.document == document) {
+					cursor.next();
+				}
+			}
+			return lowest();
+		}
+
+		@Override
+		protected int advance(int target) {
+			for (Cursor cursor : cursors) {
+				if (cursor.document < target) {
+					cursor.advance(target);
+				}
+			}
+			return lowest();
+		}
+
+		/**
+		 * Moves to the lowest location of any of the cursors.
+		 *
+		 * @return the new location ID, or {@link #END}
+		 */
+		private int lowest() {
+			document = END;
+			for (Cursor cursor : cursors) {
+				document = Math.min(document, cursor.document);
+			}
+			return document;
+		}
+
+		@Override
+		protected int count() {
+			int count = 0;
+			for (Cursor cursor : cursors) {
+				if (cursor.document == document) {
+					count += cursor.count();
+				}
+			}
+			return count;
+		}
+
+		@Override
+		protected long cost() {
+			long cost = 0;
+			for (Cursor cursor : cursors) {
+				cost += cursor.cost();
+			}
+			return cost;
+		}
+	}
+
+	/**
+	 * Walks the locations of one cursor that another cursor does not match.
+	 */
+	private static class AndNot extends Cursor {
+
+		/** The cursor whose locations are kept. */
+		private final Cursor included;
+
+		/** The cursor whose locations are left out. */
+		private final Cursor excluded;
+
+		/**
+		 * Initializes a difference.
+		 *
+		 * @param included the cursor whose locations are kept
+		 * @param excluded the cursor whose locations are left out
+		 */
+		private AndNot(Cursor included, Cursor excluded) {
+			this.included = included;
+			this.excluded = excluded;
+		}
+
+		@Override
+		protected int next() {
+			return skip(included.next());
+		}
+
+		@Override
+		protected int advance(int target) {
+			return skip(included.advance(target));
+		}
+
+		/**
+		 * Moves past every location that the excluded cursor matches.
+		 *
+		 * @param target a location ID of the included cursor
+		 * @return the first location that is not excluded, or {@link #END}
+		 */
+		private int skip(int target) {
+			while (target != END) {
+				if (excluded.document < target) {
+					excluded.advance(target);
+				}
+				if (excluded.document != target) {
+					break;
+				}
+				target = included.next();
+			}
+			return document = target;
+		}
+
+		@Override
+		protected int count() {
+			return included.count();
+		}
+
+		@Override
+		protected long cost() {
+			return included.cost();
+		}
+	}
+}
@@ -0,0 +1,351 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A position list backed by primitive arrays. While a document is being
+ * indexed, positions are appended to a growable {@code int[]}. Once the list is
+ * sealed, the positions are stored as variable-length encoded gaps between
+ * consecutive positions, which takes one or two bytes per position for most
+ * documents.
+ *
+ * @author evancarlson
+ *
+ */
+public class CompressedPositionList extends PositionList {
+
+	/** The initial capacity of the growable array. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** The positions in ascending order, or {@code null} once sealed. */
+	private int[] values;
+
+	/**
+	 * The delta + varint encoded positions once sealed, or {@code null} when the
+	 * list is open or holds a single position.
+	 */
+	private byte[] encoded;
+
+	/** The number of positions in the list. */
+	private int size;
+
+	/** The largest position in the list. */
+	private int last;
+
+	/**
+	 * Initializes an empty, open position list.
+	 */
+	public CompressedPositionList() {
+		values = new int[INITIAL_CAPACITY];
+		encoded = null;
+		size = 0;
+		last = 0;
+	}
+
+	/**
+	 * Initializes a sealed position list from positions already encoded as delta +
+	 * varint bytes, such as those returned by {@link #toBytes()}.
+	 *
+	 * @param encoded the encoded positions
+	 * @param size    the number of positions encoded
+	 * @param last    the largest position encoded
+	 */
+	public CompressedPositionList(byte[] encoded, int size, int last) {
+		this.values = null;
+		this.encoded = size > 1 ? encoded : null;
+		this.size = size;
+		this.last = last;
+	}
+
+	@Override
+	public void insert(int position) {
+		if (values == null) {
+			unseal();
+		}
+
+		// the common case: positions arrive in ascending order
+		if (size == 0 || position > last) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = position;
+			last = position;
+			return;
+		}
+
+		int index = Arrays.binarySearch(values, 0, size, position);
+		if (index >= 0) {
+			return;
+		}
+
+		index = -(index + 1);
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = position;
+		size++;
+	}
+
+	@Override
+	public void insertAll(PositionList other) {
+		int[] positions = other.toIntArray();
+		// new positions from another document usually come after ours
+		if (positions.length > 0 && (size == 0 || positions[0] > last)) {
+			if (values == null) {
+				unseal();
+			}
+			if (size + positions.length > values.length) {
+				values = Arrays.copyOf(values, Math.max(size * 2, size + positions.length));
+			}
+			System.arraycopy(positions, 0, values, size, positions.length);
+			size += positions.length;
+			last = positions[positions.length - 1];
+		}
+		else if (positions.length > 0) {
+			if (values == null) {
+				unseal();
+			}
+			// otherwise merge both sorted lists in one pass, rather than shifting the
+			// rest of the list for each position, such as when the pieces of a split
+			// file are added out of order
+			int[] merged = new int[size + positions.length];
+			int mine = 0;
+			int theirs = 0;
+			int count = 0;
+			while (mine < size && theirs < positions.length) {
+				if (values[mine] < positions[theirs]) {
+					merged[count++] = values[mine++];
+				}
+				else if (values[mine] > positions[theirs]) {
+					merged[count++] = positions[theirs++];
+				}
+				else {
+					merged[count++] = values[mine++];
+					theirs++;
+				}
+			}
+			while (mine < size) {
+				merged[count++] = values[mine++];
+			}
+			while (theirs < positions.length) {
+				merged[count++] = positions[theirs++];
+			}
+			values = merged;
+			size = count;
+			last = merged[count - 1];
+		}
+	}
+
+	@Override
+	public boolean contains(int position) {
+		if (size == 0 || position > last) {
+			return false;
+		}
+		if (values != null) {
+			return Arrays.binarySearch(values, 0, size, position) >= 0;
+		}
+
+		PositionIterator iterator = new PositionIterator();
+		while (iterator.hasNext()) {
+			int next = iterator.nextInt();
+			if (next >= position) {
+				return next == position;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int[] toIntArray() {
+		if (values != null) {
+			return Arrays.copyOf(values, size);
+		}
+		int[] positions = new int[size];
+		PositionIterator iterator = new PositionIterator();
+		for (int i = 0; i < size; i++) {
+			positions[i] = iterator.nextInt();
+		}
+		return positions;
+	}
+
+	@Override
+	public void seal() {
+		if (values == null) {
+			return;
+		}
+
+		if (size > 1) {
+			encoded = encode(values, size);
+		}
+		values = null;
+	}
+
+	@Override
+	public boolean isSealed() {
+		return values == null;
+	}
+
+	@Override
+	public void shift(int offset) {
+		if (values == null) {
+			unseal();
+		}
+		for (int i = 0; i < size; i++) {
+			values[i] += offset;
+		}
+		if (size > 0) {
+			last += offset;
+		}
+	}
+
+	/**
+	 * Returns the largest position in the list.
+	 *
+	 * @return the largest position, or 0 if the list is empty
+	 */
+	public int last() {
+		return last;
+	}
+
+	/**
+	 * Returns the positions encoded as delta + varint bytes. The returned array may
+	 * be shared with this list and must not be modified.
+	 *
+	 * @return the encoded positions
+	 */
+	public byte[] toBytes() {
+		if (values == null && encoded != null) {
+			return encoded;
+		}
+		return encode(toIntArray(), size);
+	}
+
+	/**
+	 * Encodes the gaps between consecutive positions as variable-length integers,
+	 * seven bits per byte with the high bit set on every byte but the last.
+	 *
+	 * @param positions the positions to encode in ascending order
+	 * @param size      the number of positions to encode
+	 * @return the encoded positions
+	 */
+	public static byte[] encode(int[] positions, int size) {
+		// worst case of five bytes per position, trimmed after encoding
+		byte[] buffer = new byte[size * 5];
+		int length = 0;
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			int gap = positions[i] - previous;
+			previous = positions[i];
+			while ((gap & ~0x7F) != 0) {
+				buffer[length++] = (byte) ((gap & 0x7F) | 0x80);
+				gap >>>= 7;
+			}
+			buffer[length++] = (byte) gap;
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Decodes a sealed list back into a growable array so it can be added to.
+	 */
+	private void unseal() {
+		int[] positions = toIntArray();
+		values = Arrays.copyOf(positions, Math.max(INITIAL_CAPACITY, size));
+		encoded = null;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new PositionIterator();
+	}
+
+	/**
+	 * Iterates through the positions in ascending order, decoding them if the list
+	 * is sealed.
+	 */
+	private class PositionIterator implements Iterator<Integer> {
+
+		/** The number of positions returned so far. */
+		private int returned;
+
+		/** The offset of the next byte to decode. */
+		private int offset;
+
+		/** The last position returned. */
+		private int current;
+
+		/** The array being iterated, or {@code null} if the list is sealed. */
+		private final int[] array;
+
+		/** The encoded bytes being iterated, or {@code null} if the list is open. */
+		private final byte[] bytes;
+
+		/** The number of positions to iterate through. */
+		private final int count;
+
+		/** The only position of a sealed single-position list. */
+		private final int single;
+
+		/**
+		 * Initializes an iterator at the start of the list.
+		 */
+		private PositionIterator() {
+			returned = 0;
+			offset = 0;
+			current = 0;
+			array = values;
+			bytes = encoded;
+			count = size;
+			single = last;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return returned < count;
+		}
+
+		/**
+		 * Returns the next position without boxing it.
+		 *
+		 * @return the next position
+		 */
+		public int nextInt() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			if (array != null) {
+				current = array[returned];
+			}
+			else if (bytes == null) {
+				// a sealed list with a single position
+				current = single;
+			}
+			else {
+				int gap = 0;
+				int shift = 0;
+				byte next;
+				do {
+					next = bytes[offset++];
+					gap |= (next & 0x7F) << shift;
+					shift += 7;
+				}
+				while (next < 0);
+				current += gap;
+			}
+			returned++;
+			return current;
+		}
+
+		@Override
+		public Integer next() {
+			return nextInt();
+		}
+	}
+}
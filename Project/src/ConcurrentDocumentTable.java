@@ -0,0 +1,123 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A thread-safe {@link DocumentTable}. Looking up an existing location and
+ * reading or raising word counts never lock; only assigning a new ID does.
+ *
+ * Names and counts are stored in fixed-size pages, so growing the table never
+ * copies an entry another thread may be updating.
+ *
+ * @author evancarlson
+ *
+ */
+public class ConcurrentDocumentTable extends DocumentTable {
+
+	/** The number of bits of an ID that select the entry within a page. */
+	private static final int PAGE_BITS = 10;
+
+	/** The number of entries in a page. */
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	/** Maps a location to its ID. */
+	private final ConcurrentHashMap<String, Integer> ids;
+
+	/** The pages of locations, indexed by ID. */
+	private volatile String[][] names;
+
+	/** The pages of total word counts, indexed by ID. */
+	private volatile AtomicIntegerArray[] counts;
+
+	/** The number of locations in the table. */
+	private volatile int size;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public ConcurrentDocumentTable() {
+		super();
+		ids = new ConcurrentHashMap<>();
+		names = new String[0][];
+		counts = new AtomicIntegerArray[0];
+		size = 0;
+	}
+
+	@Override
+	public int add(String location) {
+		Integer id = ids.get(location);
+		if (id != null) {
+			return id;
+		}
+
+		synchronized (ids) {
+			id = ids.get(location);
+			if (id == null) {
+				id = size;
+				int page = id >>> PAGE_BITS;
+				if (page == names.length) {
+					String[][] moreNames = Arrays.copyOf(names, page + 1);
+					AtomicIntegerArray[] moreCounts = Arrays.copyOf(counts, page + 1);
+					moreNames[page] = new String[PAGE_SIZE];
+					moreCounts[page] = new AtomicIntegerArray(PAGE_SIZE);
+					// publish the counts first, since readers check the names
+					counts = moreCounts;
+					names = moreNames;
+				}
+				names[page][id & (PAGE_SIZE - 1)] = location;
+				size = id + 1;
+				// the ID is visible to other threads only once the entry is filled in
+				ids.put(location, id);
+			}
+			return id;
+		}
+	}
+
+	@Override
+	public int getId(String location) {
+		Integer id = ids.get(location);
+		return id == null ? -1 : id;
+	}
+
+	@Override
+	public String getName(int id) {
+		return names[id >>> PAGE_BITS][id & (PAGE_SIZE - 1)];
+	}
+
+	@Override
+	public int getCount(int id) {
+		return counts[id >>> PAGE_BITS].get(id & (PAGE_SIZE - 1));
+	}
+
+	@Override
+	public void updateCount(int id, int count) {
+		AtomicIntegerArray page = counts[id >>> PAGE_BITS];
+		int index = id & (PAGE_SIZE - 1);
+		int current = page.get(index);
+		// raise the count unless another thread raised it higher first
+		while (current < count && !page.compareAndSet(index, current, count)) {
+			current = page.get(index);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Map<String, Integer> toMap() {
+		int size = this.size;
+		if (size == 0) {
+			return Collections.emptyMap();
+		}
+		TreeMap<String, Integer> map = new TreeMap<>();
+		for (int id = 0; id < size; id++) {
+			map.put(getName(id), getCount(id));
+		}
+		return Collections.unmodifiableMap(map);
+	}
+}
@@ -0,0 +1,798 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe inverted index that locks each key rather than the whole index.
+ * Keys are kept in a concurrent skip list, and each key's postings are guarded
+ * by one of a fixed number of striped locks, so adds to different keys and
+ * searches proceed in parallel. Locations are assigned IDs by a
+ * {@link ConcurrentDocumentTable}.
+ *
+ * Each method is atomic for a single key, but not across keys; for example, a
+ * search running while a location is added may see only some of its words.
+ *
+ * Prefix counts, if tracked, are shared by every key and guarded by a lock of
+ * their own, which a writer only takes after releasing the stripe lock of the
+ * key it changed.
+ *
+ * @author evancarlson
+ *
+ */
+public class ConcurrentInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/** The default number of striped locks. */
+	public static final int DEFAULT_STRIPES = 64;
+
+	/** The inverted index data structure, mapping a key to its postings. */
+	private final ConcurrentSkipListMap<String, PostingList> index;
+
+	/** Assigns each location an ID and stores its total word count. */
+	private final ConcurrentDocumentTable documents;
+
+	/** The locks guarding the postings, selected by the hash of the key. */
+	private final ReentrantReadWriteLock[] stripes;
+
+	/** The position lists created by {@link #add(String, String, int)} since the last seal. */
+	private final ConcurrentLinkedQueue<PositionList> open;
+
+	/** The merged counts of short prefixes, or {@code null} if not tracked. */
+	private volatile PrefixCounts prefixes;
+
+	/** The lock guarding the prefix counts. */
+	private final ReentrantReadWriteLock prefixLock;
+
+	/**
+	 * Initializes an empty concurrent inverted index with the default number of
+	 * striped locks, storing positions in compressed lists.
+	 */
+	public ConcurrentInvertedIndex() {
+		this(true);
+	}
+
+	/**
+	 * Initializes an empty concurrent inverted index with the default number of
+	 * striped locks.
+	 *
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 */
+	public ConcurrentInvertedIndex(boolean compressed) {
+		this(compressed, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Initializes an empty concurrent inverted index.
+	 *
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 * @param stripes    the number of striped locks, rounded up to a power of two
+	 */
+	public ConcurrentInvertedIndex(boolean compressed, int stripes) {
+		super(compressed);
+		this.index = new ConcurrentSkipListMap<>();
+		this.documents = new ConcurrentDocumentTable();
+		this.stripes = new ReentrantReadWriteLock[Integer.highestOneBit(Math.max(1, stripes - 1)) << 1];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new ReentrantReadWriteLock();
+		}
+		this.open = new ConcurrentLinkedQueue<>();
+		this.prefixes = null;
+		this.prefixLock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Returns the lock guarding the postings of a key.
+	 *
+	 * @param key a key in the index
+	 * @return the striped lock for the key
+	 */
+	private ReentrantReadWriteLock stripe(String key) {
+		int hash = key.hashCode();
+		// spread the high bits, since the stripe only uses the low bits
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	/**
+	 * Adds all elements from another inverted index, locking one key at a time.
+	 * The other index must be a plain {@link InvertedIndex} that is no longer
+	 * being added to, such as the local index of a single document.
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		other.seal();
+		DocumentTable incoming = other.documents();
+
+		// translate the other index's location IDs into IDs in this index, keeping
+		// the max of the two word counts
+		int[] ids = new int[incoming.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = documents.add(incoming.getName(i));
+			documents.updateCount(ids[i], incoming.getCount(i));
+		}
+
+		for (var word : other.postings().entrySet()) {
+			PostingList postings = index.computeIfAbsent(word.getKey(), key -> new PostingList());
+			PostingList added = word.getValue();
+			// the number of positions added to each location, if prefixes are counted
+			int[] counts;
+			PrefixCounts tracked;
+			ReentrantReadWriteLock lock = stripe(word.getKey());
+			lock.writeLock().lock();
+			try {
+				// read under the stripe lock, so the counts either include this change
+				// already or are updated with it below
+				tracked = prefixes;
+				counts = tracked == null ? null : new int[added.size()];
+				for (int i = 0; i < added.size(); i++) {
+					int id = ids[added.document(i)];
+					PositionList positions = postings.get(id);
+					// if the location is already in the index, add all of the position indices
+					// to a copy, since the list may be shared with another index
+					if (positions != null) {
+						PositionList union = PositionList.create(isCompressed());
+						union.insertAll(positions);
+						union.insertAll(added.positions(i));
+						union.seal();
+						postings.put(id, union);
+						if (counts != null) {
+							counts[i] = union.size() - positions.size();
+						}
+					}
+					// otherwise, the location needs to be added
+					else {
+						postings.put(id, adopt(added.positions(i)));
+						if (counts != null) {
+							counts[i] = added.positions(i).size();
+						}
+					}
+				}
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+
+			if (tracked != null) {
+				prefixLock.writeLock().lock();
+				try {
+					for (int i = 0; i < added.size(); i++) {
+						tracked.add(word.getKey(), ids[added.document(i)], counts[i]);
+					}
+				}
+				finally {
+					prefixLock.writeLock().unlock();
+				}
+			}
+		}
+		advance();
+	}
+
+	@Override
+	public void add(String key, String location, int position) {
+		assert position > 0;
+		int id = documents.add(location);
+		// raise the word count before the position can be seen, as addAll does, so
+		// a search never divides by a count smaller than a position it finds
+		documents.updateCount(id, position);
+		PostingList postings = index.computeIfAbsent(key, k -> new PostingList());
+		PrefixCounts tracked;
+		int added;
+		ReentrantReadWriteLock lock = stripe(key);
+		lock.writeLock().lock();
+		try {
+			tracked = prefixes;
+			PositionList positions = postings.get(id);
+			// a sealed list may be shared with another index, so add to a copy of it
+			if (positions == null || positions.isSealed()) {
+				PositionList copy = PositionList.create(isCompressed());
+				if (positions != null) {
+					copy.insertAll(positions);
+				}
+				positions = copy;
+				postings.put(id, positions);
+				open.add(positions);
+			}
+			int before = positions.size();
+			positions.insert(position);
+			added = positions.size() - before;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		if (tracked != null && added > 0) {
+			prefixLock.writeLock().lock();
+			try {
+				tracked.add(key, id, added);
+			}
+			finally {
+				prefixLock.writeLock().unlock();
+			}
+		}
+		advance();
+	}
+
+	/**
+	 * Seals the position lists added since the last call. Every stripe is locked,
+	 * since the open lists may belong to any key.
+	 */
+	@Override
+	public void seal() {
+		if (open.isEmpty()) {
+			return;
+		}
+		for (ReentrantReadWriteLock lock : stripes) {
+			lock.writeLock().lock();
+		}
+		try {
+			PositionList positions;
+			while ((positions = open.poll()) != null) {
+				positions.seal();
+			}
+		}
+		finally {
+			for (ReentrantReadWriteLock lock : stripes) {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Starts keeping the merged counts of short prefixes, counting the keys
+	 * already added with every stripe locked. A writer reads the counts while it
+	 * holds its stripe lock, so it updates the new counts exactly when they were
+	 * made without its change.
+	 */
+	@Override
+	public void trackPrefixes(long maxBytes) {
+		readLockAll();
+		try {
+			PrefixCounts counts = new PrefixCounts(maxBytes);
+			for (var entry : index.entrySet()) {
+				PostingList postings = entry.getValue();
+				for (int i = 0; i < postings.size(); i++) {
+					counts.add(entry.getKey(), postings.document(i), postings.positions(i).size());
+				}
+			}
+			prefixLock.writeLock().lock();
+			try {
+				prefixes = counts;
+			}
+			finally {
+				prefixLock.writeLock().unlock();
+			}
+		}
+		finally {
+			readUnlockAll();
+		}
+	}
+
+	@Override
+	public long getPrefixBytes() {
+		prefixLock.readLock().lock();
+		try {
+			return prefixes == null ? 0 : prefixes.sizeInBytes();
+		}
+		finally {
+			prefixLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getPrefixLength() {
+		prefixLock.readLock().lock();
+		try {
+			return prefixes == null ? 0 : prefixes.getLength();
+		}
+		finally {
+			prefixLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a position list from another index in the layout used by this index,
+	 * copying it only if the layouts differ.
+	 *
+	 * @param positions the position list to adopt
+	 * @return a position list in the layout of this index
+	 */
+	private PositionList adopt(PositionList positions) {
+		if (positions instanceof CompressedPositionList == isCompressed()) {
+			return positions;
+		}
+		PositionList copy = PositionList.create(isCompressed());
+		copy.insertAll(positions);
+		copy.seal();
+		return copy;
+	}
+
+	/**
+	 * Copies the index into an immutable generation, with every stripe locked so
+	 * no posting list changes while it is copied.
+	 */
+	@Override
+	protected IndexGeneration freeze() {
+		long generation = getGeneration();
+		readLockAll();
+		prefixLock.readLock().lock();
+		try {
+			IndexGeneration copy = new IndexGeneration(generation, index, documents, isCompressed());
+			copy.copyPrefixes(prefixes);
+			return copy;
+		}
+		finally {
+			prefixLock.readLock().unlock();
+			readUnlockAll();
+		}
+	}
+
+	@Override
+	public boolean hasKey(String key) {
+		return index.containsKey(key);
+	}
+
+	@Override
+	public boolean hasLocation(String key, String location) {
+		return numPositions(key, location) > 0;
+	}
+
+	@Override
+	public boolean hasLocation(String location) {
+		return documents.getId(location) >= 0;
+	}
+
+	@Override
+	public boolean hasPosition(String key, String location, int position) {
+		return getPositions(key, location).contains(position);
+	}
+
+	@Override
+	public int numKeys() {
+		return index.size();
+	}
+
+	@Override
+	public int numLocations() {
+		return documents.size();
+	}
+
+	@Override
+	public int numLocations(String key) {
+		PostingList postings = index.get(key);
+		if (postings == null) {
+			return 0;
+		}
+		ReentrantReadWriteLock lock = stripe(key);
+		lock.readLock().lock();
+		try {
+			return postings.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		return getPositions(key, location).size();
+	}
+
+	@Override
+	public Set<String> getKeys() {
+		if (index.size() > 0) {
+			return Collections.unmodifiableSet(index.keySet());
+		}
+		return Collections.emptySet();
+	}
+
+	@Override
+	public Set<String> getLocations(String key) {
+		PostingList postings = index.get(key);
+		if (postings == null) {
+			return Collections.emptySet();
+		}
+		TreeSet<String> locations = new TreeSet<>();
+		ReentrantReadWriteLock lock = stripe(key);
+		lock.readLock().lock();
+		try {
+			for (int i = 0; i < postings.size(); i++) {
+				locations.add(documents.getName(postings.document(i)));
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> getPositions(String key, String location) {
+		PostingList postings = index.get(key);
+		int id = documents.getId(location);
+		if (postings == null || id < 0) {
+			return Collections.emptySet();
+		}
+		ReentrantReadWriteLock lock = stripe(key);
+		lock.readLock().lock();
+		try {
+			PositionList positions = postings.get(id);
+			// copy, since an open list may still change after the lock is released
+			return positions == null ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(positions));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getLocationToCountMap() {
+		return documents.toMap();
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<? extends String> query) {
+		return collectResults(exactCounts(query));
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<? extends String> query) {
+		return collectResults(partialCounts(query));
+	}
+
+	@Override
+	public TopResults search(Collection<? extends String> query, boolean exact, int k) {
+		int[] counts = exact ? exactCounts(query) : partialCounts(query);
+		return collectTop(counts, k, documents::getName, documents::getCount);
+	}
+
+	/**
+	 * Searches without skipping any locations, since postings may change while
+	 * they are walked.
+	 */
+	@Override
+	public TopResults pruneSearch(Collection<? extends String> query, boolean exact, int k) {
+		return search(query, exact, k);
+	}
+
+	/**
+	 * Searches without reading in order of impact, for the same reason as
+	 * {@link #pruneSearch(Collection, boolean, int)}.
+	 */
+	@Override
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k, int expansions) {
+		// locations added after the search starts are left out
+		int[] counts = new int[documents.size()];
+		boolean truncated = false;
+		for (String word : query) {
+			truncated |= addCounts(word, exact, counts, expansions);
+		}
+		TopResults top = collectTop(counts, k, documents::getName, documents::getCount);
+		return new TopResults(top.getResults(), top.getTotal(), top.isTotalExact(), truncated);
+	}
+
+	@Override
+	public void countExpansions(String prefix, Map<String, Integer> frequencies) {
+		for (var entry : index.tailMap(prefix).entrySet()) {
+			// once a word no longer starts with the prefix, exit
+			if (!entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			frequencies.merge(entry.getKey(), entry.getValue().size(), Integer::sum);
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> proximitySearch(ProximityQuery query, boolean exact) {
+		// initialize an array-indexed accumulator of query counts per location ID;
+		// locations added after the search starts are left out
+		int[] counts = new int[documents.size()];
+
+		for (ProximityQuery.Clause clause : query.getClauses()) {
+			if (clause.size() == 1) {
+				addCounts(clause.word(0), exact, counts);
+				continue;
+			}
+
+			PostingList[] postings = new PostingList[clause.size()];
+			boolean found = true;
+			for (int i = 0; i < postings.length && found; i++) {
+				postings[i] = copyPostings(clause.word(i));
+				found = postings[i] != null;
+			}
+			if (found) {
+				clause.accumulate(postings, counts);
+			}
+		}
+		return collectResults(counts);
+	}
+
+	@Override
+	public ArrayList<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		// locations added after the search starts are left out
+		int[] counts = new int[documents.size()];
+		query.accumulate(word -> copyMatches(word, exact), counts);
+		return collectResults(counts);
+	}
+
+	/**
+	 * Copies the postings of every key matching a query word.
+	 *
+	 * @param word  a clean and stemmed word from a search query
+	 * @param exact true if keys must equal the word, false if keys must start
+	 *              with it
+	 * @return copies of the postings of the matching keys
+	 */
+	private ArrayList<PostingList> copyMatches(String word, boolean exact) {
+		ArrayList<PostingList> matches = new ArrayList<>();
+		if (exact) {
+			PostingList postings = copyPostings(word);
+			if (postings != null) {
+				matches.add(postings);
+			}
+			return matches;
+		}
+
+		for (String key : index.tailMap(word).keySet()) {
+			// once a word no longer starts with the prefix, exit
+			if (!key.startsWith(word)) {
+				break;
+			}
+			matches.add(copyPostings(key));
+		}
+		return matches;
+	}
+
+	/**
+	 * Copies the postings of a key while holding its stripe read lock, so they can
+	 * be skipped through while other threads keep adding to the key.
+	 *
+	 * @param key a key in the index
+	 * @return a copy of the postings of the key, or {@code null} if the key is not
+	 *         in the index
+	 */
+	private PostingList copyPostings(String key) {
+		PostingList postings = index.get(key);
+		if (postings == null) {
+			return null;
+		}
+		ReentrantReadWriteLock lock = stripe(key);
+		lock.readLock().lock();
+		try {
+			return new PostingList(postings);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds up the query count of each location ID for an exact search.
+	 *
+	 * @param query a list of clean and stemmed words from a search query
+	 * @return the query count of each location ID
+	 */
+	private int[] exactCounts(Collection<? extends String> query) {
+		// initialize an array-indexed accumulator of query counts per location ID;
+		// locations added after the search starts are left out
+		int[] counts = new int[documents.size()];
+		for (String word : query) {
+			addCounts(word, true, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds up the query count of each location ID for a partial search.
+	 *
+	 * @param query a list of clean and stemmed words from a search query
+	 * @return the query count of each location ID
+	 */
+	private int[] partialCounts(Collection<? extends String> query) {
+		// initialize an array-indexed accumulator of query counts per location ID;
+		// locations added after the search starts are left out
+		int[] counts = new int[documents.size()];
+		for (String word : query) {
+			addCounts(word, false, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds the number of times every key matching a query word appears in each
+	 * location to the accumulator, looking up the merged counts of a short prefix
+	 * if they are tracked.
+	 *
+	 * @param word   a clean and stemmed word from a search query
+	 * @param exact  true if keys must equal the word, false if keys must start
+	 *               with it
+	 * @param counts the query count of each location ID
+	 */
+	private void addCounts(String word, boolean exact, int[] counts) {
+		PrefixCounts tracked = prefixes;
+		if (!exact && tracked != null) {
+			prefixLock.readLock().lock();
+			try {
+				if (tracked.addTo(word, counts)) {
+					return;
+				}
+			}
+			finally {
+				prefixLock.readLock().unlock();
+			}
+		}
+		addCounts(word, exact, counts, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds the number of times the keys matching a query word appear in each
+	 * location to the accumulator, keeping only the keys found in the most
+	 * locations if a prefix matches too many.
+	 *
+	 * @param word       a clean and stemmed word from a search query
+	 * @param exact      true if keys must equal the word, false if keys must start
+	 *                   with it
+	 * @param counts     the query count of each location ID
+	 * @param expansions the most keys to add for a prefix
+	 * @return {@code true} if some matching keys were left out
+	 */
+	private boolean addCounts(String word, boolean exact, int[] counts, int expansions) {
+		if (exact) {
+			PostingList postings = index.get(word);
+			// if the word is present in the index
+			if (postings != null) {
+				searchHelper(word, postings, counts);
+			}
+			return false;
+		}
+
+		ArrayList<Map.Entry<String, PostingList>> expanded = new ArrayList<>();
+		for (var entry : index.tailMap(word).entrySet()) {
+			// once a word no longer starts with the prefix, exit
+			if (!entry.getKey().startsWith(word)) {
+				break;
+			}
+			expanded.add(entry);
+		}
+		for (var entry : mostFrequent(expanded, expansions, entry -> entry.getValue().size())) {
+			searchHelper(entry.getKey(), entry.getValue(), counts);
+		}
+		return expanded.size() > expansions;
+	}
+
+	/**
+	 * Helps the search methods by adding the number of times a key appears in each
+	 * of its locations to the accumulator, holding the key's stripe read lock.
+	 *
+	 * @param key      a key in the index
+	 * @param postings the postings of the key
+	 * @param counts   the query count of each location ID
+	 */
+	private void searchHelper(String key, PostingList postings, int[] counts) {
+		ReentrantReadWriteLock lock = stripe(key);
+		lock.readLock().lock();
+		try {
+			for (int i = 0; i < postings.size(); i++) {
+				int id = postings.document(i);
+				if (id < counts.length) {
+					counts[id] += postings.positions(i).size();
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Creates a search result for every location with a non-zero query count,
+	 * resolving location IDs back to their names.
+	 *
+	 * @param counts the query count of each location ID
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         word frequency
+	 */
+	private ArrayList<SearchResult> collectResults(int[] counts) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				results.add(new SearchResult(documents.getName(id), counts[id], documents.getCount(id)));
+			}
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Locks every stripe for reading, so the whole index can be written out
+	 * consistently.
+	 */
+	private void readLockAll() {
+		for (ReentrantReadWriteLock lock : stripes) {
+			lock.readLock().lock();
+		}
+	}
+
+	/**
+	 * Releases the read locks taken by {@link #readLockAll()}.
+	 */
+	private void readUnlockAll() {
+		for (ReentrantReadWriteLock lock : stripes) {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		readLockAll();
+		try {
+			JSONWriter.writeIndex(resolve(index.keySet(), this::resolve), path);
+		}
+		finally {
+			readUnlockAll();
+		}
+	}
+
+	@Override
+	public void writeSnapshot(Path path) throws IOException {
+		readLockAll();
+		try {
+			IndexSnapshot.write(index, documents, path);
+		}
+		finally {
+			readUnlockAll();
+		}
+	}
+
+	@Override
+	public void writeSegment(Path path) throws IOException {
+		readLockAll();
+		try {
+			IndexSegment.write(index, documents, path);
+		}
+		finally {
+			readUnlockAll();
+		}
+	}
+
+	@Override
+	public void readSnapshot(Path path) throws IOException {
+		InvertedIndex other = new InvertedIndex(isCompressed());
+		other.readSnapshot(path);
+		addAll(other);
+	}
+
+	@Override
+	public String toString() {
+		readLockAll();
+		try {
+			return JSONWriter.writeIndex(resolve(index.keySet(), this::resolve));
+		}
+		finally {
+			readUnlockAll();
+		}
+	}
+
+	/**
+	 * Resolves the location IDs of a key's postings back to their names. Should
+	 * only be called while holding the key's stripe lock.
+	 *
+	 * @param key a key in the index
+	 * @return a map of location -> positions, sorted by location
+	 */
+	private Map<String, Collection<Integer>> resolve(String key) {
+		TreeMap<String, Collection<Integer>> locations = new TreeMap<>();
+		PostingList postings = index.get(key);
+		for (int i = 0; i < postings.size(); i++) {
+			locations.put(documents.getName(postings.document(i)), postings.positions(i));
+		}
+		return locations;
+	}
+}
@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns each location in an inverted index a dense integer ID and stores its
+ * total word count, so that postings can refer to locations by ID instead of by
+ * name. IDs are assigned in the order locations are first added, starting at
+ * zero.
+ *
+ * @author evancarlson
+ *
+ */
+public class DocumentTable {
+
+	/** Maps a location to its ID. */
+	private final HashMap<String, Integer> ids;
+
+	/** The location of each ID. */
+	private final ArrayList<String> names;
+
+	/** The total word count of each ID. */
+	private int[] counts;
+
+	/** The location most recently added, used to skip the lookup in a loop. */
+	private String lastName;
+
+	/** The ID of the location most recently added. */
+	private int lastId;
+
+	/** The number of times a non-zero word count has been raised. */
+	private long version;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable() {
+		ids = new HashMap<>();
+		names = new ArrayList<>();
+		counts = new int[16];
+		lastName = null;
+		lastId = -1;
+		version = 0;
+	}
+
+	/**
+	 * Initializes a copy of another document table, with the same IDs.
+	 *
+	 * @param other the document table to copy
+	 */
+	public DocumentTable(DocumentTable other) {
+		this();
+		int size = other.size();
+		for (int id = 0; id < size; id++) {
+			add(other.getName(id));
+			updateCount(id, other.getCount(id));
+		}
+		version = other.getVersion();
+	}
+
+	/**
+	 * Returns the ID of a location, assigning it the next ID if it is not yet in
+	 * the table.
+	 *
+	 * @param location the location to add
+	 * @return the ID of the location
+	 */
+	public int add(String location) {
+		// the same location is usually added many times in a row
+		if (location == lastName) {
+			return lastId;
+		}
+
+		Integer id = ids.get(location);
+		if (id == null) {
+			id = names.size();
+			ids.put(location, id);
+			names.add(location);
+			if (id == counts.length) {
+				counts = Arrays.copyOf(counts, id * 2);
+			}
+		}
+
+		lastName = location;
+		lastId = id;
+		return id;
+	}
+
+	/**
+	 * Returns the ID of a location.
+	 *
+	 * @param location the location to look up
+	 * @return the ID of the location, or -1 if it is not in the table
+	 */
+	public int getId(String location) {
+		Integer id = ids.get(location);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the location of an ID.
+	 *
+	 * @param id the ID of a location in the table
+	 * @return the location
+	 */
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the total word count of an ID.
+	 *
+	 * @param id the ID of a location in the table
+	 * @return the word count of the location
+	 */
+	public int getCount(int id) {
+		return counts[id];
+	}
+
+	/**
+	 * Raises the word count of an ID if the given count is higher than the count
+	 * already recorded.
+	 *
+	 * @param id    the ID of a location in the table
+	 * @param count the word count to record
+	 */
+	public void updateCount(int id, int count) {
+		if (counts[id] < count) {
+			// a location without a count is not in any postings yet, so nothing
+			// calculated from the counts can be out of date
+			if (counts[id] > 0) {
+				version++;
+			}
+			counts[id] = count;
+		}
+	}
+
+	/**
+	 * Returns the number of times a non-zero word count has been raised, so
+	 * anything calculated from the word counts can tell when it is out of date. A
+	 * copy of a table starts with the same version.
+	 *
+	 * @return the version of the word counts
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of locations in the table.
+	 *
+	 * @return the number of locations
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Resolves the table into a map of locations to their word counts, sorted by
+	 * location.
+	 *
+	 * @return {@code Map<String, Integer>} an immutable map of locations to their
+	 *         word counts
+	 */
+	public Map<String, Integer> toMap() {
+		if (names.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		TreeMap<String, Integer> map = new TreeMap<>();
+		for (int id = 0; id < names.size(); id++) {
+			map.put(names.get(id), counts[id]);
+		}
+		return Collections.unmodifiableMap(map);
+	}
+}
@@ -1,6 +1,7 @@
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.ArrayList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -50,6 +51,35 @@ public class Driver {
 
 		SearchServer server = null;
 
+		// the cache of query results, if one is requested
+		ResultCache<ArrayList<InvertedIndex.SearchResult>> cache = null;
+
+		// true if positions should be stored in compressed lists rather than TreeSets
+		boolean compressed = !parser.hasFlag("-treeset");
+
+		// true if quoted phrases and NEAR/n operators should be searched by position
+		boolean proximity = parser.hasFlag("-proximity");
+
+		// true if AND, OR, NOT and parentheses should be searched as boolean queries
+		boolean operators = parser.hasFlag("-boolean");
+
+		// a read-only index mapped from a segment file, if one is provided
+		MappedInvertedIndex mapped = null;
+		if (parser.hasFlag("-mapped") && parser.hasValue("-mapped")) {
+			Path inPath = parser.getPath("-mapped");
+			try {
+				mapped = new MappedInvertedIndex(inPath);
+			}
+			catch (IOException e) {
+				System.out.println("Error mapping index segment from " + inPath);
+				log.debug("Error mapping index segment from: ", inPath);
+				return;
+			}
+		}
+
+		// a segmented index, if one is requested
+		SegmentedInvertedIndex segmented = null;
+
 		// true if the program should use multithreading
 		boolean multithreaded = parser.hasFlag("-threads") || parser.hasFlag("-url") || parser.hasFlag("-port");
 
@@ -69,33 +99,89 @@ public class Driver {
 			}
 			// create a work queue
 			queue = new WorkQueue(threads);
-			// create a thread safe inverted index
-			ThreadSafeInvertedIndex threadSafe = new ThreadSafeInvertedIndex();
+
+			// the number of recent queries whose results are cached, or 0 for none
+			int capacity = ResultCache.DEFAULT_CAPACITY;
+			String inputCache = parser.getString("-cache");
+			if (TextParser.isInt(inputCache) && Integer.parseInt(inputCache) >= 0) {
+				capacity = Integer.parseInt(inputCache);
+			}
+			// query files are only cached on request, since each query is searched once
+			if (parser.hasFlag("-cache") && capacity > 0) {
+				cache = new ResultCache<>(capacity);
+			}
+
+			// create a thread safe inverted index, unless using a mapped one
+			ThreadSafeInvertedIndex threadSafe;
+			if (mapped != null) {
+				threadSafe = mapped;
+			}
+			// a segmented index lets searches run while documents are being added
+			else if (parser.hasFlag("-segmented")) {
+				segmented = new SegmentedInvertedIndex(compressed);
+				threadSafe = segmented;
+			}
+			// a sharded index splits locations across several independently locked shards
+			else if (parser.hasFlag("-shards")) {
+				String shardInput = parser.getString("-shards");
+				// check that the user input is an int greater than 0, or default to one
+				// shard per thread
+				int shards = TextParser.isInt(shardInput) && Integer.parseInt(shardInput) > 0 ? Integer.parseInt(shardInput) : threads;
+				threadSafe = new ShardedInvertedIndex(compressed, shards);
+			}
+			// a concurrent index locks each key rather than the whole index
+			else if (parser.hasFlag("-concurrent")) {
+				threadSafe = new ConcurrentInvertedIndex(compressed);
+			}
+			// a stamped lock keeps searches and writes from starving each other
+			else if (parser.hasFlag("-stamped")) {
+				threadSafe = new ThreadSafeInvertedIndex(compressed, new StampedReadWriteLock());
+			}
+			else {
+				threadSafe = new ThreadSafeInvertedIndex(compressed);
+			}
 			index = threadSafe;
 
-			// determine method of building - from files or web pages?
-			if (parser.hasFlag("-url") && parser.hasValue("-url")) {
-				int limit;
-
-				// if they included a limit
-				if (parser.hasFlag("-limit")) {
-					String input = parser.getString("-limit");
-					// validate it and set it
-					if (TextParser.isInt(input) && Integer.parseInt(input) > 0) {
-						limit = Integer.parseInt(input);
-					}
-					// otherwise, set it to a default of fifty
-					else {
-						limit = 50;
-					}
+			int limit;
+
+			// if they included a limit
+			if (parser.hasFlag("-limit")) {
+				String input = parser.getString("-limit");
+				// validate it and set it
+				if (TextParser.isInt(input) && Integer.parseInt(input) > 0) {
+					limit = Integer.parseInt(input);
 				}
-				// default to a limit of fifty to avoid an infinite crawl
+				// otherwise, set it to a default of fifty
 				else {
 					limit = 50;
 				}
+			}
+			// default to a limit of fifty to avoid an infinite crawl
+			else {
+				limit = 50;
+			}
+
+			// determine method of building - from files or web pages?
+			if (parser.hasFlag("-url") && parser.hasValue("-url")) {
 				WebCrawler crawler = new WebCrawler(index, queue, limit);
 				// crawl the web starting at the seed link and add to index
 				builder = crawler;
+			}
+			else {
+				// files of at least this many megabytes are parsed in pieces by several
+				// threads at once
+				long splitBytes = MultithreadedInvertedIndexBuilder.DEFAULT_SPLIT_BYTES;
+				String inputSplit = parser.getString("-split");
+				if (TextParser.isInt(inputSplit) && Integer.parseInt(inputSplit) > 0) {
+					splitBytes = Integer.parseInt(inputSplit) * (1L << 20);
+				}
+				// create a multithreaded inverted index builder
+				builder = new MultithreadedInvertedIndexBuilder(threadSafe, queue, splitBytes);
+			}
+
+			// serve the index after crawling, or directly when given a port (for
+			// example, to serve an index loaded from a snapshot)
+			if ((parser.hasFlag("-url") && parser.hasValue("-url")) || parser.hasFlag("-port")) {
 				int port;
 				String inputPort = parser.getString("-port");
 				if (TextParser.isInt(inputPort)) {
@@ -104,28 +190,65 @@ public class Driver {
 				else {
 					port = 8080;
 				}
-				server = new SearchServer(threadSafe, queue, limit, port);
-			}
-			else {
-				// create a multithreaded inverted index builder
-				builder = new MultithreadedInvertedIndexBuilder(threadSafe, queue);
+				// the most keys to search for each prefix typed into the search page
+				int expansions = SearchServlet.DEFAULT_EXPANSIONS;
+				String inputExpansions = parser.getString("-expansions");
+				if (TextParser.isInt(inputExpansions) && Integer.parseInt(inputExpansions) > 0) {
+					expansions = Integer.parseInt(inputExpansions);
+				}
+				server = new SearchServer(threadSafe, queue, limit, port, expansions,
+						capacity > 0 ? new ResultCache<>(capacity) : null);
 			}
 			// create a multithreaded query processor
-			queries = new MultithreadedQueries(threadSafe, queue);
+			queries = new MultithreadedQueries(threadSafe, queue, proximity, operators, cache);
 		}
 		else {
-			// create a simple inverted index
-			index = new InvertedIndex();
+			// create a simple inverted index, unless using a mapped one
+			index = mapped != null ? mapped : new InvertedIndex(compressed);
 			// create an inverted index builder
 			builder = new InvertedIndexBuilder(index);
 			// create a query processor
-			queries = new Queries(index);
+			queries = new Queries(index, proximity, operators);
 		}
 
 		// process other command line arguments
 
+		// a mapped index is read-only, so it cannot be loaded into or built
+		if (mapped != null && (parser.hasFlag("-load") || parser.hasFlag("-url") || parser.hasFlag("-path"))) {
+			System.out.println("Cannot add to a read-only mapped index; ignoring -load, -url and -path.");
+		}
+
+		// a mapped index searches its segment file directly, so it has no prefix counts
+		if (mapped != null && parser.hasFlag("-prefixes")) {
+			System.out.println("A mapped index does not track prefixes; ignoring -prefixes.");
+		}
+
+		// keep merged counts of short prefixes for partial search as the index is
+		// built, limited to a number of megabytes
+		boolean prefixes = mapped == null && parser.hasFlag("-prefixes");
+		if (prefixes) {
+			long maxBytes = PrefixCounts.DEFAULT_MAX_BYTES;
+			String inputPrefixes = parser.getString("-prefixes");
+			if (TextParser.isInt(inputPrefixes) && Integer.parseInt(inputPrefixes) > 0) {
+				maxBytes = Integer.parseInt(inputPrefixes) * (1L << 20);
+			}
+			index.trackPrefixes(maxBytes);
+		}
+
+		// if loading a previously saved snapshot
+		if (mapped == null && parser.hasFlag("-load") && parser.hasValue("-load")) {
+			Path inPath = parser.getPath("-load");
+			try {
+				index.readSnapshot(inPath);
+			}
+			catch (IOException e) {
+				System.out.println("Error loading index snapshot from " + inPath);
+				log.debug("Error loading index snapshot from: ", inPath);
+			}
+		}
+
 		// if building from web pages
-		if (parser.hasFlag("-url") && parser.hasValue("-url")) {
+		if (mapped == null && parser.hasFlag("-url") && parser.hasValue("-url")) {
 			URL seed = null;
 			// grab the input seed url
 			try {
@@ -139,7 +262,7 @@ public class Driver {
 		}
 
 		// if building from files
-		if (parser.hasFlag("-path") && parser.hasValue("-path")) {
+		if (mapped == null && parser.hasFlag("-path") && parser.hasValue("-path")) {
 			// retrieve provided input path
 			Path inPath = parser.getPath("-path");
 			try {
@@ -151,6 +274,45 @@ public class Driver {
 			}
 		}
 
+		// report how many words were stemmed rather than looked up while building
+		if (mapped == null && (parser.hasValue("-path") || parser.hasValue("-url"))) {
+			log.info("Stem cache: " + StemCache.SHARED);
+		}
+
+		// report how much memory the prefix counts take up
+		if (prefixes) {
+			log.info("Prefix counts take up about {} KB, counting prefixes of up to {} characters.",
+					index.getPrefixBytes() / 1024, index.getPrefixLength());
+		}
+
+		// if there is a snapshot output flag
+		if (parser.hasFlag("-save")) {
+			// retrieve provided output path or default to index.snapshot
+			Path outPath = parser.getPath("-save", Path.of("index.snapshot"));
+			try {
+				// save the inverted index as a binary snapshot
+				index.writeSnapshot(outPath);
+			}
+			catch (IOException e) {
+				System.out.println("Error saving index snapshot to " + outPath.toString());
+				log.debug("Error saving index snapshot to: ", outPath);
+			}
+		}
+
+		// if there is a segment output flag
+		if (parser.hasFlag("-segment")) {
+			// retrieve provided output path or default to index.segment
+			Path outPath = parser.getPath("-segment", Path.of("index.segment"));
+			try {
+				// write the inverted index as a segment file that can be mapped
+				index.writeSegment(outPath);
+			}
+			catch (IOException e) {
+				System.out.println("Error writing index segment to " + outPath.toString());
+				log.debug("Error writing index segment to: ", outPath);
+			}
+		}
+
 		// if there is an index output flag
 		if (parser.hasFlag("-index")) {
 			// retrieve provided output path or default to index.json
@@ -186,6 +348,9 @@ public class Driver {
 			try {
 				boolean exact = parser.hasFlag("-exact");
 				queries.processQueries(inPath, exact);
+				if (cache != null) {
+					log.info("Result cache: " + cache);
+				}
 			}
 			catch (IOException e) {
 				System.out.println("There was a problem reading queries from " + inPath);
@@ -222,5 +387,10 @@ public class Driver {
 			queue.shutdown();
 			log.info("WorkQueue is shut down.");
 		}
+
+		// stop merging segments in the background
+		if (segmented != null) {
+			segmented.shutdown();
+		}
 	}
 }
\ No newline at end of file
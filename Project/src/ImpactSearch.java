@@ -0,0 +1,160 @@
+import java.util.List;
+
+/**
+ * Finds the best locations of a short query by reading the postings of each
+ * query key in order of impact, and stops as soon as no location that has not
+ * been read yet can score high enough to be kept.
+ *
+ * For a single key, the impact order is the order of the search results, so
+ * only the first {@code k} postings are read. For several keys, the postings of
+ * every key are read in turns, and each newly seen location is scored by
+ * looking it up in the postings of the other keys. A location that has not been
+ * seen yet scores at most the impacts of the next unread postings added
+ * together, so once the kept locations all score higher, the search is done.
+ *
+ * @author evancarlson
+ *
+ * @see PostingList#impactOrder(DocumentTable)
+ * @see MaxScore
+ */
+public class ImpactSearch {
+
+	/**
+	 * How much the score of unread locations is raised before comparing it to the
+	 * lowest kept score, so that rounding in the sum of impacts never drops a
+	 * location that ties the kept locations.
+	 */
+	private static final double SLACK = 1 + 1e-9;
+
+	/** The postings of each query key. */
+	private final PostingList[] terms;
+
+	/** The indexes of the postings of each key in order of impact. */
+	private final int[][] orders;
+
+	/** The document table of the index being searched. */
+	private final DocumentTable documents;
+
+	/** The query count of each location ID, filled in as locations are scored. */
+	private final int[] counts;
+
+	/** The number of locations that were scored. */
+	private int scored;
+
+	/** Whether every matching location was scored. */
+	private boolean exhaustive;
+
+	/**
+	 * Initializes the evaluation of a query.
+	 *
+	 * @param postings  the postings of each query key; a key is counted as many
+	 *                  times as it is listed
+	 * @param documents the document table of the index being searched
+	 * @param counts    the query count of each location ID, filled in for every
+	 *                  location that is scored
+	 */
+	public ImpactSearch(List<PostingList> postings, DocumentTable documents, int[] counts) {
+		this.terms = postings.toArray(new PostingList[0]);
+		this.orders = new int[terms.length][];
+		for (int i = 0; i < terms.length; i++) {
+			orders[i] = terms[i].impactOrder(documents);
+		}
+		this.documents = documents;
+		this.counts = counts;
+		this.scored = 0;
+		this.exhaustive = true;
+	}
+
+	/**
+	 * Scores the locations of the query in order of impact, offering every scored
+	 * location to a heap, until no unread location can be kept.
+	 *
+	 * @param heap the heap that keeps the best locations, sharing the query counts
+	 *             of this evaluation
+	 */
+	public void evaluate(TopHeap heap) {
+		if (terms.length == 1) {
+			// the impact order is already the order of the results
+			PostingList postings = terms[0];
+			for (int i = 0; i < orders[0].length && !heap.isFull(); i++) {
+				int document = postings.document(orders[0][i]);
+				counts[document] = postings.positions(orders[0][i]).size();
+				heap.offer(document);
+			}
+			// the number of matches is known without reading the rest
+			scored = postings.size();
+			return;
+		}
+
+		int[] cursors = new int[terms.length];
+		while (true) {
+			boolean unread = false;
+			for (int i = 0; i < terms.length; i++) {
+				if (cursors[i] < orders[i].length) {
+					score(terms[i].document(orders[i][cursors[i]++]), heap);
+					unread |= cursors[i] < orders[i].length;
+				}
+			}
+			if (!unread) {
+				break;
+			}
+
+			if (heap.isFull()) {
+				double bound = 0;
+				for (int i = 0; i < terms.length; i++) {
+					if (cursors[i] < orders[i].length) {
+						bound += terms[i].impact(orders[i][cursors[i]], documents);
+					}
+				}
+				if (heap.threshold() > bound * SLACK) {
+					exhaustive = false;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scores a location by looking it up in the postings of every key, unless it
+	 * has already been scored.
+	 *
+	 * @param document the location ID to score
+	 * @param heap     the heap that keeps the best locations
+	 */
+	private void score(int document, TopHeap heap) {
+		// a scored location always has a non-zero count
+		if (counts[document] > 0) {
+			return;
+		}
+		int count = 0;
+		for (PostingList postings : terms) {
+			PositionList positions = postings.get(document);
+			if (positions != null) {
+				count += positions.size();
+			}
+		}
+		counts[document] = count;
+		scored++;
+		heap.offer(document);
+	}
+
+	/**
+	 * Returns the number of locations that were scored, or the number of matches
+	 * of a single key.
+	 *
+	 * @return the number of scored locations
+	 */
+	public int getScored() {
+		return scored;
+	}
+
+	/**
+	 * Returns whether every location matching the query was counted, in which case
+	 * {@link #getScored()} is the exact number of matching locations.
+	 *
+	 * @return {@code true} if no location was left unread
+	 */
+	public boolean isExhaustive() {
+		return exhaustive;
+	}
+}
@@ -0,0 +1,1096 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Benchmarks of the inverted index implementations, run from the command line.
+ * Documents and queries are generated from a fixed seed, so runs are
+ * repeatable.
+ *
+ * <pre>
+ * java IndexBenchmark -benchmark contention [-threads n] [-seconds n] [-documents n]
+ * java IndexBenchmark -benchmark merge [-documents n]
+ * java IndexBenchmark -benchmark pruning [-documents n] [-seconds n]
+ * java IndexBenchmark -benchmark impact [-documents n] [-seconds n]
+ * java IndexBenchmark -benchmark proximity [-seconds n]
+ * java IndexBenchmark -benchmark boolean [-documents n] [-seconds n]
+ * java IndexBenchmark -benchmark terms [-documents n] [-seconds n]
+ * java IndexBenchmark -benchmark expansion [-documents n] [-seconds n]
+ * java IndexBenchmark -benchmark prefixes [-documents n] [-seconds n]
+ * java IndexBenchmark -benchmark tokenizer [-seconds n]
+ * java IndexBenchmark -benchmark stems [-threads n] [-documents n]
+ * java IndexBenchmark -benchmark ingest [-documents n]
+ * java IndexBenchmark -benchmark traversal [-threads n] [-documents n]
+ * </pre>
+ *
+ * @author evancarlson
+ *
+ */
+public class IndexBenchmark {
+
+	/** The seed used to generate documents and queries. */
+	private static final long SEED = 42;
+
+	/** The number of distinct words in generated documents. */
+	private static final int VOCABULARY = 20000;
+
+	/** The number of words in a generated document. */
+	private static final int DOCUMENT_LENGTH = 300;
+
+	/** The maximum number of latencies recorded by each searching thread. */
+	private static final int MAX_SAMPLES = 1 << 18;
+
+	/**
+	 * Runs the benchmark named by the {@code -benchmark} flag.
+	 *
+	 * @param args flag/value pairs
+	 * @throws InterruptedException if interrupted while waiting for a benchmark
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		ArgumentParser parser = new ArgumentParser(args);
+		String benchmark = parser.getString("-benchmark", "contention");
+		int threads = getInt(parser, "-threads", 4);
+		int seconds = getInt(parser, "-seconds", 5);
+		int documents = getInt(parser, "-documents", 2000);
+
+		switch (benchmark) {
+			case "contention":
+				contention(threads, seconds, documents);
+				break;
+			case "merge":
+				merge(documents);
+				break;
+			case "pruning":
+				pruning(documents, seconds);
+				break;
+			case "impact":
+				impact(documents, seconds);
+				break;
+			case "proximity":
+				proximity(seconds);
+				break;
+			case "boolean":
+				conjunction(documents, seconds);
+				break;
+			case "terms":
+				terms(documents, seconds);
+				break;
+			case "expansion":
+				expansion(documents, seconds);
+				break;
+			case "prefixes":
+				prefixes(documents, seconds);
+				break;
+			case "tokenizer":
+				tokenizer(seconds);
+				break;
+			case "stems":
+				stems(threads, documents);
+				break;
+			case "ingest":
+				try {
+					ingest(documents);
+				}
+				catch (IOException e) {
+					System.out.println("Error writing or reading the generated text: " + e.getMessage());
+				}
+				break;
+			case "traversal":
+				try {
+					traversal(threads, documents);
+				}
+				catch (IOException e) {
+					System.out.println("Error writing or reading the generated files: " + e.getMessage());
+				}
+				break;
+			default:
+				System.out.println("Unknown benchmark: " + benchmark);
+		}
+	}
+
+	/**
+	 * Measures throughput and search latency under mixed crawl and search load.
+	 * Each index is first loaded with some documents, then half of the threads
+	 * keep adding new documents while the other half keep searching.
+	 *
+	 * @param threads   the total number of adding and searching threads
+	 * @param seconds   the number of seconds to run each index for
+	 * @param documents the number of documents to load before measuring
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public static void contention(int threads, int seconds, int documents) throws InterruptedException {
+		System.out.printf("Contention: %d adding and %d searching threads, %d seconds, %d preloaded documents%n",
+				Math.max(1, threads / 2), Math.max(1, threads - threads / 2), seconds, documents);
+		System.out.printf("%-26s %12s %12s %10s %10s %10s%n", "index", "adds/s", "searches/s", "p50 us", "p99 us", "max us");
+
+		contention("ThreadSafeInvertedIndex", ThreadSafeInvertedIndex::new, threads, seconds, documents);
+		contention("ThreadSafe (stamped lock)", () -> new ThreadSafeInvertedIndex(true, new StampedReadWriteLock()), threads, seconds,
+				documents);
+		contention("ConcurrentInvertedIndex", ConcurrentInvertedIndex::new, threads, seconds, documents);
+		contention("ShardedInvertedIndex", () -> new ShardedInvertedIndex(true, threads), threads, seconds, documents);
+		contention("SegmentedInvertedIndex", SegmentedInvertedIndex::new, threads, seconds, documents);
+	}
+
+	/**
+	 * Measures a single index implementation under mixed crawl and search load.
+	 *
+	 * @param name      the name to print for the implementation
+	 * @param factory   creates an empty index
+	 * @param threads   the total number of adding and searching threads
+	 * @param seconds   the number of seconds to run for
+	 * @param documents the number of documents to load before measuring
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	private static void contention(String name, Supplier<ThreadSafeInvertedIndex> factory, int threads, int seconds, int documents)
+			throws InterruptedException {
+		ThreadSafeInvertedIndex index = factory.get();
+		Random random = new Random(SEED);
+		for (int i = 0; i < documents; i++) {
+			index.addAll(document("preload/" + i, random));
+		}
+
+		int adders = Math.max(1, threads / 2);
+		int searchers = Math.max(1, threads - threads / 2);
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+		AtomicLong adds = new AtomicLong();
+		List<long[]> samples = new ArrayList<>();
+		List<Integer> counts = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(adders + searchers);
+
+		for (int t = 0; t < adders; t++) {
+			int thread = t;
+			new Thread(() -> {
+				Random local = new Random(SEED + thread);
+				for (int i = 0; System.nanoTime() < deadline; i++) {
+					index.addAll(document("crawl/" + thread + "/" + i, local));
+					adds.incrementAndGet();
+				}
+				done.countDown();
+			}).start();
+		}
+
+		for (int t = 0; t < searchers; t++) {
+			long[] latencies = new long[MAX_SAMPLES];
+			int[] count = new int[1];
+			int thread = t;
+			new Thread(() -> {
+				Random local = new Random(SEED - thread);
+				while (System.nanoTime() < deadline) {
+					List<String> query = List.of(word(local), word(local));
+					long start = System.nanoTime();
+					index.exactSearch(query);
+					latencies[count[0]++ % MAX_SAMPLES] = System.nanoTime() - start;
+				}
+				synchronized (counts) {
+					samples.add(Arrays.copyOf(latencies, Math.min(count[0], MAX_SAMPLES)));
+					counts.add(count[0]);
+				}
+				done.countDown();
+			}).start();
+		}
+
+		done.await();
+		if (index instanceof SegmentedInvertedIndex) {
+			((SegmentedInvertedIndex) index).shutdown();
+		}
+
+		long searches = counts.stream().mapToLong(Integer::longValue).sum();
+		long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+		System.out.printf("%-26s %12.0f %12.0f %10.1f %10.1f %10.1f%n", name,
+				adds.get() / (double) seconds, searches / (double) seconds,
+				percentile(all, 0.50) / 1000.0, percentile(all, 0.99) / 1000.0, percentile(all, 1.0) / 1000.0);
+	}
+
+	/**
+	 * Measures how long the write lock of a thread-safe index is held per merged
+	 * document, the way the crawler and multithreaded builder add documents, and
+	 * how long a bulk merge of two large indexes takes.
+	 *
+	 * @param documents the number of documents to merge
+	 */
+	public static void merge(int documents) {
+		Random random = new Random(SEED);
+		ArrayList<InvertedIndex> locals = new ArrayList<>();
+		for (int i = 0; i < documents; i++) {
+			locals.add(document("merge/" + i, random));
+		}
+
+		HoldTimer timer = new HoldTimer();
+		ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex(true, timer);
+		long start = System.nanoTime();
+		for (InvertedIndex local : locals) {
+			index.addAll(local);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("Merged %d documents of %d words into a thread-safe index%n", documents, DOCUMENT_LENGTH);
+		System.out.printf("  addAll:     %8.1f us per document%n", elapsed / 1000.0 / documents);
+		System.out.printf("  write lock: %8.1f us held per document%n", timer.held / 1000.0 / documents);
+
+		// merge two halves, as when loading a snapshot into a non-empty index or
+		// combining segments
+		InvertedIndex left = new InvertedIndex();
+		InvertedIndex right = new InvertedIndex();
+		for (int i = 0; i < locals.size(); i++) {
+			(i % 2 == 0 ? left : right).addAll(locals.get(i));
+		}
+		start = System.nanoTime();
+		left.addAll(right);
+		elapsed = System.nanoTime() - start;
+		System.out.printf("  bulk merge: %8.1f ms for %d + %d keys%n", elapsed / 1_000_000.0, left.numKeys(), right.numKeys());
+	}
+
+	/**
+	 * Compares the exhaustive top-k search with the {@link MaxScore} search on
+	 * multi-word queries of common words.
+	 *
+	 * @param documents the number of documents in the corpus
+	 * @param seconds   the number of seconds to run each search for
+	 */
+	public static void pruning(int documents, int seconds) {
+		Random random = new Random(SEED);
+		InvertedIndex index = corpus(documents, random);
+
+		List<List<String>> queries = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			// common words, like the stems of a typical multi-word query
+			List<String> query = new ArrayList<>();
+			for (int j = 0, words = 2 + random.nextInt(4); j < words; j++) {
+				query.add("w" + (1 + random.nextInt(50)));
+			}
+			queries.add(query);
+		}
+
+		System.out.printf("Top 10 of %d queries of 2 to 5 common words over %d documents%n", queries.size(), documents);
+		compare(queries, seconds, query -> index.search(query, true, 10), query -> index.pruneSearch(query, true, 10), "MaxScore");
+	}
+
+	/**
+	 * Compares the exhaustive top-k search with the impact-ordered search on one
+	 * and two word queries, like those typed into the search page.
+	 *
+	 * @param documents the number of documents in the corpus
+	 * @param seconds   the number of seconds to run each search for
+	 */
+	public static void impact(int documents, int seconds) {
+		Random random = new Random(SEED);
+		InvertedIndex index = corpus(documents, random);
+
+		List<List<String>> queries = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			queries.add(random.nextBoolean() ? List.of(word(random)) : List.of(word(random), word(random)));
+		}
+
+		System.out.printf("Top 10 of %d queries of 1 or 2 words over %d documents%n", queries.size(), documents);
+		compare(queries, seconds, query -> index.search(query, true, 10), query -> index.impactSearch(query, true, 10),
+				"impact-ordered");
+	}
+
+	/**
+	 * Compares counting phrase and NEAR/n matches by galloping through positions
+	 * with a nested loop over every pair of positions, in documents of growing
+	 * length. Each clause pairs a common word with a rarer one, as most real
+	 * phrases do.
+	 *
+	 * @param seconds the number of seconds to split between all the measurements
+	 */
+	public static void proximity(int seconds) {
+		Random random = new Random(SEED);
+		List<ProximityQuery.Clause> clauses = List.of(
+				new ProximityQuery.Clause(new String[] { "w2", "w500" }, 1, true),
+				new ProximityQuery.Clause(new String[] { "w3", "w40", "w7" }, 1, true),
+				new ProximityQuery.Clause(new String[] { "w5", "w300" }, 5, false));
+		int[] lengths = { 1_000, 10_000, 100_000, 1_000_000 };
+		long budget = seconds * 1_000_000_000L / (lengths.length * clauses.size() * 2);
+
+		System.out.printf("%-10s %-22s %10s %14s %14s %9s%n", "positions", "clause", "matches", "nested us", "galloping us",
+				"speedup");
+		for (int length : lengths) {
+			HashMap<String, ArrayList<Integer>> words = new HashMap<>();
+			for (int position = 1; position <= length; position++) {
+				words.computeIfAbsent(word(random), word -> new ArrayList<>()).add(position);
+			}
+
+			for (ProximityQuery.Clause clause : clauses) {
+				int[][] positions = new int[clause.size()][];
+				for (int i = 0; i < clause.size(); i++) {
+					positions[i] = words.getOrDefault(clause.word(i), new ArrayList<>()).stream().mapToInt(Integer::intValue)
+							.toArray();
+				}
+
+				int expected = nestedCount(clause, positions);
+				int actual = clause.count(positions);
+				double nested = time(() -> nestedCount(clause, positions), budget);
+				double galloping = time(() -> clause.count(positions), budget);
+				System.out.printf("%-10d %-22s %10s %14.1f %14.1f %8.1fx%n", length, clause,
+						expected == actual ? actual : actual + "!=" + expected, nested, galloping, nested / galloping);
+			}
+		}
+	}
+
+	/**
+	 * Compares {@code AND} queries of a common word and a rarer one evaluated by
+	 * {@link BooleanQuery}, which skips through the common word's postings, with
+	 * a merge that steps through every posting of both words.
+	 *
+	 * @param documents the number of documents in the corpus
+	 * @param seconds   the number of seconds to run each search for
+	 */
+	public static void conjunction(int documents, int seconds) {
+		Random random = new Random(SEED);
+		InvertedIndex index = corpus(documents, random);
+
+		List<List<String>> queries = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String common = "w" + (1 + random.nextInt(5));
+			String rare = "w" + (500 + random.nextInt(VOCABULARY - 500));
+			queries.add(List.of(common, rare));
+		}
+
+		// the generated words are not valid query words, so every query is the same
+		// parsed query with its two words looked up in place of these
+		BooleanQuery conjunction = BooleanQuery.parse("first AND second");
+		int mismatches = 0;
+		for (List<String> query : queries) {
+			if (!Arrays.equals(intersect(index, conjunction, query), mergeCounts(index, query))) {
+				mismatches++;
+			}
+		}
+
+		System.out.printf("%d queries of a common AND a rarer word over %d documents%n", queries.size(), documents);
+		System.out.printf("%-26s %12s %10s%n", "intersection", "queries/s", "mean us");
+		Map<String, IntSupplier> searches = new LinkedHashMap<>();
+		int[] next = new int[1];
+		searches.put("merge", () -> mergeCounts(index, queries.get(next[0]++ % queries.size())).length);
+		searches.put("galloping", () -> intersect(index, conjunction, queries.get(next[0]++ % queries.size())).length);
+		for (var search : searches.entrySet()) {
+			long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+			long start = System.nanoTime();
+			long count = 0;
+			while (System.nanoTime() < deadline) {
+				search.getValue().getAsInt();
+				count++;
+			}
+			double elapsed = (System.nanoTime() - start) / 1000.0;
+			System.out.printf("%-26s %12.0f %10.1f%n", search.getKey(), count / (elapsed / 1_000_000), elapsed / count);
+		}
+		System.out.printf("%d mismatched queries%n", mismatches);
+
+		// queries nested far deeper than the parser recurses must still be searched
+		System.out.printf("%-26s %12s %10s%n", "deeply nested query", "ms", "results");
+		for (String nesting : List.of("(", "NOT ", "AND ", "(NOT ", "NOT (")) {
+			String line = nesting.repeat(100_000) + "w1 OR w2" + ")".repeat(100_000);
+			long start = System.nanoTime();
+			int results = index.booleanSearch(BooleanQuery.parse(line), false).size();
+			double elapsed = (System.nanoTime() - start) / 1_000_000.0;
+			System.out.printf("%-26s %12.1f %10d%n", "\"" + nesting.trim() + "\" x 100000", elapsed, results);
+		}
+	}
+
+	/**
+	 * Compares expanding prefixes by walking the sorted keys of the index with
+	 * finding their range in a {@link TermDictionary}, and estimates the memory
+	 * each takes to hold the keys.
+	 *
+	 * @param documents the number of documents in the corpus
+	 * @param seconds   the number of seconds to run each expansion for
+	 */
+	public static void terms(int documents, int seconds) {
+		Random random = new Random(SEED);
+		TreeMap<String, PostingList> index = new TreeMap<>(corpus(documents, random).postings());
+		String[] keys = index.keySet().toArray(new String[0]);
+		PostingList[] postings = index.values().toArray(new PostingList[0]);
+
+		long start = System.nanoTime();
+		TermDictionary dictionary = new TermDictionary(keys.length, i -> keys[i]);
+		double built = (System.nanoTime() - start) / 1_000_000.0;
+
+		// a tree map entry is about 40 bytes, and a string about 24 bytes plus its
+		// byte array, with compressed object pointers
+		long tree = 0;
+		for (String key : keys) {
+			tree += 40 + 24 + ((16 + key.length() + 7) / 8) * 8;
+		}
+		System.out.printf("%d keys: tree map keys about %d KB, term dictionary %d KB, built in %.1f ms%n", keys.length,
+				tree / 1024, dictionary.sizeInBytes() / 1024, built);
+
+		List<String> prefixes = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String key = keys[random.nextInt(keys.length)];
+			prefixes.add(key.substring(0, Math.min(key.length(), 2 + random.nextInt(3))));
+		}
+
+		Map<String, IntSupplier> expansions = new LinkedHashMap<>();
+		int[] next = new int[1];
+		expansions.put("tree map walk", () -> {
+			String prefix = prefixes.get(next[0]++ % prefixes.size());
+			ArrayList<PostingList> matches = new ArrayList<>();
+			for (var entry : index.tailMap(prefix).entrySet()) {
+				if (!entry.getKey().startsWith(prefix)) {
+					break;
+				}
+				matches.add(entry.getValue());
+			}
+			return matches.size();
+		});
+		expansions.put("term dictionary", () -> {
+			int[] range = dictionary.range(prefixes.get(next[0]++ % prefixes.size()));
+			ArrayList<PostingList> matches = new ArrayList<>(Arrays.asList(postings).subList(range[0], range[1]));
+			return matches.size();
+		});
+
+		int mismatches = 0;
+		for (int i = 0; i < prefixes.size(); i++) {
+			next[0] = i;
+			int walked = expansions.get("tree map walk").getAsInt();
+			next[0] = i;
+			mismatches += walked == expansions.get("term dictionary").getAsInt() ? 0 : 1;
+		}
+
+		System.out.printf("Expanding %d prefixes of 2 to 4 characters%n", prefixes.size());
+		System.out.printf("%-26s %12s %10s%n", "expansion", "prefixes/s", "mean us");
+		for (var expansion : expansions.entrySet()) {
+			double mean = time(expansion.getValue(), seconds * 1_000_000_000L);
+			System.out.printf("%-26s %12.0f %10.2f%n", expansion.getKey(), 1_000_000 / mean, mean);
+		}
+		System.out.printf("%d mismatched prefixes%n", mismatches);
+	}
+
+	/**
+	 * Compares searching every key that starts with a prefix with searching only
+	 * the most frequent ones, for prefixes of each length. Short prefixes match
+	 * the most keys, so they are where the bound matters.
+	 *
+	 * @param documents the number of documents in the corpus
+	 * @param seconds   the number of seconds to run each search for
+	 */
+	public static void expansion(int documents, int seconds) {
+		Random random = new Random(SEED);
+		InvertedIndex index = corpus(documents, random);
+		List<String> keys = new ArrayList<>(index.getKeys());
+		int bound = SearchServlet.DEFAULT_EXPANSIONS;
+
+		System.out.printf("%d keys, top 10 of single-prefix queries, at most %d keys per prefix%n", keys.size(), bound);
+		System.out.printf("%-8s %10s %14s %14s %13s%n", "prefix", "keys", "every key us", "bounded us", "same top 10");
+		for (int length = 1; length <= 4; length++) {
+			List<List<String>> queries = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				String key = keys.get(random.nextInt(keys.size()));
+				queries.add(List.of(key.substring(0, Math.min(key.length(), length))));
+			}
+
+			long expanded = 0;
+			int same = 0;
+			for (List<String> query : queries) {
+				TopResults every = index.impactSearch(query, false, 10);
+				TopResults bounded = index.impactSearch(query, false, 10, bound);
+				expanded += index.search(query, false).isEmpty() ? 0 : keys.stream().filter(key -> key.startsWith(query.get(0))).count();
+				same += every.getResults().toString().equals(bounded.getResults().toString()) ? 1 : 0;
+			}
+
+			int[] next = new int[2];
+			double every = time(() -> index.impactSearch(queries.get(next[0]++ % queries.size()), false, 10).getTotal(),
+					seconds * 1_000_000_000L);
+			double bounded = time(() -> index.impactSearch(queries.get(next[1]++ % queries.size()), false, 10, bound).getTotal(),
+					seconds * 1_000_000_000L);
+			System.out.printf("%-8d %10d %14.1f %14.1f %12d%%%n", length, expanded / queries.size(), every, bounded,
+					100 * same / queries.size());
+		}
+	}
+
+	/**
+	 * Compares partial searches for prefixes of one to three characters with and
+	 * without {@link PrefixCounts}, and measures what keeping the counts up to
+	 * date costs while the corpus is added.
+	 *
+	 * @param documents the number of documents in the corpus
+	 * @param seconds   the number of seconds to run each search for
+	 */
+	public static void prefixes(int documents, int seconds) {
+		long start = System.nanoTime();
+		InvertedIndex plain = corpus(documents, new Random(SEED));
+		double plainBuilt = (System.nanoTime() - start) / 1_000_000.0;
+
+		// add the same corpus one document at a time, counting prefixes as it goes
+		InvertedIndex tracked = new InvertedIndex();
+		tracked.trackPrefixes(PrefixCounts.DEFAULT_MAX_BYTES);
+		Random random = new Random(SEED);
+		start = System.nanoTime();
+		for (int i = 0; i < documents; i++) {
+			tracked.addAll(document("zipf/" + i, random, 50 + random.nextInt(1000)));
+		}
+		double trackedBuilt = (System.nanoTime() - start) / 1_000_000.0;
+
+		System.out.printf("%d keys: built in %.0f ms, or %.0f ms counting prefixes of up to %d characters in %d KB%n",
+				plain.numKeys(), plainBuilt, trackedBuilt, tracked.getPrefixLength(), tracked.getPrefixBytes() / 1024);
+		System.out.printf("%-8s %10s %14s %14s %10s%n", "prefix", "keys", "postings us", "counts us", "mismatches");
+
+		List<String> keys = new ArrayList<>(plain.getKeys());
+		for (int length = 1; length <= PrefixCounts.MAX_LENGTH; length++) {
+			List<List<String>> queries = new ArrayList<>();
+			long expanded = 0;
+			for (int i = 0; i < 50; i++) {
+				String key = keys.get(random.nextInt(keys.size()));
+				String prefix = key.substring(0, Math.min(key.length(), length));
+				queries.add(List.of(prefix));
+				expanded += keys.stream().filter(other -> other.startsWith(prefix)).count();
+			}
+
+			int mismatches = 0;
+			for (List<String> query : queries) {
+				mismatches += plain.partialSearch(query).toString().equals(tracked.partialSearch(query).toString()) ? 0 : 1;
+			}
+
+			int[] next = new int[2];
+			double postings = time(() -> plain.search(queries.get(next[0]++ % queries.size()), false, 10).getTotal(),
+					seconds * 1_000_000_000L);
+			double counts = time(() -> tracked.search(queries.get(next[1]++ % queries.size()), false, 10).getTotal(),
+					seconds * 1_000_000_000L);
+			System.out.printf("%-8d %10d %14.1f %14.1f %10d%n", length, expanded / queries.size(), postings, counts,
+					mismatches);
+		}
+	}
+
+	/**
+	 * Compares splitting lines of text into words with the regular expressions of
+	 * {@link TextParser#parse(String)} and with a {@link Tokenizer}, for mostly
+	 * ASCII text with punctuation and for text with accented letters.
+	 *
+	 * @param seconds the number of seconds to run each parser for
+	 */
+	public static void tokenizer(int seconds) {
+		System.out.printf("%-10s %14s %14s %10s%n", "text", "regex us", "tokenizer us", "mismatches");
+		Random random = new Random(SEED);
+		String[] punctuation = { "", "", "", ",", ".", "'s", "-", "(", ")", "\"" };
+		for (String accents : List.of("", "\u00e9\u00fc\u00e7\u00c5")) {
+			// lines of 12 words, some capitalized or with punctuation around them
+			List<String> lines = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				StringBuilder line = new StringBuilder();
+				for (int j = 0; j < 12; j++) {
+					String word = word(random);
+					if (random.nextInt(4) == 0) {
+						word = word.toUpperCase();
+					}
+					if (!accents.isEmpty() && random.nextInt(3) == 0) {
+						word += accents.charAt(random.nextInt(accents.length()));
+					}
+					line.append(word).append(punctuation[random.nextInt(punctuation.length)]).append(' ');
+				}
+				lines.add(line.toString());
+			}
+
+			Tokenizer tokenizer = new Tokenizer();
+			int mismatches = 0;
+			for (String line : lines) {
+				mismatches += Arrays.equals(TextParser.parse(line), tokenizer.parse(line)) ? 0 : 1;
+			}
+
+			int[] next = new int[2];
+			double regex = time(() -> TextParser.parse(lines.get(next[0]++ % lines.size())).length,
+					seconds * 1_000_000_000L);
+			int[] words = new int[1];
+			double tokenized = time(() -> tokenizer.tokenize(lines.get(next[1]++ % lines.size()), 0,
+					(word, position) -> words[0] += word.length()), seconds * 1_000_000_000L);
+			System.out.printf("%-10s %14.2f %14.2f %10d%n", accents.isEmpty() ? "ascii" : "accented", regex, tokenized,
+					mismatches);
+		}
+	}
+
+	/**
+	 * Compares stemming the words of many documents with a new stemmer for each
+	 * document, as the builders used to, and with a stem cache shared by every
+	 * thread. The words are made of common English endings on generated roots, so
+	 * the stemmer has real work to do, and follow a Zipf-like distribution.
+	 *
+	 * @param threads   the number of threads stemming documents at once
+	 * @param documents the number of documents to stem
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public static void stems(int threads, int documents) throws InterruptedException {
+		String[] endings = { "", "s", "ing", "ed", "er", "ation", "ly", "ness", "ful", "ies" };
+		Random random = new Random(SEED);
+		List<String[]> texts = new ArrayList<>();
+		for (int i = 0; i < documents; i++) {
+			String[] text = new String[DOCUMENT_LENGTH];
+			for (int j = 0; j < text.length; j++) {
+				// turn the digits of a generated word into letters, keeping its frequency
+				char[] root = word(random).substring(1).toCharArray();
+				for (int k = 0; k < root.length; k++) {
+					root[k] += 'a' - '0';
+				}
+				text[j] = "st" + new String(root) + endings[random.nextInt(endings.length)];
+			}
+			texts.add(text);
+		}
+
+		StemCache cache = new StemCache(InvertedIndexBuilder.DEFAULT, StemCache.DEFAULT_CAPACITY);
+		System.out.printf("Stemming %d documents of %d words with %d threads%n", documents, DOCUMENT_LENGTH, threads);
+		System.out.printf("%-26s %10s %12s%n", "stemmer", "ms", "ns/word");
+		for (int round = 0; round < 2; round++) {
+			for (String name : List.of("stemmer per document", "stem cache")) {
+				long start = System.nanoTime();
+				WorkQueue queue = new WorkQueue(threads);
+				for (String[] text : texts) {
+					queue.execute(() -> {
+						Stemmer stemmer = name.equals("stem cache") ? cache
+								: new SnowballStemmer(InvertedIndexBuilder.DEFAULT);
+						int length = 0;
+						for (String word : text) {
+							length += stemmer.stem(word).length();
+						}
+						if (length == 42) {
+							System.out.print("");
+						}
+					});
+				}
+				queue.finish();
+				queue.shutdown();
+				double elapsed = System.nanoTime() - start;
+				// the first round only warms up
+				if (round == 1) {
+					System.out.printf("%-26s %10.1f %12.1f%n", name, elapsed / 1_000_000,
+							elapsed / ((long) documents * DOCUMENT_LENGTH));
+				}
+			}
+		}
+		System.out.println("Stem cache: " + cache);
+	}
+
+	/**
+	 * Compares splitting a large UTF-8 text file into words line by line through
+	 * a reader, and straight from its bytes mapped into memory with
+	 * {@link InvertedIndexBuilder#tokenize(Path, java.util.function.ObjIntConsumer)}.
+	 * Words are only counted, not stemmed or added to an index.
+	 *
+	 * @param documents the number of generated documents to write to the file
+	 * @throws IOException if the file cannot be written or read
+	 */
+	public static void ingest(int documents) throws IOException {
+		Random random = new Random(SEED);
+		Path file = Files.createTempFile("ingest", ".txt");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				for (int i = 0; i < documents * DOCUMENT_LENGTH; i++) {
+					String word = word(random);
+					// some words are capitalized, accented or followed by punctuation
+					word = random.nextInt(8) == 0 ? word.toUpperCase() : word;
+					word = random.nextInt(50) == 0 ? word + "\u00e9" : word;
+					writer.write(word);
+					writer.write(random.nextInt(12) == 0 ? ",\n" : " ");
+				}
+			}
+
+			long size = Files.size(file);
+			System.out.printf("Splitting %d MB of text into words%n", size >> 20);
+			System.out.printf("%-26s %10s %10s %12s%n", "ingestion", "ms", "MB/s", "words");
+			Tokenizer tokenizer = new Tokenizer();
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				int lines = 0;
+				try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						lines = tokenizer.tokenize(line, lines, (word, position) -> {
+						});
+					}
+				}
+				double read = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				int mapped = InvertedIndexBuilder.tokenize(file, (word, position) -> {
+				});
+				double bytes = System.nanoTime() - start;
+
+				// the first rounds only warm up
+				if (round == 2) {
+					System.out.printf("%-26s %10.0f %10.0f %12d%n", "lines through a reader", read / 1_000_000,
+							size / (read / 1_000_000_000) / (1 << 20), lines);
+					System.out.printf("%-26s %10.0f %10.0f %12d%n", "mapped bytes", bytes / 1_000_000,
+							size / (bytes / 1_000_000_000) / (1 << 20), mapped);
+				}
+			}
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Compares listing every file of a deep directory tree before parsing any of
+	 * them with queueing each file as soon as it is found. Each document is
+	 * written to its own small file, ten directories to a level, and the time
+	 * until the first file is parsed and the total time are measured for both.
+	 *
+	 * @param threads   the number of worker threads
+	 * @param documents the number of files to generate
+	 * @throws IOException if the files cannot be written or read
+	 */
+	public static void traversal(int threads, int documents) throws IOException {
+		Random random = new Random(SEED);
+		Path root = Files.createTempDirectory("traversal");
+		try {
+			for (int i = 0; i < documents; i++) {
+				// nest the files three levels deep
+				Path directory = root.resolve(Integer.toString(i % 10)).resolve(Integer.toString(i / 10 % 10))
+						.resolve(Integer.toString(i / 100 % 10));
+				Files.createDirectories(directory);
+				StringBuilder text = new StringBuilder();
+				for (int j = 0; j < DOCUMENT_LENGTH; j++) {
+					text.append(word(random)).append(j % 12 == 11 ? '\n' : ' ');
+				}
+				Files.writeString(directory.resolve(i + ".txt"), text);
+			}
+
+			System.out.printf("Indexing %d files with %d threads%n", documents, threads);
+			System.out.printf("%-26s %14s %10s %10s%n", "traversal", "first file ms", "total ms", "words");
+			for (int round = 0; round < 3; round++) {
+				for (boolean streaming : new boolean[] { false, true }) {
+					WorkQueue queue = new WorkQueue(threads);
+					ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+					AtomicLong first = new AtomicLong();
+					long start = System.nanoTime();
+					MultithreadedInvertedIndexBuilder builder = new MultithreadedInvertedIndexBuilder(index, queue) {
+						@Override
+						public void parse(Path path) throws IOException {
+							first.compareAndSet(0, System.nanoTime());
+							super.parse(path);
+						}
+					};
+					if (streaming) {
+						builder.build(root);
+					}
+					else {
+						for (Path path : FileTraverser.getTextFiles(root)) {
+							builder.parse(path);
+						}
+						queue.finish();
+					}
+					double total = System.nanoTime() - start;
+					queue.shutdown();
+
+					// the first rounds only warm up
+					if (round == 2) {
+						long words = index.getLocationToCountMap().values().stream().mapToLong(Integer::longValue)
+								.sum();
+						System.out.printf("%-26s %14.1f %10.0f %10d%n", streaming ? "queued as found" : "listed first",
+								(first.get() - start) / 1_000_000.0, total / 1_000_000, words);
+					}
+				}
+			}
+		}
+		finally {
+			try (Stream<Path> paths = Files.walk(root)) {
+				for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the locations of two words with a parsed {@code AND} query.
+	 *
+	 * @param index       the index to search
+	 * @param conjunction the query {@code first AND second}
+	 * @param query       the two words to look up in place of the query words
+	 * @return the query count of each location ID
+	 */
+	private static int[] intersect(InvertedIndex index, BooleanQuery conjunction, List<String> query) {
+		int[] counts = new int[index.documents().size()];
+		conjunction.accumulate(word -> {
+			PostingList postings = index.postings().get(query.get(word.equals("first") ? 0 : 1));
+			return postings == null ? List.of() : List.of(postings);
+		}, counts);
+		return counts;
+	}
+
+	/**
+	 * Counts the locations of two words by stepping through both of their
+	 * postings one location at a time, the way an intersection is done without
+	 * skipping.
+	 *
+	 * @param index the index to search
+	 * @param query the two words
+	 * @return the query count of each location ID
+	 */
+	private static int[] mergeCounts(InvertedIndex index, List<String> query) {
+		int[] counts = new int[index.documents().size()];
+		PostingList first = index.postings().get(query.get(0));
+		PostingList second = index.postings().get(query.get(1));
+		if (first == null || second == null) {
+			return counts;
+		}
+		for (int i = 0, j = 0; i < first.size() && j < second.size();) {
+			int compared = Integer.compare(first.document(i), second.document(j));
+			if (compared == 0) {
+				counts[first.document(i)] = first.positions(i).size() + second.positions(j).size();
+			}
+			if (compared <= 0) {
+				i++;
+			}
+			if (compared >= 0) {
+				j++;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Counts the matches of a clause by comparing every position of each word with
+	 * every position of the next, the way it would be done without skipping.
+	 *
+	 * @param clause    a phrase or NEAR/n clause
+	 * @param positions the positions of each word in ascending order
+	 * @return the number of matches
+	 */
+	private static int nestedCount(ProximityQuery.Clause clause, int[][] positions) {
+		int distance = clause.getDistance();
+		int count = 0;
+		if (clause.isPhrase()) {
+			for (int start : positions[0]) {
+				boolean match = true;
+				for (int i = 1; i < positions.length && match; i++) {
+					match = false;
+					for (int position : positions[i]) {
+						match |= position == start + i * distance;
+					}
+				}
+				count += match ? 1 : 0;
+			}
+			return count;
+		}
+		for (int first : positions[0]) {
+			for (int second : positions[1]) {
+				count += Math.abs(first - second) <= distance && first != second ? 1 : 0;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Measures the mean time of a task, running it repeatedly for a while.
+	 *
+	 * @param task   the task to measure
+	 * @param budget the number of nanoseconds to keep running it for
+	 * @return the mean time of one run in microseconds
+	 */
+	private static double time(IntSupplier task, long budget) {
+		long start = System.nanoTime();
+		long runs = 0;
+		int sink = 0;
+		do {
+			sink += task.getAsInt();
+			runs++;
+		} while (System.nanoTime() - start < budget);
+		double elapsed = (System.nanoTime() - start) / 1000.0;
+		// keep the results live so the runs cannot be optimized away
+		if (sink == 42) {
+			System.out.print("");
+		}
+		return elapsed / runs;
+	}
+
+	/**
+	 * Generates a corpus of documents of varying length whose words follow a
+	 * Zipf-like distribution.
+	 *
+	 * @param documents the number of documents to generate
+	 * @param random    the source of randomness
+	 * @return an inverted index of the documents
+	 */
+	private static InvertedIndex corpus(int documents, Random random) {
+		InvertedIndex index = new InvertedIndex();
+		for (int i = 0; i < documents; i++) {
+			index.addAll(document("zipf/" + i, random, 50 + random.nextInt(1000)));
+		}
+		return index;
+	}
+
+	/**
+	 * Checks that a top-k search engine returns the same results as the exhaustive
+	 * search for every query, then measures how many queries each can run.
+	 *
+	 * @param queries    the queries to run, in turn
+	 * @param seconds    the number of seconds to run each engine for
+	 * @param exhaustive the exhaustive search
+	 * @param engine     the search engine being compared
+	 * @param name       the name to print for the engine
+	 */
+	private static void compare(List<List<String>> queries, int seconds, Function<List<String>, TopResults> exhaustive,
+			Function<List<String>, TopResults> engine, String name) {
+		int mismatches = 0;
+		long scored = 0;
+		long matched = 0;
+		for (List<String> query : queries) {
+			TopResults expected = exhaustive.apply(query);
+			TopResults actual = engine.apply(query);
+			if (!expected.getResults().toString().equals(actual.getResults().toString())) {
+				mismatches++;
+			}
+			scored += actual.isTotalExact() ? 0 : actual.getTotal();
+			matched += actual.isTotalExact() ? 0 : expected.getTotal();
+		}
+
+		System.out.printf("%-26s %12s %10s%n", "search", "queries/s", "mean us");
+		for (var search : List.of(Map.entry("exhaustive", exhaustive), Map.entry(name, engine))) {
+			long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+			long start = System.nanoTime();
+			long count = 0;
+			while (System.nanoTime() < deadline) {
+				search.getValue().apply(queries.get((int) (count++ % queries.size())));
+			}
+			double elapsed = (System.nanoTime() - start) / 1000.0;
+			System.out.printf("%-26s %12.0f %10.1f%n", search.getKey(), count / (elapsed / 1_000_000), elapsed / count);
+		}
+		System.out.printf("Where it stopped early, %s scored %.1f%% of matching locations; %d mismatched queries%n",
+				name, 100.0 * scored / Math.max(1, matched), mismatches);
+	}
+
+	/**
+	 * Generates a document whose words follow a Zipf-like distribution, as a local
+	 * index the way a crawler worker would build one.
+	 *
+	 * @param location the location of the document
+	 * @param random   the source of randomness
+	 * @return an inverted index of the single document
+	 */
+	public static InvertedIndex document(String location, Random random) {
+		return document(location, random, DOCUMENT_LENGTH);
+	}
+
+	/**
+	 * Generates a document of a given length whose words follow a Zipf-like
+	 * distribution.
+	 *
+	 * @param location the location of the document
+	 * @param random   the source of randomness
+	 * @param length   the number of words in the document
+	 * @return an inverted index of the single document
+	 */
+	public static InvertedIndex document(String location, Random random, int length) {
+		InvertedIndex local = new InvertedIndex();
+		for (int position = 1; position <= length; position++) {
+			local.add(word(random), location, position);
+		}
+		return local;
+	}
+
+	/**
+	 * Generates a word, where word {@code n} is roughly {@code n} times less
+	 * frequent than the most frequent word.
+	 *
+	 * @param random the source of randomness
+	 * @return a generated word
+	 */
+	public static String word(Random random) {
+		// inverse transform sampling of a 1/n distribution
+		int rank = (int) Math.pow(VOCABULARY, random.nextDouble());
+		return "w" + rank;
+	}
+
+	/**
+	 * A read/write lock that records how long its write lock is held. Only meant
+	 * for a single writing thread.
+	 */
+	private static class HoldTimer implements ReadWriteLockInterface {
+
+		/** The lock being timed. */
+		private final ReadWriteLock lock = new ReadWriteLock();
+
+		/** The write lock, which records when it is acquired and released. */
+		private final SimpleLockInterface writer = new SimpleLockInterface() {
+			@Override
+			public void lock() {
+				lock.writeLock().lock();
+				acquired = System.nanoTime();
+			}
+
+			@Override
+			public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+				if (!lock.writeLock().tryLock(timeout, unit)) {
+					return false;
+				}
+				acquired = System.nanoTime();
+				return true;
+			}
+
+			@Override
+			public void unlock() {
+				held += System.nanoTime() - acquired;
+				lock.writeLock().unlock();
+			}
+		};
+
+		/** When the write lock was last acquired. */
+		private long acquired;
+
+		/** The total time the write lock has been held. */
+		private long held;
+
+		@Override
+		public SimpleLockInterface readLock() {
+			return lock.readLock();
+		}
+
+		@Override
+		public SimpleLockInterface writeLock() {
+			return writer;
+		}
+	}
+
+	/**
+	 * Returns a percentile of sorted values.
+	 *
+	 * @param sorted     the values in ascending order
+	 * @param percentile the percentile between 0 and 1
+	 * @return the value at that percentile, or 0 if there are no values
+	 */
+	private static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * Returns the value of a flag as a positive integer.
+	 *
+	 * @param parser       the parsed arguments
+	 * @param flag         the flag to get the value of
+	 * @param defaultValue the value to use if the flag is missing or invalid
+	 * @return the value of the flag
+	 */
+	private static int getInt(ArgumentParser parser, String flag, int defaultValue) {
+		String input = parser.getString(flag);
+		if (TextParser.isInt(input) && Integer.parseInt(input) > 0) {
+			return Integer.parseInt(input);
+		}
+		return defaultValue;
+	}
+}
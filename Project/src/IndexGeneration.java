@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * An immutable copy of an inverted index as of one generation; that is, after a
+ * certain number of changes. Since it never changes, a generation can be read
+ * by any number of threads without locking, and several calls see the same
+ * contents.
+ *
+ * @author evancarlson
+ *
+ * @see ThreadSafeInvertedIndex#snapshot()
+ */
+public class IndexGeneration extends InvertedIndex {
+
+	/** The generation of the index this is a copy of. */
+	private final long generation;
+
+	/**
+	 * Initializes a generation with a copy of index data structures, which must not
+	 * change while they are copied.
+	 *
+	 * @param generation the generation of the index being copied
+	 * @param index      the key to postings map to copy
+	 * @param documents  the document table to copy
+	 * @param compressed {@code true} if positions are stored in compressed lists
+	 */
+	public IndexGeneration(long generation, Map<String, PostingList> index, DocumentTable documents, boolean compressed) {
+		super(index, documents, compressed);
+		this.generation = generation;
+	}
+
+	/**
+	 * Returns the generation of the index this is a copy of.
+	 *
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Always throws, since a generation is immutable.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("An index generation is immutable.");
+	}
+
+	/**
+	 * Always throws, since a generation is immutable.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void add(String key, String location, int position) {
+		throw new UnsupportedOperationException("An index generation is immutable.");
+	}
+
+	/**
+	 * Always throws, since a generation is immutable.
+	 *
+	 * @throws IOException always
+	 */
+	@Override
+	public void readSnapshot(Path path) throws IOException {
+		throw new IOException("A snapshot cannot be loaded into an immutable index generation.");
+	}
+}
@@ -0,0 +1,524 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A read-only inverted index segment stored in a file and accessed through
+ * memory mapping, so that the operating system's page cache holds the index
+ * instead of the JVM heap.
+ *
+ * The file is laid out for sequential access, with fixed-width tables at the
+ * end for random access:
+ *
+ * <pre>
+ * postings:  for each key in sorted order, for each of its documents:
+ *              document ID gap, positions, last position, encoded length,
+ *              delta + varint positions
+ * strings:   the UTF-8 bytes of every key, then of every location
+ * documents: for each document ID: location offset, location length, word count
+ * keys:      for each key in sorted order: key offset, key length,
+ *              number of postings, postings offset
+ * trailer:   documents offset, keys offset, number of documents,
+ *              number of keys, version, magic
+ * </pre>
+ *
+ * Document IDs are reassigned in location order when the segment is written, so
+ * the postings of each key and the document table are both sorted by location.
+ *
+ * @author evancarlson
+ *
+ * @see MappedInvertedIndex
+ * @see IndexSnapshot
+ */
+public class IndexSegment {
+
+	/** Identifies a file as an index segment. */
+	public static final int MAGIC = 0x52535347; // "RSSG"
+
+	/** The version of the segment format written by this class. */
+	public static final int VERSION = 1;
+
+	/** The size of the trailer in bytes. */
+	private static final int TRAILER_SIZE = 32;
+
+	/** The size of a document table entry in bytes. */
+	private static final int DOCUMENT_ENTRY_SIZE = 16;
+
+	/** The size of a key table entry in bytes. */
+	private static final int KEY_ENTRY_SIZE = 24;
+
+	/** The number of bits addressed by each mapped chunk of the file. */
+	private static final int CHUNK_BITS = 30;
+
+	/** The size of each mapped chunk of the file. */
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+	/** The file mapped in chunks, since a single mapping is limited to 2 GB. */
+	private final MappedByteBuffer[] chunks;
+
+	/** The offset of the document table. */
+	private final long documentsOffset;
+
+	/** The offset of the key table. */
+	private final long keysOffset;
+
+	/** The number of documents in the segment. */
+	private final int numDocuments;
+
+	/** The number of keys in the segment. */
+	private final int numKeys;
+
+	/**
+	 * Opens and maps a segment file.
+	 *
+	 * @param path the segment file to open
+	 * @throws IOException if the file cannot be mapped or is not a segment
+	 */
+	public IndexSegment(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < TRAILER_SIZE) {
+				throw new IOException("Not an index segment: " + path);
+			}
+
+			// the mapping remains valid after the channel is closed
+			chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = i * CHUNK_SIZE;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+			}
+
+			long trailer = size - TRAILER_SIZE;
+			if (getInt(trailer + 28) != MAGIC) {
+				throw new IOException("Not an index segment: " + path);
+			}
+			int version = getInt(trailer + 24);
+			if (version != VERSION) {
+				throw new IOException("Unsupported index segment version " + version + ": " + path);
+			}
+			documentsOffset = getLong(trailer);
+			keysOffset = getLong(trailer + 8);
+			numDocuments = getInt(trailer + 16);
+			numKeys = getInt(trailer + 20);
+		}
+	}
+
+	/**
+	 * Returns the number of documents in the segment.
+	 *
+	 * @return the number of documents
+	 */
+	public int numDocuments() {
+		return numDocuments;
+	}
+
+	/**
+	 * Returns the number of keys in the segment.
+	 *
+	 * @return the number of keys
+	 */
+	public int numKeys() {
+		return numKeys;
+	}
+
+	/**
+	 * Returns the location of a document ID. IDs are in location order.
+	 *
+	 * @param document a document ID between 0 and {@link #numDocuments()}
+	 * @return the location of the document
+	 */
+	public String getName(int document) {
+		long entry = documentsOffset + (long) document * DOCUMENT_ENTRY_SIZE;
+		return getString(getLong(entry), getInt(entry + 8));
+	}
+
+	/**
+	 * Returns the total word count of a document ID.
+	 *
+	 * @param document a document ID between 0 and {@link #numDocuments()}
+	 * @return the word count of the document
+	 */
+	public int getCount(int document) {
+		return getInt(documentsOffset + (long) document * DOCUMENT_ENTRY_SIZE + 12);
+	}
+
+	/**
+	 * Finds the document ID of a location.
+	 *
+	 * @param location the location to find
+	 * @return the document ID, or a negative value as described by
+	 *         {@link Arrays#binarySearch(int[], int)} if it is not in the segment
+	 */
+	public int findDocument(String location) {
+		int low = 0;
+		int high = numDocuments - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = getName(middle).compareTo(location);
+			if (compare < 0) {
+				low = middle + 1;
+			}
+			else if (compare > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns the key at an index of the sorted key table.
+	 *
+	 * @param index an index between 0 and {@link #numKeys()}
+	 * @return the key at that index
+	 */
+	public String getKey(int index) {
+		long entry = keysOffset + (long) index * KEY_ENTRY_SIZE;
+		return getString(getLong(entry), getInt(entry + 8));
+	}
+
+	/**
+	 * Returns the number of documents a key appears in.
+	 *
+	 * @param index an index between 0 and {@link #numKeys()}
+	 * @return the number of postings of the key
+	 */
+	public int numPostings(int index) {
+		return getInt(keysOffset + (long) index * KEY_ENTRY_SIZE + 12);
+	}
+
+	/**
+	 * Finds the index of a key in the sorted key table.
+	 *
+	 * @param key the key to find
+	 * @return the index of the key, or a negative value as described by
+	 *         {@link Arrays#binarySearch(int[], int)} if it is not in the segment
+	 */
+	public int findKey(String key) {
+		int low = 0;
+		int high = numKeys - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = getKey(middle).compareTo(key);
+			if (compare < 0) {
+				low = middle + 1;
+			}
+			else if (compare > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns a cursor over the postings of a key, in document ID order.
+	 *
+	 * @param index an index between 0 and {@link #numKeys()}
+	 * @return a cursor positioned before the first posting
+	 */
+	public Cursor postings(int index) {
+		long entry = keysOffset + (long) index * KEY_ENTRY_SIZE;
+		return new Cursor(getLong(entry + 16), getInt(entry + 12));
+	}
+
+	/**
+	 * Reads through the postings of a single key sequentially.
+	 */
+	public class Cursor {
+
+		/** The offset of the next posting. */
+		private long offset;
+
+		/** The number of postings left to read. */
+		private int remaining;
+
+		/** The document ID of the current posting. */
+		private int document;
+
+		/** The number of positions of the current posting. */
+		private int size;
+
+		/** The last position of the current posting. */
+		private int last;
+
+		/** The offset of the encoded positions of the current posting. */
+		private long positionsOffset;
+
+		/** The length of the encoded positions of the current posting. */
+		private int length;
+
+		/**
+		 * Initializes a cursor before the first posting.
+		 *
+		 * @param offset    the offset of the first posting
+		 * @param remaining the number of postings
+		 */
+		private Cursor(long offset, int remaining) {
+			this.offset = offset;
+			this.remaining = remaining;
+			this.document = 0;
+		}
+
+		/**
+		 * Advances to the next posting.
+		 *
+		 * @return {@code true} if there was another posting
+		 */
+		public boolean next() {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			document += readVarInt();
+			size = readVarInt();
+			last = readVarInt();
+			length = readVarInt();
+			positionsOffset = offset;
+			offset += length;
+			return true;
+		}
+
+		/**
+		 * Returns the document ID of the current posting.
+		 *
+		 * @return the document ID
+		 */
+		public int document() {
+			return document;
+		}
+
+		/**
+		 * Returns the number of positions of the current posting.
+		 *
+		 * @return the number of positions
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Copies the positions of the current posting out of the mapped file.
+		 *
+		 * @return a sealed position list
+		 */
+		public CompressedPositionList positions() {
+			return new CompressedPositionList(getBytes(positionsOffset, length), size, last);
+		}
+
+		/**
+		 * Reads a variable-length integer at the current offset.
+		 *
+		 * @return the value read
+		 */
+		private int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			byte next;
+			do {
+				next = get(offset++);
+				value |= (next & 0x7F) << shift;
+				shift += 7;
+			}
+			while (next < 0);
+			return value;
+		}
+	}
+
+	/**
+	 * Reads a byte from the mapped file.
+	 *
+	 * @param offset the offset in the file
+	 * @return the byte at that offset
+	 */
+	private byte get(long offset) {
+		return chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & (CHUNK_SIZE - 1)));
+	}
+
+	/**
+	 * Reads a big-endian integer from the mapped file.
+	 *
+	 * @param offset the offset in the file
+	 * @return the integer at that offset
+	 */
+	private int getInt(long offset) {
+		MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+		int index = (int) (offset & (CHUNK_SIZE - 1));
+		if (index + Integer.BYTES <= chunk.limit()) {
+			return chunk.getInt(index);
+		}
+		// the integer spans two chunks
+		int value = 0;
+		for (int i = 0; i < Integer.BYTES; i++) {
+			value = (value << 8) | (get(offset + i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a big-endian long from the mapped file.
+	 *
+	 * @param offset the offset in the file
+	 * @return the long at that offset
+	 */
+	private long getLong(long offset) {
+		return ((long) getInt(offset) << 32) | (getInt(offset + Integer.BYTES) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Copies bytes out of the mapped file.
+	 *
+	 * @param offset the offset in the file
+	 * @param length the number of bytes to copy
+	 * @return the bytes copied
+	 */
+	private byte[] getBytes(long offset, int length) {
+		byte[] bytes = new byte[length];
+		int copied = 0;
+		while (copied < length) {
+			MappedByteBuffer chunk = chunks[(int) ((offset + copied) >>> CHUNK_BITS)];
+			int index = (int) ((offset + copied) & (CHUNK_SIZE - 1));
+			int count = Math.min(length - copied, chunk.limit() - index);
+			chunk.get(index, bytes, copied, count);
+			copied += count;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decodes a UTF-8 string from the mapped file.
+	 *
+	 * @param offset the offset in the file
+	 * @param length the number of bytes in the string
+	 * @return the decoded string
+	 */
+	private String getString(long offset, int length) {
+		return new String(getBytes(offset, length), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the index data structures as a segment file.
+	 *
+	 * @param index     the key to postings map to write
+	 * @param documents the document table of the index
+	 * @param path      the file to write to
+	 * @throws IOException
+	 */
+	public static void write(Map<String, PostingList> index, DocumentTable documents, Path path) throws IOException {
+		// reassign document IDs in location order
+		int numDocuments = documents.size();
+		long[] sorted = new long[numDocuments];
+		String[] names = new String[numDocuments];
+		for (int id = 0; id < numDocuments; id++) {
+			names[id] = documents.getName(id);
+		}
+		Integer[] order = new Integer[numDocuments];
+		for (int id = 0; id < numDocuments; id++) {
+			order[id] = id;
+		}
+		Arrays.sort(order, (a, b) -> names[a].compareTo(names[b]));
+		int[] ids = new int[numDocuments];
+		for (int rank = 0; rank < numDocuments; rank++) {
+			ids[order[rank]] = rank;
+		}
+
+		long[] postingsOffsets = new long[index.size()];
+		int[] postingsSizes = new int[index.size()];
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+			long offset = 0;
+
+			// postings, one block per key
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			DataOutputStream blockOut = new DataOutputStream(block);
+			int key = 0;
+			for (PostingList postings : index.values()) {
+				// sort the postings by their new document IDs
+				if (sorted.length < postings.size()) {
+					sorted = new long[postings.size()];
+				}
+				for (int i = 0; i < postings.size(); i++) {
+					sorted[i] = ((long) ids[postings.document(i)] << 32) | i;
+				}
+				Arrays.sort(sorted, 0, postings.size());
+
+				block.reset();
+				int previous = 0;
+				for (int j = 0; j < postings.size(); j++) {
+					int document = (int) (sorted[j] >>> 32);
+					IndexSnapshot.writeVarInt(document - previous, blockOut);
+					previous = document;
+					IndexSnapshot.writePositions(postings.positions((int) sorted[j]), blockOut);
+				}
+
+				postingsOffsets[key] = offset;
+				postingsSizes[key] = postings.size();
+				block.writeTo(out);
+				offset += block.size();
+				key++;
+			}
+
+			// strings
+			long[] keyOffsets = new long[index.size()];
+			int[] keyLengths = new int[index.size()];
+			key = 0;
+			for (String word : index.keySet()) {
+				byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+				keyOffsets[key] = offset;
+				keyLengths[key] = bytes.length;
+				out.write(bytes);
+				offset += bytes.length;
+				key++;
+			}
+
+			long[] nameOffsets = new long[numDocuments];
+			int[] nameLengths = new int[numDocuments];
+			for (int rank = 0; rank < numDocuments; rank++) {
+				byte[] bytes = names[order[rank]].getBytes(StandardCharsets.UTF_8);
+				nameOffsets[rank] = offset;
+				nameLengths[rank] = bytes.length;
+				out.write(bytes);
+				offset += bytes.length;
+			}
+
+			// document table
+			long documentsOffset = offset;
+			for (int rank = 0; rank < numDocuments; rank++) {
+				out.writeLong(nameOffsets[rank]);
+				out.writeInt(nameLengths[rank]);
+				out.writeInt(documents.getCount(order[rank]));
+			}
+			offset += (long) numDocuments * DOCUMENT_ENTRY_SIZE;
+
+			// key table
+			long keysOffset = offset;
+			for (key = 0; key < index.size(); key++) {
+				out.writeLong(keyOffsets[key]);
+				out.writeInt(keyLengths[key]);
+				out.writeInt(postingsSizes[key]);
+				out.writeLong(postingsOffsets[key]);
+			}
+
+			// trailer
+			out.writeLong(documentsOffset);
+			out.writeLong(keysOffset);
+			out.writeInt(numDocuments);
+			out.writeInt(index.size());
+			out.writeInt(VERSION);
+			out.writeInt(MAGIC);
+		}
+	}
+}
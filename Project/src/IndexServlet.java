@@ -97,15 +97,17 @@ public class IndexServlet extends HttpServlet {
 		out.printf("		<section class=\"section\">%n");
 		out.printf("			<div class=\"container\">%n");
 
-		// output the inverted index
+		// output the inverted index, from a generation that will not change while
+		// it is displayed
+		InvertedIndex snapshot = index.snapshot();
 
 		// for each key in the index:
-		for (String word : index.getKeys()) {
+		for (String word : snapshot.getKeys()) {
 			out.printf("			<details>");
 			out.printf("				<summary>%s</summary>", word);
 			out.printf("					<ul>");
 			// for each location a word appears:
-			for (String location : index.getLocations(word)) {
+			for (String location : snapshot.getLocations(word)) {
 				out.printf("						<li><a href=\"%s\">%s</a></li>", location, location);
 			}
 			out.printf("					</ul>");
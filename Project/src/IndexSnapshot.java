@@ -0,0 +1,267 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Saves and loads an inverted index as a compact binary snapshot, so that a
+ * server can start from a previously built index instead of crawling or parsing
+ * again.
+ *
+ * The snapshot is laid out as:
+ *
+ * <pre>
+ * header:    magic, version
+ * documents: count, then (location, word count) for each document ID in order
+ * keys:      count, then for each key in sorted order:
+ *              key, number of postings,
+ *              then for each posting: document ID gap, positions, last position,
+ *                                     encoded length, delta + varint positions
+ * </pre>
+ *
+ * Strings are written as their length in bytes followed by their UTF-8 bytes,
+ * and all numbers as variable-length integers, except for the fixed-width
+ * header.
+ *
+ * @author evancarlson
+ *
+ * @see CompressedPositionList#encode(int[], int)
+ */
+public class IndexSnapshot {
+
+	/** Identifies a file as an index snapshot. */
+	public static final int MAGIC = 0x52534958; // "RSIX"
+
+	/** The version of the snapshot format written by this class. */
+	public static final int VERSION = 2;
+
+	/** The size of the buffers used for reading and writing. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes the index data structures as a binary snapshot to a file. The
+	 * snapshot is written to a temporary file first and then moved into place, so
+	 * a failed write never leaves a partial snapshot behind.
+	 *
+	 * @param index     the key to postings map to write
+	 * @param documents the document table of the index
+	 * @param path      the file to write to
+	 * @throws IOException
+	 */
+	public static void write(Map<String, PostingList> index, DocumentTable documents, Path path) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			write(index, documents, new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)));
+			try {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Writes the index data structures as a binary snapshot to a stream, and
+	 * closes it.
+	 *
+	 * @param index     the key to postings map to write
+	 * @param documents the document table of the index
+	 * @param stream    the stream to write to
+	 * @throws IOException
+	 */
+	private static void write(Map<String, PostingList> index, DocumentTable documents, DataOutputStream stream) throws IOException {
+		try (DataOutputStream out = stream) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			writeVarInt(documents.size(), out);
+			for (int id = 0; id < documents.size(); id++) {
+				writeString(documents.getName(id), out);
+				writeVarInt(documents.getCount(id), out);
+			}
+
+			writeVarInt(index.size(), out);
+			for (var entry : index.entrySet()) {
+				PostingList postings = entry.getValue();
+				writeString(entry.getKey(), out);
+				writeVarInt(postings.size(), out);
+
+				int previous = 0;
+				for (int i = 0; i < postings.size(); i++) {
+					writeVarInt(postings.document(i) - previous, out);
+					previous = postings.document(i);
+					writePositions(postings.positions(i), out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a single position list as its size, last position, and encoded bytes.
+	 *
+	 * @param positions the position list to write
+	 * @param out       the output to write to
+	 * @throws IOException
+	 */
+	public static void writePositions(PositionList positions, DataOutput out) throws IOException {
+		byte[] encoded;
+		int last;
+		if (positions instanceof CompressedPositionList) {
+			CompressedPositionList compressed = (CompressedPositionList) positions;
+			encoded = compressed.toBytes();
+			last = compressed.last();
+		}
+		else {
+			int[] array = positions.toIntArray();
+			encoded = CompressedPositionList.encode(array, array.length);
+			last = array.length == 0 ? 0 : array[array.length - 1];
+		}
+
+		writeVarInt(positions.size(), out);
+		writeVarInt(last, out);
+		writeVarInt(encoded.length, out);
+		out.write(encoded);
+	}
+
+	/**
+	 * Reads a binary snapshot from a file into empty index data structures.
+	 *
+	 * @param path       the file to read from
+	 * @param index      the empty key to postings map to fill
+	 * @param documents  the empty document table to fill
+	 * @param compressed {@code true} to load positions into compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public static void read(Path path, Map<String, PostingList> index, DocumentTable documents, boolean compressed) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an index snapshot: " + path);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported index snapshot version " + version + ": " + path);
+			}
+
+			int numDocuments = readVarInt(in);
+			for (int i = 0; i < numDocuments; i++) {
+				int id = documents.add(readString(in));
+				documents.updateCount(id, readVarInt(in));
+			}
+
+			int numKeys = readVarInt(in);
+			for (int i = 0; i < numKeys; i++) {
+				String key = readString(in);
+				int size = readVarInt(in);
+				PostingList postings = new PostingList(size);
+
+				int document = 0;
+				for (int j = 0; j < size; j++) {
+					document += readVarInt(in);
+					postings.put(document, readPositions(in, compressed));
+				}
+				index.put(key, postings);
+			}
+		}
+	}
+
+	/**
+	 * Reads a single position list written by
+	 * {@link #writePositions(PositionList, DataOutput)}.
+	 *
+	 * @param in         the input to read from
+	 * @param compressed {@code true} to return a compressed list
+	 * @return the sealed position list
+	 * @throws IOException
+	 */
+	public static PositionList readPositions(DataInput in, boolean compressed) throws IOException {
+		int size = readVarInt(in);
+		int last = readVarInt(in);
+		byte[] encoded = new byte[readVarInt(in)];
+		in.readFully(encoded);
+
+		CompressedPositionList positions = new CompressedPositionList(encoded, size, last);
+		if (compressed) {
+			return positions;
+		}
+
+		PositionList copy = PositionList.create(false);
+		copy.insertAll(positions);
+		return copy;
+	}
+
+	/**
+	 * Writes a string of any length as its length in bytes and its UTF-8 bytes.
+	 *
+	 * @param string the string to write
+	 * @param out    the output to write to
+	 * @throws IOException
+	 */
+	public static void writeString(String string, DataOutput out) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length, out);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String, DataOutput)}.
+	 *
+	 * @param in the input to read from
+	 * @return the string read
+	 * @throws IOException
+	 */
+	public static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a non-negative integer seven bits per byte, with the high bit set on
+	 * every byte but the last.
+	 *
+	 * @param value the value to write
+	 * @param out   the output to write to
+	 * @throws IOException
+	 */
+	public static void writeVarInt(int value, DataOutput out) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads an integer written by {@link #writeVarInt(int, DataOutput)}.
+	 *
+	 * @param in the input to read from
+	 * @return the value read
+	 * @throws IOException
+	 */
+	public static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		int shift = 0;
+		byte next;
+		do {
+			next = in.readByte();
+			value |= (next & 0x7F) << shift;
+			shift += 7;
+		}
+		while (next < 0);
+		return value;
+	}
+}
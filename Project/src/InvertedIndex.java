@@ -1,79 +1,265 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
 
 /**
  * A data structure that maps keys to appearance locations to position indices.
  * At depth, the inverted index has three levels: Key -> Location -> Indices
  * 
+ * Locations are stored as integer IDs assigned by a {@link DocumentTable}, and
+ * are only resolved back to their names when results are output.
+ * 
  * @author evancarlson
  *
  */
 public class InvertedIndex {
 
 	/**
-	 * The inverted index data structure. Maps a key to the location(s) it is found,
-	 * each of which maps to a set of position indices.
+	 * The most keys a query may match to be searched in order of impact by
+	 * {@link #impactSearch(Collection, boolean, int)}.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	public static final int MAX_IMPACT_KEYS = 4;
 
 	/**
-	 * A data structure that maps each location present in the inverted index to its
-	 * total word count.
+	 * The inverted index data structure. Maps a key to the IDs of the location(s)
+	 * it is found, each of which maps to a list of position indices.
 	 */
-	private final TreeMap<String, Integer> locationMap;
+	private final TreeMap<String, PostingList> index;
 
 	/**
-	 * Initializes an empty inverted index and an empty word-count map.
+	 * A data structure that assigns each location present in the inverted index an
+	 * ID and stores its total word count.
+	 */
+	private final DocumentTable documents;
+
+	/**
+	 * {@code true} if positions are stored in {@link CompressedPositionList}s,
+	 * {@code false} for the original {@code TreeSet<Integer>} layout.
+	 */
+	private final boolean compressed;
+
+	/**
+	 * A term dictionary of the keys used to expand prefixes in a partial search,
+	 * or {@code null} if it has not been built yet. Keys are never removed, so it
+	 * is out of date once the number of keys changes.
+	 */
+	private volatile Terms terms;
+
+	/**
+	 * The number of keys when a partial search last found the term dictionary
+	 * missing or out of date, or -1. The dictionary is only built once a search
+	 * finds the keys unchanged since the last one, so an index that is still being
+	 * added to does not rebuild it for every search.
+	 */
+	private volatile int settled = -1;
+
+	/**
+	 * The merged counts of the short prefixes of the keys, used to partially
+	 * search for short words, or {@code null} if prefixes are not tracked.
+	 * 
+	 * @see #trackPrefixes(long)
+	 */
+	private PrefixCounts prefixes;
+
+	/**
+	 * The position lists created since the last call to {@link #seal()}; that is,
+	 * the lists of the document currently being indexed.
+	 */
+	private final ArrayList<PositionList> open;
+
+	/**
+	 * Initializes an empty inverted index and an empty word-count map, storing
+	 * positions in compressed lists.
 	 */
 	public InvertedIndex() {
-		index = new TreeMap<String, TreeMap<String, TreeSet<Integer>>>();
-		locationMap = new TreeMap<String, Integer>();
+		this(true);
 	}
 
 	/**
-	 * Adds all elements from another inverted index.
+	 * Initializes an empty inverted index and an empty word-count map.
+	 * 
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 */
+	public InvertedIndex(boolean compressed) {
+		index = new TreeMap<String, PostingList>();
+		documents = new DocumentTable();
+		this.compressed = compressed;
+		open = new ArrayList<>();
+	}
+
+	/**
+	 * Initializes an inverted index with a copy of existing index data structures.
+	 * Sealed position lists are shared rather than copied.
+	 * 
+	 * @param index      the key to postings map to copy
+	 * @param documents  the document table to copy
+	 * @param compressed {@code true} if positions are stored in compressed lists
+	 * 
+	 * @see PostingList#PostingList(PostingList)
+	 */
+	protected InvertedIndex(Map<String, PostingList> index, DocumentTable documents, boolean compressed) {
+		this.index = new TreeMap<String, PostingList>();
+		this.documents = new DocumentTable(documents);
+		this.compressed = compressed;
+		this.open = new ArrayList<>();
+		for (var entry : index.entrySet()) {
+			// skip keys another thread has only started adding
+			if (entry.getValue().size() > 0) {
+				this.index.put(entry.getKey(), new PostingList(entry.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Checks whether this index stores positions in compressed lists.
+	 * 
+	 * @return {@code true} if positions are stored in compressed lists
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Adds all elements from another inverted index. The other index is sealed
+	 * first, since its documents are finished once they are merged.
 	 * 
 	 * @param other the other index to add from
+	 * 
+	 * @see #seal()
 	 */
 	public void addAll(InvertedIndex other) {
-		for (String word : other.index.keySet()) {
-			// if the word is not in the index .. try using putIfAbsent?
-			if (this.index.containsKey(word) == false) {
-				this.index.put(word, other.index.get(word));
+		merge(other);
+	}
+
+	/**
+	 * Adds all elements from another inverted index. Unlike
+	 * {@link #addAll(InvertedIndex)}, this is never overridden, so it is safe to
+	 * call while a subclass already holds its lock.
+	 * 
+	 * @param other the other index to add from
+	 */
+	private void merge(InvertedIndex other) {
+		other.seal();
+
+		// translate the other index's location IDs into IDs in this index, keeping
+		// the max of the two word counts
+		int first = documents.size();
+		int[] ids = new int[other.documents.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = documents.add(other.documents.getName(i));
+			documents.updateCount(ids[i], other.documents.getCount(i));
+		}
+
+		// if every location is new, such as a newly parsed document, each incoming
+		// posting list can be appended whole after the existing postings
+		boolean append = documents.size() == first + ids.length && other.compressed == compressed;
+
+		// looking up each incoming key costs about log(n) per key, while walking both
+		// sorted maps in lockstep costs about n in total, so pick the cheaper one
+		int m = other.index.size();
+		int n = index.size();
+		boolean lockstep = n + m < m * (32 - Integer.numberOfLeadingZeros(n));
+
+		if (!lockstep) {
+			for (var word : other.index.entrySet()) {
+				PostingList postings = index.get(word.getKey());
+				// if the word is not in the index, add it
+				if (postings == null) {
+					postings = new PostingList(word.getValue().size());
+					index.put(word.getKey(), postings);
+				}
+				mergePostings(word.getKey(), postings, word.getValue(), ids, append);
+			}
+			return;
+		}
+
+		// walk both maps in key order, collecting the keys that are new to this index
+		ArrayList<String> added = new ArrayList<>();
+		Iterator<Map.Entry<String, PostingList>> mine = index.entrySet().iterator();
+		Map.Entry<String, PostingList> current = mine.hasNext() ? mine.next() : null;
+		for (var word : other.index.entrySet()) {
+			while (current != null && current.getKey().compareTo(word.getKey()) < 0) {
+				current = mine.hasNext() ? mine.next() : null;
+			}
+			if (current != null && current.getKey().equals(word.getKey())) {
+				mergePostings(word.getKey(), current.getValue(), word.getValue(), ids, append);
 			}
-			// the word is already in the index
 			else {
-				// iterate through its location -> position map
-				for (var entry : other.index.get(word).entrySet()) {
-					String location = entry.getKey();
-					// if the location is already in the index, too
-					if (this.index.get(word).containsKey(location)) {
-						// use the built-in add method to add all of the position indices
-						this.index.get(word).get(location).addAll(entry.getValue());
-					}
-					// otherwise, the location needs to be added
-					else {
-						this.index.get(word).put(entry.getKey(), entry.getValue());
-					}
+				added.add(word.getKey());
+			}
+		}
+
+		// add the new keys once the walk is over, since adding during it would
+		// invalidate the iterator
+		for (String key : added) {
+			PostingList incoming = other.index.get(key);
+			PostingList postings = new PostingList(incoming.size());
+			mergePostings(key, postings, incoming, ids, append);
+			index.put(key, postings);
+		}
+	}
+
+	/**
+	 * Adds the postings of a key in another index to the postings of the same key
+	 * in this index.
+	 * 
+	 * @param key      the key
+	 * @param postings the postings of the key in this index
+	 * @param incoming the postings of the key in the other index
+	 * @param ids      the ID in this index of each location ID in the other index
+	 * @param append   {@code true} if every incoming location is new to this index
+	 *                 and the position lists can be shared as they are
+	 */
+	private void mergePostings(String key, PostingList postings, PostingList incoming, int[] ids, boolean append) {
+		if (append) {
+			postings.appendAll(incoming, ids);
+			if (prefixes != null) {
+				for (int i = 0; i < incoming.size(); i++) {
+					prefixes.add(key, ids[incoming.document(i)], incoming.positions(i).size());
 				}
 			}
+			return;
 		}
 
-		for (String location : other.locationMap.keySet()) {
-			// if the location's word count is not in the map, add it
-			locationMap.putIfAbsent(location, other.locationMap.get(location));
-			// put the max of the two values
-			if (locationMap.get(location) < other.locationMap.get(location)) {
-				locationMap.put(location, other.locationMap.get(location));
+		// iterate through its location -> position postings
+		for (int i = 0; i < incoming.size(); i++) {
+			int id = ids[incoming.document(i)];
+			PositionList positions = postings.get(id);
+			// if the location is already in the index, add all of the position indices
+			// to a copy, since the list may be shared with another index
+			if (positions != null) {
+				PositionList union = PositionList.create(compressed);
+				union.insertAll(positions);
+				union.insertAll(incoming.positions(i));
+				union.seal();
+				postings.put(id, union);
+				if (prefixes != null) {
+					prefixes.add(key, id, union.size() - positions.size());
+				}
+			}
+			// otherwise, the location needs to be added
+			else {
+				postings.put(id, adopt(incoming.positions(i)));
+				if (prefixes != null) {
+					prefixes.add(key, id, incoming.positions(i).size());
+				}
 			}
 		}
 	}
@@ -95,18 +281,187 @@ public class InvertedIndex {
 		 * for the word, add it add the position of appearance to the location's indices
 		 * set
 		 */
-		index.putIfAbsent(key, new TreeMap<String, TreeSet<Integer>>());
-		index.get(key).putIfAbsent(location, new TreeSet<Integer>());
-		index.get(key).get(location).add(position);
+		int id = documents.add(location);
+		PostingList postings = index.get(key);
+		if (postings == null) {
+			postings = new PostingList();
+			index.put(key, postings);
+		}
+		PositionList positions = postings.get(id);
+		// a sealed list may be shared with another index, so add to a copy of it
+		if (positions == null || positions.isSealed()) {
+			PositionList copy = PositionList.create(compressed);
+			if (positions != null) {
+				copy.insertAll(positions);
+			}
+			positions = copy;
+			postings.put(id, positions);
+			open.add(positions);
+		}
+		int before = positions.size();
+		positions.insert(position);
+		postings.invalidate();
+		if (prefixes != null && positions.size() > before) {
+			prefixes.add(key, id, 1);
+		}
 		/*
-		 * if the file doesn't exist in our record of files, add it if the current
-		 * position is higher than the previously recorded position, replace it with the
-		 * higher position
+		 * if the current position is higher than the previously recorded word count of
+		 * the location, replace it with the higher position
 		 */
-		locationMap.putIfAbsent(location, position);
-		if (locationMap.get(location) < position) {
-			locationMap.put(location, position);
+		documents.updateCount(id, position);
+	}
+
+	/**
+	 * Seals the position lists added since the last call, switching them to their
+	 * compact representation. Should be called whenever a document finishes
+	 * indexing.
+	 * 
+	 * @see PositionList#seal()
+	 */
+	public void seal() {
+		// an index that is only read, such as a flushed segment, has nothing open
+		if (open.isEmpty()) {
+			return;
+		}
+		for (PositionList positions : open) {
+			positions.seal();
 		}
+		open.clear();
+	}
+
+	/**
+	 * Moves every position in this index later by the same number of words, along
+	 * with the word count of every location, such as when a piece of a file was
+	 * parsed on its own and numbered from its own start. Only meant for an index
+	 * that no other thread can see and whose position lists are not shared yet.
+	 * 
+	 * @param offset the number of words to add to each position
+	 */
+	protected final void shift(int offset) {
+		for (PostingList postings : index.values()) {
+			for (int i = 0; i < postings.size(); i++) {
+				postings.positions(i).shift(offset);
+			}
+			postings.invalidate();
+		}
+		for (int id = 0; id < documents.size(); id++) {
+			documents.updateCount(id, documents.getCount(id) + offset);
+		}
+	}
+
+	/**
+	 * Returns a position list from another index in the layout used by this index,
+	 * copying it only if the layouts differ.
+	 * 
+	 * @param positions the position list to adopt
+	 * @return a position list in the layout of this index
+	 */
+	private PositionList adopt(PositionList positions) {
+		if (positions instanceof CompressedPositionList == compressed) {
+			return positions;
+		}
+		PositionList copy = PositionList.create(compressed);
+		copy.insertAll(positions);
+		copy.seal();
+		return copy;
+	}
+
+	/**
+	 * Starts keeping the merged counts of every prefix of up to
+	 * {@link PrefixCounts#MAX_LENGTH} characters of the keys, which are updated as
+	 * positions are added. A partial search for a word that short then adds up a
+	 * single array rather than the postings of every key starting with it. If the
+	 * counts grow past the given size, the longest prefixes stop being counted.
+	 * 
+	 * @param maxBytes the most bytes the counts may take up
+	 * 
+	 * @see PrefixCounts
+	 */
+	public void trackPrefixes(long maxBytes) {
+		countPrefixes(maxBytes);
+	}
+
+	/**
+	 * Counts the prefixes of every key in this index from scratch. Unlike
+	 * {@link #trackPrefixes(long)}, this is never overridden, so it is safe to
+	 * call while a subclass already holds its locks.
+	 * 
+	 * @param maxBytes the most bytes the counts may take up
+	 */
+	private void countPrefixes(long maxBytes) {
+		PrefixCounts counts = new PrefixCounts(maxBytes);
+		for (var entry : index.entrySet()) {
+			PostingList postings = entry.getValue();
+			for (int i = 0; i < postings.size(); i++) {
+				counts.add(entry.getKey(), postings.document(i), postings.positions(i).size());
+			}
+		}
+		prefixes = counts;
+	}
+
+	/**
+	 * Estimates the number of bytes the prefix counts take up.
+	 * 
+	 * @return the estimated size in bytes, or 0 if prefixes are not tracked
+	 * 
+	 * @see #trackPrefixes(long)
+	 */
+	public long getPrefixBytes() {
+		return prefixes == null ? 0 : prefixes.sizeInBytes();
+	}
+
+	/**
+	 * Returns the length of the longest prefixes that are counted, which is less
+	 * than {@link PrefixCounts#MAX_LENGTH} if the counts outgrew their limit.
+	 * 
+	 * @return the length of the longest counted prefixes, or 0 if prefixes are not
+	 *         tracked
+	 * 
+	 * @see #trackPrefixes(long)
+	 */
+	public int getPrefixLength() {
+		return prefixes == null ? 0 : prefixes.getLength();
+	}
+
+	/**
+	 * Copies the prefix counts of another index, for a copy of its data
+	 * structures. Both indexes must have the same keys and location IDs.
+	 * 
+	 * @param other the index whose data structures were copied
+	 */
+	protected final void copyPrefixes(InvertedIndex other) {
+		copyPrefixes(other.prefixes);
+	}
+
+	/**
+	 * Copies prefix counts kept outside of this class, for a copy of the data
+	 * structures of a subclass that keeps its own. The counts must be of the same
+	 * keys and location IDs.
+	 * 
+	 * @param counts the prefix counts to copy, or {@code null} if not tracked
+	 */
+	protected final void copyPrefixes(PrefixCounts counts) {
+		prefixes = counts == null ? null : new PrefixCounts(counts);
+	}
+
+	/**
+	 * Returns the key to postings map of this index, for subclasses that merge
+	 * another index with their own data structures. Must not be modified.
+	 * 
+	 * @return the key to postings map
+	 */
+	protected final Map<String, PostingList> postings() {
+		return index;
+	}
+
+	/**
+	 * Returns the document table of this index, for subclasses that merge another
+	 * index with their own data structures. Must not be modified.
+	 * 
+	 * @return the document table
+	 */
+	protected final DocumentTable documents() {
+		return documents;
 	}
 
 	/**
@@ -129,10 +484,17 @@ public class InvertedIndex {
 	 * @see #hasKey(String)
 	 */
 	public boolean hasLocation(String key, String location) {
-		if (hasKey(key)) {
-			return index.get(key).containsKey(location);
-		}
-		return false;
+		return positions(key, location) != null;
+	}
+
+	/**
+	 * Checks if a location exists for any key in the inverted index.
+	 * 
+	 * @param location the location to check exists
+	 * @return {@code true} if the location exists in the inverted index
+	 */
+	public boolean hasLocation(String location) {
+		return documents.getId(location) >= 0;
 	}
 
 	/**
@@ -147,10 +509,8 @@ public class InvertedIndex {
 	 * @see #hasLocation(String, String)
 	 */
 	public boolean hasPosition(String key, String location, int position) {
-		if (hasLocation(key, location)) {
-			return index.get(key).get(location).contains(position); // integer.valueof() ?
-		}
-		return false;
+		PositionList positions = positions(key, location);
+		return positions != null && positions.contains(position);
 	}
 
 	/**
@@ -159,7 +519,16 @@ public class InvertedIndex {
 	 * @return int the number of keys in the inverted index
 	 */
 	public int numKeys() {
-		return getKeys().size();
+		return index.size();
+	}
+
+	/**
+	 * Retrieves the number of locations in the inverted index.
+	 * 
+	 * @return int the number of locations in the inverted index
+	 */
+	public int numLocations() {
+		return documents.size();
 	}
 
 	/**
@@ -170,7 +539,8 @@ public class InvertedIndex {
 	 * @return int the number of locations where the key appears
 	 */
 	public int numLocations(String key) {
-		return getLocations(key).size();
+		PostingList postings = index.get(key);
+		return postings == null ? 0 : postings.size();
 	}
 
 	/**
@@ -183,7 +553,8 @@ public class InvertedIndex {
 	 * @return int the number of times the key occurs in the location
 	 */
 	public int numPositions(String key, String location) {
-		return getPositions(key, location).size();
+		PositionList positions = positions(key, location);
+		return positions == null ? 0 : positions.size();
 	}
 
 	/**
@@ -207,8 +578,13 @@ public class InvertedIndex {
 	 *         appears
 	 */
 	public Set<String> getLocations(String key) {
-		if (hasKey(key)) {
-			return Collections.unmodifiableSet(index.get(key).keySet());
+		PostingList postings = index.get(key);
+		if (postings != null) {
+			TreeSet<String> locations = new TreeSet<>();
+			for (int i = 0; i < postings.size(); i++) {
+				locations.add(documents.getName(postings.document(i)));
+			}
+			return Collections.unmodifiableSet(locations);
 		}
 		return Collections.emptySet();
 	}
@@ -224,12 +600,28 @@ public class InvertedIndex {
 	 *         appears in the location
 	 */
 	public Set<Integer> getPositions(String key, String location) {
-		if (hasLocation(key, location)) {
-			return Collections.unmodifiableSet(index.get(key).get(location));
+		PositionList positions = positions(key, location);
+		if (positions != null) {
+			return Collections.unmodifiableSet(positions);
 		}
 		return Collections.emptySet();
 	}
 
+	/**
+	 * Retrieves the position list for a key and location without any checks or
+	 * wrapping.
+	 * 
+	 * @param key      a key in the inverted index
+	 * @param location a location in the inverted index
+	 * @return the position list, or {@code null} if the key or location do not
+	 *         exist
+	 */
+	private PositionList positions(String key, String location) {
+		PostingList postings = index.get(key);
+		int id = documents.getId(location);
+		return postings == null || id < 0 ? null : postings.get(id);
+	}
+
 	/**
 	 * Retrieves the locationMap of the index; that is, a map of locations in the
 	 * inverted index to their total word counts.
@@ -238,10 +630,7 @@ public class InvertedIndex {
 	 *         word counts.
 	 */
 	public Map<String, Integer> getLocationToCountMap() {
-		if (locationMap.size() > 0) {
-			return Collections.unmodifiableMap(locationMap);
-		}
-		return Collections.emptyMap();
+		return documents.toMap();
 	}
 
 	/**
@@ -269,19 +658,7 @@ public class InvertedIndex {
 	 *         word frequency
 	 */
 	public ArrayList<SearchResult> exactSearch(Collection<? extends String> query) {
-		// initialize an empty list of search results
-		ArrayList<SearchResult> results = new ArrayList<>();
-		// initialize an empty map used for an easy location -> result lookup
-		Map<String, SearchResult> lookup = new HashMap<>();
-
-		for (String word : query) {
-			// if the word is present in the index
-			if (index.get(word) != null) {
-				searchHelper(word, lookup, results);
-			}
-		}
-		Collections.sort(results);
-		return results;
+		return collectResults(accumulate(query, true));
 	}
 
 	/**
@@ -293,18 +670,380 @@ public class InvertedIndex {
 	 *         word frequency
 	 */
 	public ArrayList<SearchResult> partialSearch(Collection<? extends String> query) {
-		// initialize an empty list of search results
-		ArrayList<SearchResult> results = new ArrayList<>();
-		// initialize an empty map used for an easy location -> result lookup
-		Map<String, SearchResult> lookup = new HashMap<>();
+		return collectResults(accumulate(query, false));
+	}
+
+	/**
+	 * Searches the inverted index, keeping only the best {@code k} results rather
+	 * than creating and sorting a result for every matching location. The results
+	 * are the same as the first {@code k} results of
+	 * {@link #search(Collection, boolean)}.
+	 * 
+	 * @param query a collection of words to search for
+	 * @param exact true if exact search, false if partial search
+	 * @param k     the number of results to keep
+	 * @return the best {@code k} results and the total number of matches
+	 */
+	public TopResults search(Collection<? extends String> query, boolean exact, int k) {
+		int[] counts = accumulate(query, exact);
+		return collectTop(counts, k, documents::getName, documents::getCount);
+	}
+
+	/**
+	 * Searches the inverted index with the {@link MaxScore} algorithm, which skips
+	 * locations that cannot make it into the best {@code k} results. The results
+	 * are the same as {@link #search(Collection, boolean, int)}, but the total
+	 * number of matches is only a lower bound if any locations were skipped.
+	 * 
+	 * @param query a collection of words to search for
+	 * @param exact true if exact search, false if partial search
+	 * @param k     the number of results to keep
+	 * @return the best {@code k} results and the number of matches scored
+	 * @see TopResults#isTotalExact()
+	 */
+	public TopResults pruneSearch(Collection<? extends String> query, boolean exact, int k) {
+		int[] counts = new int[documents.size()];
+		TopHeap heap = new TopHeap(k, counts, documents::getName, documents::getCount);
+		MaxScore evaluator = new MaxScore(matches(query, exact), documents::getCount, counts);
+		evaluator.evaluate(heap);
+		List<SearchResult> results = toResults(heap.drain(), counts, documents::getName, documents::getCount);
+		return new TopResults(results, evaluator.getScored(), evaluator.isExhaustive());
+	}
+
+	/**
+	 * Searches the inverted index by reading the postings of each matching key in
+	 * order of impact, and stops once no unread location can make it into the best
+	 * {@code k} results. Meant for the one or two word queries typed into the
+	 * search page. The results are the same as
+	 * {@link #search(Collection, boolean, int)}, but the total number of matches
+	 * is only a lower bound if some of several keys' postings were left unread.
+	 * Queries matching more than {@link #MAX_IMPACT_KEYS} keys are searched the
+	 * usual way.
+	 * 
+	 * The impact order of each key is calculated the first time it is searched
+	 * this way, and kept until its postings or any word count changes.
+	 * 
+	 * @param query a collection of words to search for
+	 * @param exact true if exact search, false if partial search
+	 * @param k     the number of results to keep
+	 * @return the best {@code k} results and the number of matches scored
+	 * @see ImpactSearch
+	 * @see TopResults#isTotalExact()
+	 */
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k) {
+		return impactSearch(query, exact, k, Integer.MAX_VALUE);
+	}
 
+	/**
+	 * Searches the inverted index the same way as
+	 * {@link #impactSearch(Collection, boolean, int)}, but searches at most a
+	 * number of keys for each prefix in a partial search. A short prefix can match
+	 * thousands of keys, so only the keys found in the most locations are
+	 * searched, which caps the time a search takes.
+	 * 
+	 * @param query      a collection of words to search for
+	 * @param exact      true if exact search, false if partial search
+	 * @param k          the number of results to keep
+	 * @param expansions the most keys to search for each prefix
+	 * @return the best {@code k} results and the number of matches scored
+	 * @see TopResults#isTruncated()
+	 */
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k, int expansions) {
+		ArrayList<PostingList> matches = new ArrayList<>();
+		boolean truncated = false;
 		for (String word : query) {
-			for (String key : index.tailMap(word).keySet()) {
+			truncated |= expand(word, exact, expansions, matches);
+		}
+		if (matches.size() > MAX_IMPACT_KEYS) {
+			TopResults top = collectTop(accumulate(matches), k, documents::getName, documents::getCount);
+			return new TopResults(top.getResults(), top.getTotal(), top.isTotalExact(), truncated);
+		}
+		int[] counts = new int[documents.size()];
+		TopHeap heap = new TopHeap(k, counts, documents::getName, documents::getCount);
+		ImpactSearch evaluator = new ImpactSearch(matches, documents, counts);
+		evaluator.evaluate(heap);
+		List<SearchResult> results = toResults(heap.drain(), counts, documents::getName, documents::getCount);
+		return new TopResults(results, evaluator.getScored(), evaluator.isExhaustive(), truncated);
+	}
+
+	/**
+	 * Searches the inverted index for a query that may include phrases and words
+	 * near each other. Single words match exactly or as prefixes, the same as
+	 * {@link #search(Collection, boolean)}, while the words of phrases and NEAR/n
+	 * clauses always match exactly.
+	 * 
+	 * @param query the parsed query
+	 * @param exact true if single words must match exactly, false if they may be
+	 *              prefixes
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         query count
+	 */
+	public ArrayList<SearchResult> proximitySearch(ProximityQuery query, boolean exact) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[documents.size()];
+
+		for (ProximityQuery.Clause clause : query.getClauses()) {
+			if (clause.size() == 1) {
+				accumulate(clause.word(0), exact, counts);
+				continue;
+			}
+
+			PostingList[] postings = new PostingList[clause.size()];
+			for (int i = 0; i < postings.length; i++) {
+				postings[i] = index.get(clause.word(i));
+			}
+			// a clause can only match if every one of its words is in the index
+			if (!Arrays.asList(postings).contains(null)) {
+				clause.accumulate(postings, counts);
+			}
+		}
+		return collectResults(counts);
+	}
+
+	/**
+	 * Searches the inverted index for a query that combines words with
+	 * {@code AND}, {@code OR} and {@code NOT}. Words match exactly or as
+	 * prefixes, the same as {@link #search(Collection, boolean)}, and a matching
+	 * location is ranked by the number of times the words that are not negated
+	 * appear in it.
+	 * 
+	 * @param query the parsed query
+	 * @param exact true if words must match exactly, false if they may be prefixes
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         query count
+	 */
+	public ArrayList<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[documents.size()];
+		query.accumulate(word -> matches(List.of(word), exact), counts);
+		return collectResults(counts);
+	}
+
+	/**
+	 * Finds the postings of every key matching a query. A key is listed once for
+	 * every query word it matches.
+	 * 
+	 * @param query a list of clean and stemmed words from a search query
+	 * @param exact true if keys must equal a query word, false if keys must start
+	 *              with one
+	 * @return the postings of the matching keys
+	 */
+	private ArrayList<PostingList> matches(Collection<? extends String> query, boolean exact) {
+		ArrayList<PostingList> matches = new ArrayList<>();
+		for (String word : query) {
+			expand(word, exact, Integer.MAX_VALUE, matches);
+		}
+		return matches;
+	}
+
+	/**
+	 * Finds the postings of every key matching a query word, keeping only the keys
+	 * found in the most locations if a prefix matches too many.
+	 * 
+	 * @param word       a clean and stemmed word from a search query
+	 * @param exact      true if keys must equal the word, false if keys must start
+	 *                   with it
+	 * @param expansions the most keys to keep
+	 * @param matches    the list to add the postings of the kept keys to
+	 * @return {@code true} if some matching keys were left out
+	 */
+	private boolean expand(String word, boolean exact, int expansions, List<PostingList> matches) {
+		if (exact) {
+			PostingList postings = index.get(word);
+			// if the word is present in the index
+			if (postings != null) {
+				matches.add(postings);
+			}
+			return false;
+		}
+
+		List<PostingList> expanded;
+		Terms current = terms();
+		if (current != null) {
+			int[] range = current.dictionary.range(word);
+			expanded = Arrays.asList(current.postings).subList(range[0], range[1]);
+		}
+		else {
+			expanded = new ArrayList<>();
+			for (var entry : index.tailMap(word).entrySet()) {
 				// once a word no longer starts with the prefix, exit
-				if (!key.startsWith(word)) {
+				if (!entry.getKey().startsWith(word)) {
 					break;
 				}
-				searchHelper(key, lookup, results);
+				expanded.add(entry.getValue());
+			}
+		}
+		matches.addAll(mostFrequent(expanded, expansions, PostingList::size));
+		return expanded.size() > expansions;
+	}
+
+	/**
+	 * Keeps the candidates with the highest frequency, such as the keys found in
+	 * the most locations among the expansions of a prefix.
+	 * 
+	 * @param <T>        the type of candidates
+	 * @param candidates the candidates to choose from
+	 * @param limit      the most candidates to keep
+	 * @param frequency  the frequency of each candidate
+	 * @return the candidates, if there are no more than the limit, or otherwise
+	 *         the limit of them with the highest frequency
+	 */
+	protected static <T> List<T> mostFrequent(List<T> candidates, int limit, ToIntFunction<T> frequency) {
+		if (candidates.size() <= limit) {
+			return candidates;
+		}
+		ArrayList<T> sorted = new ArrayList<>(candidates);
+		sorted.sort(Comparator.comparingInt(frequency).reversed());
+		return sorted.subList(0, Math.max(0, limit));
+	}
+
+	/**
+	 * Adds the number of locations of every key starting with a prefix to a map of
+	 * frequencies, so the expansions of a prefix can be chosen across several
+	 * indexes that hold different locations.
+	 * 
+	 * @param prefix      a clean and stemmed word from a search query
+	 * @param frequencies the number of locations of each key, added to
+	 */
+	public void countExpansions(String prefix, Map<String, Integer> frequencies) {
+		for (var entry : index.tailMap(prefix).entrySet()) {
+			// once a word no longer starts with the prefix, exit
+			if (!entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			frequencies.merge(entry.getKey(), entry.getValue().size(), Integer::sum);
+		}
+	}
+
+	/**
+	 * Chooses the keys to search for each word of a partial search across several
+	 * indexes, keeping the keys found in the most locations of all of them
+	 * together. Searching every index for the same keys scores each location the
+	 * same as a single index holding every location would.
+	 * 
+	 * @param query       a collection of words to search for
+	 * @param expansions  the most keys to keep for each prefix
+	 * @param frequencies finds the total number of locations of every key
+	 *                    starting with a prefix, in key order
+	 * @param keys        the list to add the kept keys to, once for every query
+	 *                    word they match
+	 * @return {@code true} if some matching keys were left out
+	 * @see #countExpansions(String, Map)
+	 */
+	protected static boolean chooseExpansions(Collection<? extends String> query, int expansions,
+			Function<String, TreeMap<String, Integer>> frequencies, List<String> keys) {
+		boolean truncated = false;
+		for (String word : query) {
+			List<Map.Entry<String, Integer>> expanded = new ArrayList<>(frequencies.apply(word).entrySet());
+			for (var entry : mostFrequent(expanded, expansions, Map.Entry::getValue)) {
+				keys.add(entry.getKey());
+			}
+			truncated |= expanded.size() > expansions;
+		}
+		return truncated;
+	}
+
+	/**
+	 * Returns the term dictionary of the keys, building it if the keys have not
+	 * changed since the last time it was found missing or out of date.
+	 * 
+	 * @return the up-to-date term dictionary, or {@code null} if prefixes should be
+	 *         expanded by walking the keys instead
+	 */
+	private Terms terms() {
+		Terms current = terms;
+		int size = index.size();
+		if (current != null && current.postings.length == size) {
+			return current;
+		}
+		if (settled != size) {
+			settled = size;
+			return null;
+		}
+		current = new Terms(index);
+		terms = current;
+		return current;
+	}
+
+	/**
+	 * Adds up the query count of each location ID for a query.
+	 * 
+	 * @param query a list of clean and stemmed words from a search query
+	 * @param exact true if keys must equal a query word, false if keys must start
+	 *              with one
+	 * @return the query count of each location ID
+	 */
+	private int[] accumulate(Collection<? extends String> query, boolean exact) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[documents.size()];
+		for (String word : query) {
+			accumulate(word, exact, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds the number of times the keys matching a query word appear in each
+	 * location to the accumulator, looking up the merged counts of a short prefix
+	 * if they are tracked.
+	 * 
+	 * @param word   a clean and stemmed word from a search query
+	 * @param exact  true if keys must equal the word, false if keys must start
+	 *               with it
+	 * @param counts the query count of each location ID
+	 */
+	private void accumulate(String word, boolean exact, int[] counts) {
+		if (!exact && prefixes != null && prefixes.addTo(word, counts)) {
+			return;
+		}
+		ArrayList<PostingList> matches = new ArrayList<>();
+		expand(word, exact, Integer.MAX_VALUE, matches);
+		for (PostingList postings : matches) {
+			searchHelper(postings, counts);
+		}
+	}
+
+	/**
+	 * Adds up the query count of each location ID.
+	 * 
+	 * @param matches the postings of every key matching a query
+	 * @return the query count of each location ID
+	 */
+	private int[] accumulate(List<PostingList> matches) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[documents.size()];
+		for (PostingList postings : matches) {
+			searchHelper(postings, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Helps the search methods by adding the number of times a key appears in each
+	 * of its locations to the accumulator.
+	 * 
+	 * @param postings the postings of a key in the index
+	 * @param counts   the query count of each location ID
+	 */
+	private void searchHelper(PostingList postings, int[] counts) {
+		for (int i = 0; i < postings.size(); i++) {
+			counts[postings.document(i)] += postings.positions(i).size();
+		}
+	}
+
+	/**
+	 * Creates a search result for every location with a non-zero query count,
+	 * resolving location IDs back to their names.
+	 * 
+	 * @param counts the query count of each location ID
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         word frequency
+	 */
+	private ArrayList<SearchResult> collectResults(int[] counts) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				results.add(new SearchResult(documents.getName(id), counts[id], documents.getCount(id)));
 			}
 		}
 		Collections.sort(results);
@@ -312,24 +1051,43 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Helps the search methods by creating new search results and updating existing
-	 * search results.
+	 * Keeps the best {@code k} locations with a non-zero query count in a bounded
+	 * heap of location IDs, so only those locations get a search result.
 	 * 
-	 * @param key     a key in the index
-	 * @param lookup  a location -> result map used to check if search results exist
-	 * @param results the result list to add to
+	 * @param counts the query count of each location ID
+	 * @param k      the number of results to keep
+	 * @param names  the name of each location ID
+	 * @param totals the word count of each location ID
+	 * @return the best {@code k} results in sorted order and the number of
+	 *         locations with a non-zero query count
 	 */
-	private void searchHelper(String key, Map<String, SearchResult> lookup, List<SearchResult> results) {
-		for (String location : index.get(key).keySet()) { // getLocations(key) is just a little extra logic
-			if (lookup.containsKey(location)) {
-				lookup.get(location).update(key);
-			}
-			else {
-				SearchResult result = new SearchResult(location, key);
-				lookup.put(location, result);
-				results.add(result);
+	protected TopResults collectTop(int[] counts, int k, IntFunction<String> names, IntUnaryOperator totals) {
+		TopHeap heap = new TopHeap(k, counts, names, totals);
+		int total = 0;
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				total++;
+				heap.offer(id);
 			}
 		}
+		return new TopResults(toResults(heap.drain(), counts, names, totals), total);
+	}
+
+	/**
+	 * Creates a search result for each of a list of location IDs.
+	 * 
+	 * @param ids    the location IDs in sorted order
+	 * @param counts the query count of each location ID
+	 * @param names  the name of each location ID
+	 * @param totals the word count of each location ID
+	 * @return the search results in the same order
+	 */
+	protected List<SearchResult> toResults(int[] ids, int[] counts, IntFunction<String> names, IntUnaryOperator totals) {
+		SearchResult[] results = new SearchResult[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			results[i] = new SearchResult(names.apply(ids[i]), counts[ids[i]], totals.applyAsInt(ids[i]));
+		}
+		return Arrays.asList(results);
 	}
 
 	/**
@@ -339,7 +1097,58 @@ public class InvertedIndex {
 	 * @throws IOException
 	 */
 	public void writeIndex(Path path) throws IOException {
-		JSONWriter.writeIndex(index, path);
+		JSONWriter.writeIndex(resolve(), path);
+	}
+
+	/**
+	 * Writes the inverted index as a binary snapshot to the provided path, which can
+	 * be loaded much faster than rebuilding the index.
+	 * 
+	 * @param path the file to write to
+	 * @throws IOException
+	 * 
+	 * @see IndexSnapshot
+	 */
+	public void writeSnapshot(Path path) throws IOException {
+		IndexSnapshot.write(index, documents, path);
+	}
+
+	/**
+	 * Writes the inverted index as a segment file that can be opened as a
+	 * memory-mapped {@link MappedInvertedIndex}.
+	 * 
+	 * @param path the file to write to
+	 * @throws IOException
+	 * 
+	 * @see IndexSegment
+	 */
+	public void writeSegment(Path path) throws IOException {
+		IndexSegment.write(index, documents, path);
+	}
+
+	/**
+	 * Adds all elements from a binary snapshot written by
+	 * {@link #writeSnapshot(Path)}. Loading into an empty index reads the snapshot
+	 * directly into this index's data structures.
+	 * 
+	 * @param path the file to read from
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 * 
+	 * @see IndexSnapshot
+	 */
+	public void readSnapshot(Path path) throws IOException {
+		if (index.isEmpty() && documents.size() == 0) {
+			IndexSnapshot.read(path, index, documents, compressed);
+			// the snapshot was read around the prefix counts, so count it all again
+			if (prefixes != null) {
+				countPrefixes(prefixes.getMaxBytes());
+			}
+		}
+		else {
+			InvertedIndex other = new InvertedIndex(compressed);
+			other.readSnapshot(path);
+			merge(other);
+		}
 	}
 
 	/**
@@ -349,7 +1158,100 @@ public class InvertedIndex {
 	 */
 	@Override
 	public String toString() {
-		return JSONWriter.writeIndex(index);
+		return JSONWriter.writeIndex(resolve());
+	}
+
+	/**
+	 * Returns a read-only view of the inverted index with location IDs resolved
+	 * back to their names.
+	 * 
+	 * @return a view of the index as key -> location -> positions, sorted by key
+	 *         and location
+	 * 
+	 * @see #resolve(Set, Function)
+	 */
+	private Map<String, Map<String, Collection<Integer>>> resolve() {
+		return resolve(index.keySet(), key -> resolve(index.get(key)));
+	}
+
+	/**
+	 * Returns a read-only view of an inverted index as key -> location ->
+	 * positions. Each key's locations are resolved only when the view reaches that
+	 * key, so the whole index is never copied at once. Intended for iterating, for
+	 * example by {@link JSONWriter#writeIndex(Map, Path)}.
+	 * 
+	 * @param keys     the sorted keys of the index
+	 * @param resolver resolves a key into its sorted location -> positions map
+	 * @return a view of the index
+	 */
+	protected static Map<String, Map<String, Collection<Integer>>> resolve(Set<String> keys, Function<String, Map<String, Collection<Integer>>> resolver) {
+		return new AbstractMap<String, Map<String, Collection<Integer>>>() {
+			@Override
+			public Set<Entry<String, Map<String, Collection<Integer>>>> entrySet() {
+				return new AbstractSet<Entry<String, Map<String, Collection<Integer>>>>() {
+					@Override
+					public Iterator<Entry<String, Map<String, Collection<Integer>>>> iterator() {
+						Iterator<String> iterator = keys.iterator();
+						return new Iterator<Entry<String, Map<String, Collection<Integer>>>>() {
+							@Override
+							public boolean hasNext() {
+								return iterator.hasNext();
+							}
+
+							@Override
+							public Entry<String, Map<String, Collection<Integer>>> next() {
+								String key = iterator.next();
+								return Map.entry(key, resolver.apply(key));
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return keys.size();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Resolves the location IDs of a key's postings back to their names.
+	 * 
+	 * @param postings the postings of a key in the index
+	 * @return a map of location -> positions, sorted by location
+	 */
+	private Map<String, Collection<Integer>> resolve(PostingList postings) {
+		TreeMap<String, Collection<Integer>> locations = new TreeMap<>();
+		for (int i = 0; i < postings.size(); i++) {
+			locations.put(documents.getName(postings.document(i)), postings.positions(i));
+		}
+		return locations;
+	}
+
+	/**
+	 * A term dictionary of the keys of an index, along with the postings of each
+	 * key by term ID.
+	 */
+	private static class Terms {
+
+		/** The term dictionary of the keys. */
+		private final TermDictionary dictionary;
+
+		/** The postings of each key by term ID. */
+		private final PostingList[] postings;
+
+		/**
+		 * Builds the term dictionary of the keys of an index.
+		 * 
+		 * @param index the key to postings map, which must not change while it is
+		 *              read
+		 */
+		private Terms(TreeMap<String, PostingList> index) {
+			String[] keys = index.keySet().toArray(new String[0]);
+			this.dictionary = new TermDictionary(keys.length, i -> keys[i]);
+			this.postings = index.values().toArray(new PostingList[0]);
+		}
 	}
 
 	/**
@@ -366,22 +1268,25 @@ public class InvertedIndex {
 		/**
 		 * The amount of times any of the query words appear in the location
 		 */
-		private int queryCount;
+		private final int queryCount;
 		/**
 		 * The score of the search result used for sorting, calculated by query
 		 * frequency: total query matches in location / total words in locations
 		 */
-		private double score;
+		private final double score;
 
 		/**
 		 * Initializes a search result from the inverted index.
 		 * 
-		 * @param location the location a word is found
-		 * @param word     a word in the index
+		 * @param location the location the query words are found
+		 * @param count    the number of times any of the query words appear in the
+		 *                 location
+		 * @param total    the total word count of the location
 		 */
-		public SearchResult(String location, String word) {
+		public SearchResult(String location, int count, int total) {
 			this.location = location;
-			update(word);
+			this.queryCount = count;
+			this.score = Double.valueOf(count) / Double.valueOf(total);
 		}
 
 		/**
@@ -411,17 +1316,6 @@ public class InvertedIndex {
 			return score;
 		}
 
-		/**
-		 * Sets the queryCount of the search result; the amount of times any of the
-		 * query words appear in the location. Also updates the result's score.
-		 * 
-		 * @param word the word to locate and update in the index
-		 */
-		private void update(String word) {
-			this.queryCount += index.get(word).get(this.location).size();
-			this.score = Double.valueOf(queryCount) / Double.valueOf(locationMap.get(location));
-		}
-
 		@Override
 		public int compareTo(SearchResult other) {
 			if (Double.compare(other.score, this.score) != 0) {
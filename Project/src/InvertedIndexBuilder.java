@@ -1,9 +1,12 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.ObjIntConsumer;
 
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
@@ -19,6 +22,18 @@ public class InvertedIndexBuilder {
 	/** The default stemmer algorithm used by this class. */
 	public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
 
+	/** Files at least this large are mapped into memory rather than read. */
+	private static final long MAP_THRESHOLD = 1 << 20;
+
+	/** The most bytes of a file mapped into memory at once. */
+	private static final int WINDOW = 1 << 30;
+
+	/** The number of bytes of a file split into words at once. */
+	private static final int CHUNK = 1 << 20;
+
+	/** The most bytes an array can hold, for lines longer than a chunk. */
+	private static final int MAX_CHUNK = Integer.MAX_VALUE - 8;
+
 	/** The inverted index to build/add data to */
 	private final InvertedIndex index;
 
@@ -63,26 +78,135 @@ public class InvertedIndexBuilder {
 	 * @param index the inverted index to add data to
 	 * @throws IOException
 	 * 
-	 * @see TextParser#clean(String)
-	 * @see Stemmer#stem(CharSequence)
+	 * @see #tokenize(Path, ObjIntConsumer)
+	 * @see StemCache#stem(CharSequence)
 	 */
 	public static void parse(Path file, InvertedIndex index) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
-		// starting position
-		int pos = 0;
-		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);) {
-			String line = null;
-			String location = file.toString();
-			while ((line = reader.readLine()) != null) {
-				// split by white space and clean
-				String[] words = TextParser.parse(line);
-				// stem and add data to inverted index
-				for (String word : words) {
-					word = stemmer.stem(word).toString();
-					++pos;
-					index.add(word, location, pos);
+		Stemmer stemmer = StemCache.SHARED;
+		String location = file.toString();
+		// stem and add data to inverted index
+		tokenize(file, (word, position) -> index.add(stemmer.stem(word).toString(), location, position));
+		index.seal();
+	}
+
+	/**
+	 * Splits a UTF-8 text file into cleaned words, and passes each word and its
+	 * position to an action, in order. The word is only valid until the action
+	 * returns.
+	 * 
+	 * The file is read as bytes a chunk at a time, and large files are mapped
+	 * into memory, so mostly ASCII text is split into words without first being
+	 * decoded into lines of characters.
+	 * 
+	 * @param file   the file to split
+	 * @param action the action to perform on each word and its position
+	 * @return the number of words in the file
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 * 
+	 * @see Tokenizer#tokenize(byte[], int, int, int, ObjIntConsumer)
+	 */
+	public static int tokenize(Path file, ObjIntConsumer<CharSequence> action) throws IOException {
+		return tokenize(file, 0, Long.MAX_VALUE, 0, action);
+	}
+
+	/**
+	 * Splits part of a UTF-8 text file into cleaned words, the same as
+	 * {@link #tokenize(Path, ObjIntConsumer)} but only for the lines from one byte
+	 * offset to another, numbering them on from a given position.
+	 * 
+	 * @param file     the file to split
+	 * @param from     the offset of the first byte to split, at the start of a
+	 *                 line
+	 * @param to       the offset after the last byte to split, at the start of a
+	 *                 line or past the end of the file
+	 * @param position the position of the word before the first byte, such as the
+	 *                 number of words before it
+	 * @param action   the action to perform on each word and its position
+	 * @return the position of the last word, or the given position if there are
+	 *         no words
+	 * @throws IOException if the file cannot be read or is not valid UTF-8
+	 */
+	public static int tokenize(Path file, long from, long to, int position, ObjIntConsumer<CharSequence> action)
+			throws IOException {
+		Tokenizer tokenizer = new Tokenizer();
+		int pos = position;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long end = Math.max(from, Math.min(to, size));
+			byte[] bytes = new byte[(int) Math.max(1, Math.min(end - from, CHUNK))];
+			// the part of the file mapped into memory, if it is large
+			MappedByteBuffer window = null;
+			long windowStart = 0;
+			// the bytes in the chunk, from the start of a line, and where they end
+			int length = 0;
+			long offset = from;
+			while (true) {
+				if (length == bytes.length) {
+					// a line longer than the chunk
+					bytes = Arrays.copyOf(bytes, (int) Math.min(2L * bytes.length, MAX_CHUNK));
+				}
+
+				int count = (int) Math.min(bytes.length - length, end - offset);
+				if (size < MAP_THRESHOLD) {
+					count = read(channel, offset, bytes, length, count);
+				}
+				else {
+					if (window == null || offset + count > windowStart + window.limit()) {
+						windowStart = offset;
+						window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+								Math.max(count, Math.min(WINDOW, end - offset)));
+					}
+					window.position((int) (offset - windowStart));
+					window.get(bytes, length, count);
+				}
+				offset += count;
+				length += count;
+				// a file that shrank while being read ends early
+				boolean last = offset == end || count == 0;
+
+				// split by line breaks the same way as BufferedReader#readLine(), then by
+				// white space and clean
+				int start = 0;
+				for (int i = 0; i < length; i++) {
+					if (bytes[i] == '\n' || bytes[i] == '\r') {
+						pos = tokenizer.tokenize(bytes, start, i, pos, action);
+						start = i + 1;
+					}
+				}
+				if (last || (start == 0 && length == MAX_CHUNK)) {
+					// the rest is the last line, or a line too long for any chunk
+					pos = tokenizer.tokenize(bytes, start, length, pos, action);
+					if (last) {
+						break;
+					}
+					start = length;
 				}
+
+				// keep the line the chunk ended in for the next chunk
+				System.arraycopy(bytes, start, bytes, 0, length - start);
+				length -= start;
 			}
 		}
+		return pos;
+	}
+
+	/**
+	 * Reads part of a file into an array.
+	 * 
+	 * @param channel the open file
+	 * @param offset  the index of the first byte of the file to read
+	 * @param bytes   the array to read into
+	 * @param from    the index in the array to read into
+	 * @param count   the number of bytes to read
+	 * @return the number of bytes read, which is less than the count if the file
+	 *         ended first
+	 * @throws IOException if the file cannot be read
+	 */
+	private static int read(FileChannel channel, long offset, byte[] bytes, int from, int count) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, from, count);
+		while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position() - from) >= 0) {
+			// keep reading until the buffer is full or the file ends
+		}
+		return buffer.position() - from;
 	}
-}
\ No newline at end of file
+}
@@ -10,8 +10,6 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Outputs inverted index in "pretty" JSON format where newlines are used to
@@ -317,7 +315,8 @@ public class JSONWriter {
 	}
 
 	/**
-	 * Writes the element surrounded by {@code " "} quotation marks.
+	 * Writes the element surrounded by {@code " "} quotation marks, escaping any
+	 * quotation marks or backslashes in it, such as in a phrase query.
 	 *
 	 * @param element the element to write
 	 * @param writer  the writer to use
@@ -325,7 +324,7 @@ public class JSONWriter {
 	 */
 	public static void quote(String element, Writer writer) throws IOException {
 		writer.write('"');
-		writer.write(element);
+		writer.write(element.replace("\\", "\\\\").replace("\"", "\\\""));
 		writer.write('"');
 	}
 
@@ -356,25 +355,25 @@ public class JSONWriter {
 	 * @see #writeKey(String, Writer, int)
 	 * @see #asNestedObject(Map, Writer, int)
 	 */
-	public static void writeIndex(Map<String, TreeMap<String, TreeSet<Integer>>> index, Path outPath) throws IOException {
+	public static void writeIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> index, Path outPath) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(outPath, StandardCharsets.UTF_8)) {
 			writer.write("{");
-			var iterator = index.keySet().iterator(); // an iterator on the index's keys
+			var iterator = index.entrySet().iterator(); // an iterator on the index's entries
 			// if there's a first stem, write it. Then, write it's appearance files and
 			// their corresponding location arrays as a nested JSON object
 			if (iterator.hasNext()) {
-				String key = iterator.next();
-				writeKey(key, writer, 0);
-				asNestedObject(index.get(key), writer, 1);
+				var entry = iterator.next();
+				writeKey(entry.getKey(), writer, 0);
+				asNestedObject(entry.getValue(), writer, 1);
 			}
 			// for all subsequent stems, write the stem AND a comma. Then, write their
 			// appearance files and their corresponding location arrays as a nested JSON
 			// object
 			while (iterator.hasNext()) {
 				writer.write(",");
-				String key = iterator.next();
-				writeKey(key, writer, 0);
-				asNestedObject(index.get(key), writer, 1);
+				var entry = iterator.next();
+				writeKey(entry.getKey(), writer, 0);
+				asNestedObject(entry.getValue(), writer, 1);
 			}
 			writer.write('\n');
 			writer.write("}");
@@ -387,26 +386,26 @@ public class JSONWriter {
 	 * @param index the inverted index
 	 * @return the inverted index as a string
 	 */
-	public static String writeIndex(Map<String, TreeMap<String, TreeSet<Integer>>> index) {
+	public static String writeIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> index) {
 		try {
 			StringWriter writer = new StringWriter();
 			writer.write("{");
-			var iterator = index.keySet().iterator(); // an iterator on the index's keys
+			var iterator = index.entrySet().iterator(); // an iterator on the index's entries
 			// if there's a first stem, write it. Then, write it's appearance files and
 			// their corresponding location arrays as a nested JSON object
 			if (iterator.hasNext()) {
-				String key = iterator.next();
-				writeKey(key, writer, 0);
-				asNestedObject(index.get(key), writer, 1);
+				var entry = iterator.next();
+				writeKey(entry.getKey(), writer, 0);
+				asNestedObject(entry.getValue(), writer, 1);
 			}
 			// for all subsequent stems, write the stem AND a comma. Then, write their
 			// appearance files and their corresponding location arrays as a nested JSON
 			// object
 			while (iterator.hasNext()) {
 				writer.write(",");
-				String key = iterator.next();
-				writeKey(key, writer, 0);
-				asNestedObject(index.get(key), writer, 1);
+				var entry = iterator.next();
+				writeKey(entry.getKey(), writer, 0);
+				asNestedObject(entry.getValue(), writer, 1);
 			}
 			writer.write('\n');
 			writer.write("}");
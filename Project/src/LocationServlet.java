@@ -27,17 +27,17 @@ public class LocationServlet extends HttpServlet {
 	/** The title to use for this webpage. */
 	private static final String TITLE = "Show Sites";
 
-	/* The location to count map to display */
-	Map<String, Integer> locationMap;
+	/* The inverted index whose location to count map is displayed */
+	ThreadSafeInvertedIndex index;
 
 	/**
-	 * Initalizes a LocationServlet with a location to count map.
+	 * Initalizes a LocationServlet with an inverted index.
 	 * 
-	 * @param locationMap the map to display
+	 * @param index the inverted index whose locations to display
 	 */
-	public LocationServlet(Map<String, Integer> locationMap) {
+	public LocationServlet(ThreadSafeInvertedIndex index) {
 		super();
-		this.locationMap = locationMap;
+		this.index = index;
 	}
 
 	@Override
@@ -45,6 +45,10 @@ public class LocationServlet extends HttpServlet {
 
 		log.info("LocationServlet ID " + this.hashCode() + " handling GET request.");
 
+		// the location to count map to display, from a generation that will not
+		// change while it is displayed
+		Map<String, Integer> locationMap = index.snapshot().getLocationToCountMap();
+
 		// form HTML
 		response.setContentType("text/html");
 		PrintWriter out = response.getWriter();
@@ -0,0 +1,615 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A read-only inverted index that answers queries directly from a memory-mapped
+ * {@link IndexSegment} file, so the index does not need to fit in the JVM heap.
+ * Since the segment never changes, no locking is needed.
+ *
+ * @author evancarlson
+ *
+ * @see InvertedIndex#writeSegment(Path)
+ */
+public class MappedInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/** The mapped segment file. */
+	private final IndexSegment segment;
+
+	/** The path of the segment file. */
+	private final Path path;
+
+	/**
+	 * A term dictionary of the keys of the segment, built the first time a prefix
+	 * is expanded, or {@code null} until then.
+	 */
+	private volatile TermDictionary terms;
+
+	/**
+	 * Initializes a read-only inverted index from a segment file.
+	 *
+	 * @param path the segment file to map
+	 * @throws IOException if the file cannot be mapped or is not a segment
+	 */
+	public MappedInvertedIndex(Path path) throws IOException {
+		super();
+		this.segment = new IndexSegment(path);
+		this.path = path;
+	}
+
+	/**
+	 * Always throws, since the mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("The mapped inverted index is read-only.");
+	}
+
+	/**
+	 * Always throws, since the mapped index is read-only.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void add(String key, String location, int position) {
+		throw new UnsupportedOperationException("The mapped inverted index is read-only.");
+	}
+
+	/**
+	 * Always throws, since the mapped index searches the postings in its segment
+	 * file directly.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void trackPrefixes(long maxBytes) {
+		throw new UnsupportedOperationException("The mapped inverted index does not track prefixes.");
+	}
+
+	@Override
+	public void seal() {
+		// nothing is ever added, so there is nothing to seal
+	}
+
+	/**
+	 * Returns this index, since the mapped segment never changes.
+	 */
+	@Override
+	public InvertedIndex snapshot() {
+		return this;
+	}
+
+	@Override
+	public boolean hasKey(String key) {
+		return segment.findKey(key) >= 0;
+	}
+
+	@Override
+	public boolean hasLocation(String key, String location) {
+		return find(key, location) != null;
+	}
+
+	@Override
+	public boolean hasLocation(String location) {
+		return segment.findDocument(location) >= 0;
+	}
+
+	@Override
+	public boolean hasPosition(String key, String location, int position) {
+		IndexSegment.Cursor cursor = find(key, location);
+		return cursor != null && cursor.positions().contains(position);
+	}
+
+	@Override
+	public int numKeys() {
+		return segment.numKeys();
+	}
+
+	@Override
+	public int numLocations() {
+		return segment.numDocuments();
+	}
+
+	@Override
+	public int numLocations(String key) {
+		int index = segment.findKey(key);
+		return index < 0 ? 0 : segment.numPostings(index);
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		IndexSegment.Cursor cursor = find(key, location);
+		return cursor == null ? 0 : cursor.size();
+	}
+
+	@Override
+	public Set<String> getKeys() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					/** The index of the next key. */
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < segment.numKeys();
+					}
+
+					@Override
+					public String next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return segment.getKey(next++);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return key instanceof String && hasKey((String) key);
+			}
+
+			@Override
+			public int size() {
+				return segment.numKeys();
+			}
+		};
+	}
+
+	@Override
+	public Set<String> getLocations(String key) {
+		int index = segment.findKey(key);
+		if (index < 0) {
+			return Collections.emptySet();
+		}
+
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				IndexSegment.Cursor cursor = segment.postings(index);
+				return new Iterator<String>() {
+					/** The number of locations returned so far. */
+					private int returned = 0;
+
+					@Override
+					public boolean hasNext() {
+						return returned < size();
+					}
+
+					@Override
+					public String next() {
+						if (!cursor.next()) {
+							throw new NoSuchElementException();
+						}
+						returned++;
+						// document IDs are in location order
+						return segment.getName(cursor.document());
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object location) {
+				return location instanceof String && hasLocation(key, (String) location);
+			}
+
+			@Override
+			public int size() {
+				return segment.numPostings(index);
+			}
+		};
+	}
+
+	@Override
+	public Set<Integer> getPositions(String key, String location) {
+		IndexSegment.Cursor cursor = find(key, location);
+		if (cursor != null) {
+			return Collections.unmodifiableSet(cursor.positions());
+		}
+		return Collections.emptySet();
+	}
+
+	@Override
+	public Map<String, Integer> getLocationToCountMap() {
+		if (segment.numDocuments() == 0) {
+			return Collections.emptyMap();
+		}
+
+		return new AbstractMap<String, Integer>() {
+			@Override
+			public Set<Entry<String, Integer>> entrySet() {
+				return new AbstractSet<Entry<String, Integer>>() {
+					@Override
+					public Iterator<Entry<String, Integer>> iterator() {
+						return new Iterator<Entry<String, Integer>>() {
+							/** The next document ID, in location order. */
+							private int next = 0;
+
+							@Override
+							public boolean hasNext() {
+								return next < segment.numDocuments();
+							}
+
+							@Override
+							public Entry<String, Integer> next() {
+								if (!hasNext()) {
+									throw new NoSuchElementException();
+								}
+								int document = next++;
+								return Map.entry(segment.getName(document), segment.getCount(document));
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return segment.numDocuments();
+					}
+				};
+			}
+
+			@Override
+			public Integer get(Object location) {
+				if (!(location instanceof String)) {
+					return null;
+				}
+				int document = segment.findDocument((String) location);
+				return document < 0 ? null : segment.getCount(document);
+			}
+
+			@Override
+			public boolean containsKey(Object location) {
+				return get(location) != null;
+			}
+		};
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<? extends String> query) {
+		return collectResults(exactCounts(query));
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<? extends String> query) {
+		return collectResults(partialCounts(query));
+	}
+
+	@Override
+	public TopResults search(Collection<? extends String> query, boolean exact, int k) {
+		int[] counts = exact ? exactCounts(query) : partialCounts(query);
+		return collectTop(counts, k, segment::getName, segment::getCount);
+	}
+
+	/**
+	 * Searches without skipping any locations, since the postings of the segment
+	 * are read with cursors.
+	 */
+	@Override
+	public TopResults pruneSearch(Collection<? extends String> query, boolean exact, int k) {
+		return search(query, exact, k);
+	}
+
+	/**
+	 * Searches without reading in order of impact, for the same reason as
+	 * {@link #pruneSearch(Collection, boolean, int)}.
+	 */
+	@Override
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k, int expansions) {
+		int[] counts = new int[segment.numDocuments()];
+		boolean truncated = false;
+		for (String word : query) {
+			truncated |= addCounts(word, exact, counts, expansions);
+		}
+		TopResults top = collectTop(counts, k, segment::getName, segment::getCount);
+		return new TopResults(top.getResults(), top.getTotal(), top.isTotalExact(), truncated);
+	}
+
+	@Override
+	public ArrayList<SearchResult> proximitySearch(ProximityQuery query, boolean exact) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[segment.numDocuments()];
+
+		for (ProximityQuery.Clause clause : query.getClauses()) {
+			if (clause.size() == 1) {
+				addCounts(clause.word(0), exact, counts);
+				continue;
+			}
+
+			PostingList[] postings = new PostingList[clause.size()];
+			boolean found = true;
+			for (int i = 0; i < postings.length && found; i++) {
+				int index = segment.findKey(clause.word(i));
+				found = index >= 0;
+				if (found) {
+					postings[i] = copyPostings(index);
+				}
+			}
+			if (found) {
+				clause.accumulate(postings, counts);
+			}
+		}
+		return collectResults(counts);
+	}
+
+	@Override
+	public ArrayList<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[segment.numDocuments()];
+		query.accumulate(word -> copyMatches(word, exact), counts);
+		return collectResults(counts);
+	}
+
+	/**
+	 * Copies the postings of every key matching a query word out of the segment.
+	 *
+	 * @param word  a clean and stemmed word from a search query
+	 * @param exact true if keys must equal the word, false if keys must start
+	 *              with it
+	 * @return copies of the postings of the matching keys
+	 */
+	private ArrayList<PostingList> copyMatches(String word, boolean exact) {
+		ArrayList<PostingList> matches = new ArrayList<>();
+		if (exact) {
+			int index = segment.findKey(word);
+			if (index >= 0) {
+				matches.add(copyPostings(index));
+			}
+			return matches;
+		}
+
+		int[] range = terms().range(word);
+		for (int index = range[0]; index < range[1]; index++) {
+			matches.add(copyPostings(index));
+		}
+		return matches;
+	}
+
+	/**
+	 * Copies the postings of a key out of the segment, so they can be skipped
+	 * through.
+	 *
+	 * @param index the index of a key in the segment
+	 * @return a copy of the postings of the key
+	 */
+	private PostingList copyPostings(int index) {
+		PostingList postings = new PostingList(segment.numPostings(index));
+		IndexSegment.Cursor cursor = segment.postings(index);
+		while (cursor.next()) {
+			postings.put(cursor.document(), cursor.positions());
+		}
+		return postings;
+	}
+
+	/**
+	 * Adds up the query count of each location ID for an exact search.
+	 *
+	 * @param query a list of clean and stemmed words from a search query
+	 * @return the query count of each location ID
+	 */
+	private int[] exactCounts(Collection<? extends String> query) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[segment.numDocuments()];
+		for (String word : query) {
+			addCounts(word, true, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds up the query count of each location ID for a partial search.
+	 *
+	 * @param query a list of clean and stemmed words from a search query
+	 * @return the query count of each location ID
+	 */
+	private int[] partialCounts(Collection<? extends String> query) {
+		// initialize an array-indexed accumulator of query counts per location ID
+		int[] counts = new int[segment.numDocuments()];
+		for (String word : query) {
+			addCounts(word, false, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds the number of times every key matching a query word appears in each
+	 * location to the accumulator.
+	 *
+	 * @param word   a clean and stemmed word from a search query
+	 * @param exact  true if keys must equal the word, false if keys must start
+	 *               with it
+	 * @param counts the query count of each location ID
+	 */
+	private void addCounts(String word, boolean exact, int[] counts) {
+		addCounts(word, exact, counts, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds the number of times the keys matching a query word appear in each
+	 * location to the accumulator, keeping only the keys found in the most
+	 * locations if a prefix matches too many.
+	 *
+	 * @param word       a clean and stemmed word from a search query
+	 * @param exact      true if keys must equal the word, false if keys must start
+	 *                   with it
+	 * @param counts     the query count of each location ID
+	 * @param expansions the most keys to add for a prefix
+	 * @return {@code true} if some matching keys were left out
+	 */
+	private boolean addCounts(String word, boolean exact, int[] counts, int expansions) {
+		if (exact) {
+			int index = segment.findKey(word);
+			// if the word is present in the index
+			if (index >= 0) {
+				searchHelper(index, counts);
+			}
+			return false;
+		}
+
+		// the keys starting with the prefix are the keys with IDs in the range
+		int[] range = terms().range(word);
+		if (range[1] - range[0] <= expansions) {
+			for (int index = range[0]; index < range[1]; index++) {
+				searchHelper(index, counts);
+			}
+			return false;
+		}
+
+		ArrayList<Integer> expanded = new ArrayList<>();
+		for (int index = range[0]; index < range[1]; index++) {
+			expanded.add(index);
+		}
+		for (int index : mostFrequent(expanded, expansions, segment::numPostings)) {
+			searchHelper(index, counts);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the term dictionary of the keys of the segment, building it the first
+	 * time. A term ID in the dictionary is the index of the key in the segment,
+	 * since both are in sorted order.
+	 *
+	 * @return the term dictionary of the keys
+	 */
+	private TermDictionary terms() {
+		TermDictionary current = terms;
+		if (current == null) {
+			// read each key out of the file once, since building reads keys repeatedly
+			String[] keys = new String[segment.numKeys()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = segment.getKey(i);
+			}
+			// the segment never changes, so threads that race to build it build the same
+			current = new TermDictionary(keys.length, i -> keys[i]);
+			terms = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Helps the search methods by reading through the postings of a key and adding
+	 * the number of times it appears in each location to the accumulator.
+	 *
+	 * @param index  the index of a key in the segment
+	 * @param counts the query count of each location ID
+	 */
+	private void searchHelper(int index, int[] counts) {
+		IndexSegment.Cursor cursor = segment.postings(index);
+		while (cursor.next()) {
+			counts[cursor.document()] += cursor.size();
+		}
+	}
+
+	/**
+	 * Creates a search result for every location with a non-zero query count.
+	 *
+	 * @param counts the query count of each location ID
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         word frequency
+	 */
+	private ArrayList<SearchResult> collectResults(int[] counts) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		for (int document = 0; document < counts.length; document++) {
+			if (counts[document] > 0) {
+				results.add(new SearchResult(segment.getName(document), counts[document], segment.getCount(document)));
+			}
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Finds the posting of a key and location.
+	 *
+	 * @param key      a key in the index
+	 * @param location a location in the index
+	 * @return a cursor positioned at the posting, or {@code null} if the key does
+	 *         not appear in the location
+	 */
+	private IndexSegment.Cursor find(String key, String location) {
+		int index = segment.findKey(key);
+		int document = segment.findDocument(location);
+		if (index < 0 || document < 0) {
+			return null;
+		}
+
+		IndexSegment.Cursor cursor = segment.postings(index);
+		while (cursor.next()) {
+			if (cursor.document() >= document) {
+				return cursor.document() == document ? cursor : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves a key into its location -> positions map.
+	 *
+	 * @param key a key in the index
+	 * @return a map of location -> positions, sorted by location
+	 */
+	private Map<String, Collection<Integer>> resolve(String key) {
+		TreeMap<String, Collection<Integer>> locations = new TreeMap<>();
+		int index = segment.findKey(key);
+		if (index >= 0) {
+			IndexSegment.Cursor cursor = segment.postings(index);
+			while (cursor.next()) {
+				locations.put(segment.getName(cursor.document()), cursor.positions());
+			}
+		}
+		return locations;
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		JSONWriter.writeIndex(resolve(getKeys(), this::resolve), path);
+	}
+
+	/**
+	 * Copies the mapped segment file, since it is already in the segment format.
+	 */
+	@Override
+	public void writeSegment(Path path) throws IOException {
+		Files.copy(this.path, path);
+	}
+
+	/**
+	 * Always throws, since the mapped index is not held in the index data
+	 * structures a snapshot is written from.
+	 *
+	 * @throws IOException always
+	 */
+	@Override
+	public void writeSnapshot(Path path) throws IOException {
+		throw new IOException("A mapped inverted index cannot be saved as a snapshot.");
+	}
+
+	/**
+	 * Always throws, since the mapped index is read-only.
+	 *
+	 * @throws IOException always
+	 */
+	@Override
+	public void readSnapshot(Path path) throws IOException {
+		throw new IOException("A snapshot cannot be loaded into a read-only mapped inverted index.");
+	}
+
+	@Override
+	public String toString() {
+		return JSONWriter.writeIndex(resolve(getKeys(), this::resolve));
+	}
+}
@@ -0,0 +1,177 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Finds the best locations of a query one document at a time, using the MaxScore
+ * algorithm to skip locations that cannot score high enough to be kept.
+ *
+ * The score of a location is the sum of the impact of each query key in it, and
+ * the impact of a key can never exceed its highest impact in any location. Once
+ * the kept locations all score higher than the highest impacts of the rarest
+ * keys added together, a location that only contains those keys cannot be kept,
+ * so their postings are no longer walked; they are only checked for the
+ * locations found in the postings of the other keys, skipping ahead to them.
+ *
+ * @author evancarlson
+ *
+ * @see TopHeap
+ */
+public class MaxScore {
+
+	/**
+	 * How much an upper bound is raised before comparing it to the lowest kept
+	 * score, so that rounding in the sum of highest impacts never drops a location
+	 * that ties the kept locations.
+	 */
+	private static final double SLACK = 1 + 1e-9;
+
+	/** The postings of each query key, sorted by highest impact. */
+	private final PostingList[] terms;
+
+	/**
+	 * The sum of the highest impacts of the keys before each index; the last
+	 * element is the sum of all of them.
+	 */
+	private final double[] bounds;
+
+	/** The current index into the postings of each key. */
+	private final int[] cursors;
+
+	/** The word count of each location ID. */
+	private final IntUnaryOperator totals;
+
+	/** The query count of each location ID, filled in as locations are scored. */
+	private final int[] counts;
+
+	/** The number of locations that were fully scored. */
+	private int scored;
+
+	/** Whether every matching location was scored. */
+	private boolean exhaustive;
+
+	/**
+	 * Initializes the evaluation of a query.
+	 *
+	 * @param postings the postings of each query key; a key is counted as many
+	 *                 times as it is listed
+	 * @param totals   the word count of each location ID
+	 * @param counts   the query count of each location ID, filled in for every
+	 *                 location that is fully scored
+	 */
+	public MaxScore(List<PostingList> postings, IntUnaryOperator totals, int[] counts) {
+		this.totals = totals;
+		this.counts = counts;
+		this.terms = postings.toArray(new PostingList[0]);
+
+		double[] impacts = new double[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			impacts[i] = terms[i].maxImpact(totals);
+		}
+		Integer[] order = new Integer[terms.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingDouble(i -> impacts[i]));
+
+		PostingList[] sorted = new PostingList[terms.length];
+		this.bounds = new double[terms.length + 1];
+		for (int i = 0; i < terms.length; i++) {
+			sorted[i] = terms[order[i]];
+			bounds[i + 1] = bounds[i] + impacts[order[i]];
+		}
+		System.arraycopy(sorted, 0, terms, 0, terms.length);
+
+		this.cursors = new int[terms.length];
+		this.scored = 0;
+		this.exhaustive = true;
+	}
+
+	/**
+	 * Scores the locations of the query, offering every fully scored location to a
+	 * heap.
+	 *
+	 * @param heap the heap that keeps the best locations, sharing the query counts
+	 *             of this evaluation
+	 */
+	public void evaluate(TopHeap heap) {
+		// the next document ID of each key, or the largest integer once walked through
+		int[] next = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			next[i] = terms[i].size() > 0 ? terms[i].document(0) : Integer.MAX_VALUE;
+		}
+
+		// keys before this index are only checked for locations found in the others
+		int essential = 0;
+		// the lowest score that can still be kept, raised as better locations are kept
+		double threshold = heap.isFull() ? heap.threshold() : Double.NEGATIVE_INFINITY;
+
+		while (true) {
+			while (essential < terms.length && bounds[essential + 1] * SLACK < threshold) {
+				essential++;
+				exhaustive = false;
+			}
+
+			int document = Integer.MAX_VALUE;
+			for (int i = essential; i < terms.length; i++) {
+				document = Math.min(document, next[i]);
+			}
+			if (document == Integer.MAX_VALUE) {
+				break;
+			}
+
+			int count = 0;
+			for (int i = essential; i < terms.length; i++) {
+				if (next[i] == document) {
+					count += terms[i].positions(cursors[i]++).size();
+					next[i] = cursors[i] < terms[i].size() ? terms[i].document(cursors[i]) : Integer.MAX_VALUE;
+				}
+			}
+
+			double total = Double.valueOf(totals.applyAsInt(document));
+			boolean skipped = false;
+			for (int i = essential - 1; i >= 0; i--) {
+				// stop as soon as the rest of the keys cannot lift the location high enough
+				if ((count / total + bounds[i + 1]) * SLACK < threshold) {
+					skipped = true;
+					break;
+				}
+				if (next[i] < document) {
+					cursors[i] = terms[i].seek(cursors[i], document);
+					next[i] = cursors[i] < terms[i].size() ? terms[i].document(cursors[i]) : Integer.MAX_VALUE;
+				}
+				if (next[i] == document) {
+					count += terms[i].positions(cursors[i]).size();
+				}
+			}
+
+			if (!skipped) {
+				counts[document] = count;
+				scored++;
+				if (heap.offer(document) && heap.isFull()) {
+					threshold = heap.threshold();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of locations that were fully scored.
+	 *
+	 * @return the number of scored locations
+	 */
+	public int getScored() {
+		return scored;
+	}
+
+	/**
+	 * Returns whether every location matching the query was scored, in which case
+	 * {@link #getScored()} is the exact number of matching locations.
+	 *
+	 * @return {@code true} if no location was skipped
+	 */
+	public boolean isExhaustive() {
+		return exhaustive;
+	}
+}
@@ -1,5 +1,16 @@
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -7,6 +18,16 @@ import org.apache.logging.log4j.Logger;
 /**
  * Builds and inverted index using multithreading.
  * 
+ * Directories are traversed by the workers too, one task per directory, and
+ * each text file is queued as soon as it is found, so files are parsed while
+ * the rest of the tree is still being listed.
+ * 
+ * Each file is parsed by its own worker, except for files of at least a given
+ * size, which are split at line breaks into one piece per thread. Each piece
+ * is parsed on its own, and then its positions are moved on past the number of
+ * words before it, so the positions and word counts are the same as when the
+ * file is parsed whole.
+ * 
  * @author evancarlson
  *
  */
@@ -18,9 +39,18 @@ public class MultithreadedInvertedIndexBuilder extends InvertedIndexBuilder {
 	/** The inverted index to build/add data to */
 	private final ThreadSafeInvertedIndex index;
 
+	/** The default size in bytes of the smallest file split into pieces. */
+	public static final long DEFAULT_SPLIT_BYTES = 16L << 20;
+
 	/** The work queue to use */
 	private final WorkQueue queue;
 
+	/** The size in bytes of the smallest file split into pieces. */
+	private final long splitBytes;
+
+	/** The first error listing a subdirectory during the current build, if any */
+	private final AtomicReference<IOException> error;
+
 	/**
 	 * Initializes a multithreaded inverted index builder.
 	 * 
@@ -28,28 +58,251 @@ public class MultithreadedInvertedIndexBuilder extends InvertedIndexBuilder {
 	 * @param queue the work queue to use
 	 */
 	public MultithreadedInvertedIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue) {
+		this(index, queue, DEFAULT_SPLIT_BYTES);
+	}
+
+	/**
+	 * Initializes a multithreaded inverted index builder that parses large files
+	 * in several pieces at once.
+	 * 
+	 * @param index      the index to add to
+	 * @param queue      the work queue to use
+	 * @param splitBytes the size in bytes of the smallest file to split into
+	 *                   pieces
+	 */
+	public MultithreadedInvertedIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, long splitBytes) {
 		super(index);
 		this.index = index;
 		this.queue = queue;
+		this.splitBytes = splitBytes;
+		this.error = new AtomicReference<>();
 	}
 
 	/**
 	 * Builds an InvertedIndex from the given path using multithreading.
 	 * 
 	 * @param inPath the input path to build inverted index from
-	 * @throws IOException
+	 * @throws IOException if the path or any directory under it cannot be listed
 	 */
 	@Override
 	public void build(Path inPath) throws IOException {
-		super.build(inPath);
-		queue.finish();
+		error.set(null);
+		try {
+			if (Files.isDirectory(inPath)) {
+				traverse(inPath);
+			}
+			else if (FileTraverser.isTextFile(inPath)) {
+				parse(inPath);
+			}
+		}
+		finally {
+			queue.finish();
+		}
+		// a subdirectory that could not be listed fails the build, the same as the
+		// directory it was given
+		IOException failed = error.getAndSet(null);
+		if (failed != null) {
+			throw failed;
+		}
 	}
 
 	@Override
 	public void parse(Path path) throws IOException {
+		if (queue.size() > 1 && Files.size(path) >= splitBytes) {
+			List<Long> bounds = split(path, queue.size());
+			if (bounds.size() > 2) {
+				new Pieces(path, bounds).parse();
+				return;
+			}
+		}
 		queue.execute(new Worker(path));
 	}
 
+	/**
+	 * Queues each text file in a directory to be parsed and each subdirectory to
+	 * be traversed, without waiting for any of them.
+	 * 
+	 * @param directory the directory to traverse
+	 * @throws IOException if the directory cannot be listed
+	 * 
+	 * @see FileTraverser#getTextFiles(Path)
+	 */
+	private void traverse(Path directory) throws IOException {
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+			for (Path path : paths) {
+				if (Files.isDirectory(path)) {
+					queue.execute(new Traverser(path));
+				}
+				else if (FileTraverser.isTextFile(path)) {
+					parse(path);
+				}
+			}
+		}
+		catch (DirectoryIteratorException e) {
+			// an error reading the entries is wrapped, unlike one opening the directory
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Finds where to split a file into about equal pieces, each starting at the
+	 * start of a line.
+	 * 
+	 * @param path   the file to split
+	 * @param pieces the number of pieces to split it into
+	 * @return the offset of the first byte of each piece, followed by the size of
+	 *         the file; pieces are merged if no line starts between them
+	 * @throws IOException if the file cannot be read
+	 */
+	private static List<Long> split(Path path, int pieces) throws IOException {
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			for (int i = 1; i < pieces; i++) {
+				// start the next piece after the first line break past its share
+				long offset = Math.max(bounds.get(bounds.size() - 1), size / pieces * i);
+				long bound = size;
+				while (offset < size && bound == size) {
+					buffer.clear();
+					int count = channel.read(buffer, offset);
+					if (count < 0) {
+						break;
+					}
+					for (int j = 0; j < count; j++) {
+						byte b = buffer.get(j);
+						if (b == '\n' || b == '\r') {
+							bound = offset + j + 1;
+							break;
+						}
+					}
+					offset += count;
+				}
+				if (bound < size && bound > bounds.get(bounds.size() - 1)) {
+					bounds.add(bound);
+				}
+			}
+			bounds.add(size);
+		}
+		return bounds;
+	}
+
+	/**
+	 * The pieces of a large file being parsed at once. Each piece is parsed by its
+	 * own worker into its own index, numbering its words from the start of the
+	 * piece, and the last worker to finish moves the words of every piece on past
+	 * the words before it and adds the pieces to the index.
+	 */
+	private class Pieces {
+		/** The file being parsed */
+		private final Path location;
+
+		/** The offset of the first byte of each piece, and the size of the file */
+		private final List<Long> bounds;
+
+		/** The words of each piece, numbered from the start of the piece */
+		private final InvertedIndex[] locals;
+
+		/** The number of words in each piece */
+		private final int[] counts;
+
+		/** The number of pieces that have not been parsed yet */
+		private final AtomicInteger unparsed;
+
+		/** Whether parsing any piece failed */
+		private final AtomicBoolean failed;
+
+		/**
+		 * Initializes the pieces of a file.
+		 * 
+		 * @param location the file to parse
+		 * @param bounds   the offset of the first byte of each piece, and the size
+		 *                 of the file
+		 */
+		private Pieces(Path location, List<Long> bounds) {
+			this.location = location;
+			this.bounds = bounds;
+			this.locals = new InvertedIndex[bounds.size() - 1];
+			this.counts = new int[locals.length];
+			this.unparsed = new AtomicInteger(locals.length);
+			this.failed = new AtomicBoolean();
+		}
+
+		/**
+		 * Parses every piece at once, then adds them to the index.
+		 */
+		private void parse() {
+			String name = location.toString();
+			for (int i = 0; i < locals.length; i++) {
+				int piece = i;
+				queue.execute(() -> {
+					try {
+						InvertedIndex local = new InvertedIndex(index.isCompressed());
+						counts[piece] = tokenize(location, bounds.get(piece), bounds.get(piece + 1), 0,
+								(word, p) -> local.add(StemCache.SHARED.stem(word), name, p));
+						locals[piece] = local;
+					}
+					catch (IOException e) {
+						failed.set(true);
+						log.debug("error parsing ", location);
+					}
+					// the pieces written by every worker are visible to the last one
+					if (unparsed.decrementAndGet() == 0 && !failed.get()) {
+						merge();
+					}
+				});
+			}
+		}
+
+		/**
+		 * Adds every piece to the index at once, each moved on past the number of
+		 * words in the pieces before it.
+		 */
+		private void merge() {
+			int before = 0;
+			for (int i = 0; i < locals.length; i++) {
+				InvertedIndex local = locals[i];
+				int offset = before;
+				queue.execute(() -> {
+					local.shift(offset);
+					index.addAll(local);
+				});
+				before += counts[i];
+			}
+		}
+	}
+
+	/**
+	 * Worker class that traverses a subdirectory
+	 */
+	private class Traverser implements Runnable {
+		/** The directory to traverse */
+		private final Path directory;
+
+		/**
+		 * Initializes a traverser with a directory
+		 * 
+		 * @param directory the directory whose files will be added to the index
+		 */
+		private Traverser(Path directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		public void run() {
+			try {
+				traverse(directory);
+			}
+			catch (IOException e) {
+				log.debug("error traversing ", directory);
+				if (!error.compareAndSet(null, e)) {
+					error.get().addSuppressed(e);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Worker class that adds a location's data to the index
 	 */
@@ -70,7 +323,7 @@ public class MultithreadedInvertedIndexBuilder extends InvertedIndexBuilder {
 		public void run() {
 			try {
 
-				InvertedIndex local = new InvertedIndex();
+				InvertedIndex local = new InvertedIndex(index.isCompressed());
 				parse(location, local);
 				index.addAll(local);
 			}
@@ -5,9 +5,9 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A class for working with query files using multithreading.
@@ -30,6 +30,27 @@ public class MultithreadedQueries implements QueriesInterface {
 	 */
 	private final SortedMap<String, ArrayList<InvertedIndex.SearchResult>> resultMap;
 
+	/**
+	 * {@code true} if quoted phrases and NEAR/n operators should be searched by
+	 * position.
+	 */
+	private final boolean proximity;
+
+	/**
+	 * {@code true} if AND, OR, NOT and parentheses should be searched as a boolean
+	 * query.
+	 */
+	private final boolean operators;
+
+	/**
+	 * The results of recent queries, shared with other processors searching the
+	 * same index, or {@code null} to always search.
+	 */
+	private final ResultCache<ArrayList<InvertedIndex.SearchResult>> cache;
+
+	/** The searches in progress, shared by searchers of the same query. */
+	private final SingleFlight<ArrayList<InvertedIndex.SearchResult>> flights;
+
 	/**
 	 * Initializes a multithreaded query processor.
 	 * 
@@ -37,10 +58,64 @@ public class MultithreadedQueries implements QueriesInterface {
 	 * @param queue the work queue to use
 	 */
 	public MultithreadedQueries(ThreadSafeInvertedIndex index, WorkQueue queue) {
-		// super(index);
+		this(index, queue, false);
+	}
+
+	/**
+	 * Initializes a multithreaded query processor that may search phrases and
+	 * words near each other.
+	 * 
+	 * @param index     the inverted index to search
+	 * @param queue     the work queue to use
+	 * @param proximity {@code true} if quoted phrases and NEAR/n operators should
+	 *                  be searched by position
+	 * @see ProximityQuery
+	 */
+	public MultithreadedQueries(ThreadSafeInvertedIndex index, WorkQueue queue, boolean proximity) {
+		this(index, queue, proximity, false);
+	}
+
+	/**
+	 * Initializes a multithreaded query processor that may search phrases, words
+	 * near each other, and boolean queries.
+	 * 
+	 * @param index     the inverted index to search
+	 * @param queue     the work queue to use
+	 * @param proximity {@code true} if quoted phrases and NEAR/n operators should
+	 *                  be searched by position
+	 * @param operators {@code true} if AND, OR, NOT and parentheses should be
+	 *                  searched as a boolean query
+	 * @see ProximityQuery
+	 * @see BooleanQuery
+	 */
+	public MultithreadedQueries(ThreadSafeInvertedIndex index, WorkQueue queue, boolean proximity, boolean operators) {
+		this(index, queue, proximity, operators, null);
+	}
+
+	/**
+	 * Initializes a multithreaded query processor that may search phrases, words
+	 * near each other, and boolean queries, and looks up the results of each query
+	 * in a cache before searching.
+	 * 
+	 * @param index     the inverted index to search
+	 * @param queue     the work queue to use
+	 * @param proximity {@code true} if quoted phrases and NEAR/n operators should
+	 *                  be searched by position
+	 * @param operators {@code true} if AND, OR, NOT and parentheses should be
+	 *                  searched as a boolean query
+	 * @param cache     the cache of results to use, or {@code null} to always
+	 *                  search
+	 * @see ResultCache
+	 */
+	public MultithreadedQueries(ThreadSafeInvertedIndex index, WorkQueue queue, boolean proximity, boolean operators,
+			ResultCache<ArrayList<InvertedIndex.SearchResult>> cache) {
 		this.index = index;
 		this.queue = queue;
 		this.resultMap = new TreeMap<>();
+		this.proximity = proximity;
+		this.operators = operators;
+		this.cache = cache;
+		this.flights = new SingleFlight<>();
 	}
 
 	/**
@@ -68,13 +143,13 @@ public class MultithreadedQueries implements QueriesInterface {
 	 */
 	public static Set<String> cleanQuery(String uncleaned) {
 		// clean the query
-		String[] cleanedWords = TextParser.parse(uncleaned);
+		String[] cleanedWords = new Tokenizer().parse(uncleaned);
 		// return if there are no valid words in the query
 		if (cleanedWords.length == 0) {
 			return new TreeSet<String>();
 		}
-		// create a stemmer
-		Stemmer stemmer = new SnowballStemmer(InvertedIndexBuilder.DEFAULT);
+		// stem with the stems cached by every thread
+		Stemmer stemmer = StemCache.SHARED;
 		// initialize an empty set of sorted and unique stems from a query
 		TreeSet<String> cleaned = new TreeSet<>();
 		// stem and add each word from the query
@@ -110,14 +185,30 @@ public class MultithreadedQueries implements QueriesInterface {
 
 		@Override
 		public void run() {
+			if (proximity && ProximityQuery.isProximity(line)) {
+				ProximityQuery query = ProximityQuery.parse(line);
+				if (!query.isEmpty()) {
+					record(query.toString(), () -> index.proximitySearch(query, exact));
+				}
+				return;
+			}
+
+			if (operators && BooleanQuery.isBoolean(line)) {
+				BooleanQuery query = BooleanQuery.parse(line);
+				if (!query.isEmpty()) {
+					record(query.toString(), () -> index.booleanSearch(query, exact));
+				}
+				return;
+			}
+
 			// split and clean the words in the query
-			String[] cleanedWords = TextParser.parse(line);
+			String[] cleanedWords = new Tokenizer().parse(line);
 			// return if there are no valid words in the query
 			if (cleanedWords.length == 0) {
 				return;
 			}
-			// create one stemmer per query
-			Stemmer stemmer = new SnowballStemmer(InvertedIndexBuilder.DEFAULT);
+			// stem with the stems cached by every thread
+			Stemmer stemmer = StemCache.SHARED;
 			// initialize an empty set of sorted and unique stems from a query
 			TreeSet<String> query = new TreeSet<>();
 			// stem and add each word from the query
@@ -126,22 +217,57 @@ public class MultithreadedQueries implements QueriesInterface {
 				query.add(word);
 			}
 
-			String joined = String.join(" ", query);
+			// search for results and add them to the resultMap
+			record(String.join(" ", query), () -> index.search(query, exact));
+		}
 
-			// if the query already has results, return
-			synchronized (resultMap) {
-				if (resultMap.containsKey(joined)) {
-					return;
+		/**
+		 * Searches for a query and adds its results to the resultMap, unless they
+		 * are already there. Searchers of the same query share a single search, so
+		 * no query is searched twice.
+		 * 
+		 * @param joined the parsed query as a string
+		 * @param search the search to run if the query has no results yet
+		 */
+		private void record(String joined, Supplier<ArrayList<InvertedIndex.SearchResult>> search) {
+			flights.run(joined, () -> {
+				// a searcher that finished before this one started already added them
+				synchronized (resultMap) {
+					ArrayList<InvertedIndex.SearchResult> results = resultMap.get(joined);
+					if (results != null) {
+						return results;
+					}
 				}
-			}
 
-			// search for results
-			ArrayList<InvertedIndex.SearchResult> results = index.search(query, exact);
+				ArrayList<InvertedIndex.SearchResult> results = search(joined, search);
+				// add the results before the flight ends, so later searchers find them
+				synchronized (resultMap) {
+					resultMap.put(joined, results);
+				}
+				return results;
+			});
+		}
 
-			// add the query and its results to the resultMap
-			synchronized (resultMap) {
-				resultMap.put(joined, results);
+		/**
+		 * Returns the cached results of a query, or searches for them and caches
+		 * them.
+		 * 
+		 * @param joined the parsed query as a string
+		 * @param search the search to run if the results are not cached
+		 * @return the results of the query
+		 */
+		private ArrayList<InvertedIndex.SearchResult> search(String joined, Supplier<ArrayList<InvertedIndex.SearchResult>> search) {
+			if (cache == null) {
+				return search.get();
+			}
+			// read the generation first, so results are never cached for a newer one
+			long generation = index.getGeneration();
+			ArrayList<InvertedIndex.SearchResult> results = cache.get(joined, exact, generation);
+			if (results == null) {
+				results = search.get();
+				cache.put(joined, exact, generation, results);
 			}
+			return results;
 		}
 	}
 
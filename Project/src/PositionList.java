@@ -0,0 +1,124 @@
+import java.util.AbstractSet;
+
+/**
+ * A sorted set of unique word positions for a single key and location in the
+ * inverted index. Positions are added as primitive {@code int} values, while the
+ * {@link java.util.Set} view allows the list to be read like the
+ * {@code TreeSet<Integer>} it replaces.
+ *
+ * @author evancarlson
+ *
+ * @see CompressedPositionList
+ * @see TreeSetPositionList
+ */
+public abstract class PositionList extends AbstractSet<Integer> {
+
+	/**
+	 * Adds a position to the list if it is not already present.
+	 *
+	 * @param position the position to add
+	 */
+	public abstract void insert(int position);
+
+	/**
+	 * Checks if a position exists in the list.
+	 *
+	 * @param position the position to check
+	 * @return {@code true} if the position exists in the list
+	 */
+	public abstract boolean contains(int position);
+
+	/**
+	 * Returns the positions in ascending order as a new array.
+	 *
+	 * @return an array of the positions in this list
+	 */
+	public abstract int[] toIntArray();
+
+	/**
+	 * Signals that no more positions are expected for this list, allowing it to
+	 * switch to a more compact representation. Adding to a sealed list is still
+	 * allowed, but may be slower.
+	 */
+	public abstract void seal();
+
+	/**
+	 * Checks whether the list has been sealed. A sealed list may be shared between
+	 * indexes, so it should be copied rather than added to.
+	 *
+	 * @return {@code true} if the list has been sealed
+	 */
+	public abstract boolean isSealed();
+
+	/**
+	 * Moves every position in the list later by the same number of words. The
+	 * list must not be shared with another index.
+	 *
+	 * @param offset the number of words to add to each position
+	 */
+	public abstract void shift(int offset);
+
+	/**
+	 * Adds all positions from another list.
+	 *
+	 * @param other the list to add positions from
+	 */
+	public void insertAll(PositionList other) {
+		for (int position : other.toIntArray()) {
+			insert(position);
+		}
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return object instanceof Integer && contains(((Integer) object).intValue());
+	}
+
+	/**
+	 * Creates an empty position list.
+	 *
+	 * @param compressed {@code true} for a {@link CompressedPositionList},
+	 *                   {@code false} for a {@link TreeSetPositionList}
+	 * @return an empty position list
+	 */
+	public static PositionList create(boolean compressed) {
+		return compressed ? new CompressedPositionList() : new TreeSetPositionList();
+	}
+
+	/**
+	 * Returns the first index at or after a starting index whose value is at least
+	 * a target. Gallops forward from the starting index, doubling the step, before
+	 * searching the last step, so skipping a few values costs only a few
+	 * comparisons and skipping many costs about the log of the distance.
+	 *
+	 * @param values the values in ascending order
+	 * @param from   the index to start from
+	 * @param size   the number of values
+	 * @param target the value to look for
+	 * @return the index of the first value not less than the target, or
+	 *         {@code size} if there is none
+	 */
+	public static int gallop(int[] values, int from, int size, int target) {
+		if (from >= size || values[from] >= target) {
+			return from;
+		}
+		int low = from;
+		int step = 1;
+		while (low + step < size && values[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+		// the target is after low and at or before low + step
+		int high = Math.min(size - 1, low + step);
+		while (low + 1 < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < target) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return values[high] >= target ? high : size;
+	}
+}
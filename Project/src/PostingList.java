@@ -0,0 +1,323 @@
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The postings of a single key in the inverted index; that is, the IDs of the
+ * documents the key appears in, sorted in ascending order, each with the list
+ * of positions where the key appears.
+ *
+ * @author evancarlson
+ *
+ * @see DocumentTable
+ */
+public class PostingList {
+
+	/** The initial capacity of the arrays. */
+	private static final int INITIAL_CAPACITY = 2;
+
+	/** The document IDs in ascending order. */
+	private int[] documents;
+
+	/** The positions of the key in each document. */
+	private PositionList[] positions;
+
+	/** The number of documents in the list. */
+	private int size;
+
+	/**
+	 * The highest impact of the key in any of the documents, or a negative value
+	 * if it has not been calculated since the list last changed.
+	 */
+	private volatile double maxImpact;
+
+	/**
+	 * The indexes of the documents sorted by impact, or {@code null} if not
+	 * calculated since the list last changed.
+	 */
+	private volatile ImpactOrder byImpact;
+
+	/**
+	 * Initializes an empty posting list.
+	 */
+	public PostingList() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Initializes an empty posting list with room for a number of documents.
+	 *
+	 * @param capacity the number of documents to make room for
+	 */
+	public PostingList(int capacity) {
+		documents = new int[Math.max(1, capacity)];
+		positions = new PositionList[Math.max(1, capacity)];
+		size = 0;
+		maxImpact = -1;
+		byImpact = null;
+	}
+
+	/**
+	 * Initializes a copy of another posting list. Sealed position lists are shared,
+	 * while open ones are copied and sealed, so the copy does not change when the
+	 * other list is added to.
+	 *
+	 * @param other the posting list to copy
+	 */
+	public PostingList(PostingList other) {
+		this(other.size);
+		System.arraycopy(other.documents, 0, documents, 0, other.size);
+		for (int i = 0; i < other.size; i++) {
+			PositionList list = other.positions[i];
+			if (!list.isSealed()) {
+				PositionList copy = PositionList.create(list instanceof CompressedPositionList);
+				copy.insertAll(list);
+				copy.seal();
+				list = copy;
+			}
+			positions[i] = list;
+		}
+		size = other.size;
+		maxImpact = other.maxImpact;
+		byImpact = other.byImpact;
+	}
+
+	/**
+	 * Returns the number of documents in the list.
+	 *
+	 * @return the number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document ID at an index of the list.
+	 *
+	 * @param index an index between 0 and {@link #size()}
+	 * @return the document ID at that index
+	 */
+	public int document(int index) {
+		return documents[index];
+	}
+
+	/**
+	 * Returns the positions at an index of the list.
+	 *
+	 * @param index an index between 0 and {@link #size()}
+	 * @return the position list at that index
+	 */
+	public PositionList positions(int index) {
+		return positions[index];
+	}
+
+	/**
+	 * Returns the positions for a document ID.
+	 *
+	 * @param document the document ID to look up
+	 * @return the position list for the document, or {@code null} if the key does
+	 *         not appear in the document
+	 */
+	public PositionList get(int document) {
+		int index = indexOf(document);
+		return index < 0 ? null : positions[index];
+	}
+
+	/**
+	 * Returns the index of a document ID in the list.
+	 *
+	 * @param document the document ID to look up
+	 * @return the index of the document, or a negative value as described by
+	 *         {@link Arrays#binarySearch(int[], int, int, int)}
+	 */
+	public int indexOf(int document) {
+		// new documents are appended, so check the end first
+		if (size > 0 && documents[size - 1] == document) {
+			return size - 1;
+		}
+		if (size == 0 || documents[size - 1] < document) {
+			return -(size + 1);
+		}
+		return Arrays.binarySearch(documents, 0, size, document);
+	}
+
+	/**
+	 * Appends all documents of another posting list, translating their IDs. Every
+	 * translated ID must be greater than the last ID in this list, and the
+	 * translated IDs must stay in ascending order, such as when the documents of
+	 * the other list are new to this one.
+	 *
+	 * @param other the posting list to append
+	 * @param ids   the ID in this list of each document ID in the other list
+	 */
+	public void appendAll(PostingList other, int[] ids) {
+		assert size == 0 || other.size == 0 || ids[other.documents[0]] > documents[size - 1];
+		if (size + other.size > documents.length) {
+			int capacity = Math.max(size * 2, size + other.size);
+			documents = Arrays.copyOf(documents, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+		}
+		// usually only a few documents are appended, so copy them one at a time
+		for (int i = 0; i < other.size; i++) {
+			documents[size + i] = ids[other.documents[i]];
+			positions[size + i] = other.positions[i];
+		}
+		size += other.size;
+		maxImpact = -1;
+		byImpact = null;
+	}
+
+	/**
+	 * Adds the positions for a document that is not yet in the list.
+	 *
+	 * @param document the document ID to add
+	 * @param list     the positions of the key in the document
+	 */
+	public void put(int document, PositionList list) {
+		int index = indexOf(document);
+		if (index >= 0) {
+			positions[index] = list;
+			maxImpact = -1;
+			byImpact = null;
+			return;
+		}
+
+		index = -(index + 1);
+		if (size == documents.length) {
+			documents = Arrays.copyOf(documents, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		if (index < size) {
+			System.arraycopy(documents, index, documents, index + 1, size - index);
+			System.arraycopy(positions, index, positions, index + 1, size - index);
+		}
+		documents[index] = document;
+		positions[index] = list;
+		size++;
+		maxImpact = -1;
+		byImpact = null;
+	}
+
+	/**
+	 * Returns the first index at or after a starting index whose document ID is
+	 * at least a target ID, galloping forward from the starting index.
+	 *
+	 * @param from     the index to start from
+	 * @param document the target document ID
+	 * @return the index of the first document ID not less than the target, or
+	 *         {@link #size()} if there is none
+	 */
+	public int seek(int from, int document) {
+		return PositionList.gallop(documents, from, size, document);
+	}
+
+	/**
+	 * Returns the highest impact of the key in any of its documents; that is, the
+	 * highest number of times it appears in a document divided by the word count
+	 * of the document. The result is cached until the list changes. Word counts
+	 * only ever grow, so a cached result stays an upper bound as documents grow.
+	 *
+	 * @param totals the word count of each document ID
+	 * @return the highest impact of the key
+	 * @see #invalidate()
+	 */
+	public double maxImpact(IntUnaryOperator totals) {
+		double impact = maxImpact;
+		if (impact < 0) {
+			impact = 0;
+			for (int i = 0; i < size; i++) {
+				impact = Math.max(impact, Double.valueOf(positions[i].size()) / Double.valueOf(totals.applyAsInt(documents[i])));
+			}
+			maxImpact = impact;
+		}
+		return impact;
+	}
+
+	/**
+	 * Returns the indexes of the documents in this list sorted the same way their
+	 * search results would be for a query of just this key: by impact, then by the
+	 * number of times the key appears, then by location. The order is cached until
+	 * the list or any word count of the table changes.
+	 *
+	 * @param table the document table of the index this list belongs to
+	 * @return the indexes into this list in order of impact, which must not be
+	 *         modified
+	 * @see #maxImpact(IntUnaryOperator)
+	 */
+	public int[] impactOrder(DocumentTable table) {
+		long version = table.getVersion();
+		ImpactOrder cached = byImpact;
+		if (cached != null && cached.version == version) {
+			return cached.order;
+		}
+
+		Integer[] sorted = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, (a, b) -> {
+			int result = Double.compare(impact(b, table), impact(a, table));
+			if (result == 0) {
+				result = Integer.compare(positions[b].size(), positions[a].size());
+			}
+			if (result == 0) {
+				result = table.getName(documents[a]).compareToIgnoreCase(table.getName(documents[b]));
+			}
+			return result;
+		});
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = sorted[i];
+		}
+		byImpact = new ImpactOrder(order, version);
+		return order;
+	}
+
+	/**
+	 * Returns the impact of the key in the document at an index of the list,
+	 * calculated exactly as a search result calculates its score.
+	 *
+	 * @param index an index between 0 and {@link #size()}
+	 * @param table the document table of the index this list belongs to
+	 * @return the number of times the key appears divided by the word count
+	 */
+	public double impact(int index, DocumentTable table) {
+		return Double.valueOf(positions[index].size()) / Double.valueOf(table.getCount(documents[index]));
+	}
+
+	/**
+	 * Discards the cached highest impact and impact order. Must be called when a
+	 * position is inserted into one of the position lists already in this list.
+	 *
+	 * @see #maxImpact(IntUnaryOperator)
+	 * @see #impactOrder(DocumentTable)
+	 */
+	public void invalidate() {
+		maxImpact = -1;
+		byImpact = null;
+	}
+
+	/**
+	 * The indexes of the documents of a list sorted by impact, along with the
+	 * version of the word counts they were sorted with.
+	 */
+	private static class ImpactOrder {
+
+		/** The indexes into the list in order of impact. */
+		private final int[] order;
+
+		/** The version of the document table the order was calculated with. */
+		private final long version;
+
+		/**
+		 * Initializes an impact order.
+		 *
+		 * @param order   the indexes into the list in order of impact
+		 * @param version the version of the document table
+		 */
+		private ImpactOrder(int[] order, long version) {
+			this.order = order;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The merged query counts of every short prefix of the keys of an index; that
+ * is, for each prefix of up to {@link #MAX_LENGTH} characters, the number of
+ * times the keys starting with it appear in each location. A partial search for
+ * a short word, which would otherwise add up the postings of thousands of keys,
+ * only has to add up one array.
+ *
+ * The counts are kept up to date as positions are added, and take up at most a
+ * fixed number of bytes. Whenever they grow past it, every prefix of the
+ * longest length still counted is dropped, since longer prefixes are the most
+ * numerous and match the fewest keys.
+ *
+ * @author evancarlson
+ *
+ * @see InvertedIndex#trackPrefixes(long)
+ */
+public class PrefixCounts {
+
+	/** The length of the longest prefixes counted. */
+	public static final int MAX_LENGTH = 3;
+
+	/** The default limit on the bytes the counts may take up. */
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	/**
+	 * The estimated number of bytes each prefix takes up besides its counts: a
+	 * hash map entry, a short string and the header of its array.
+	 */
+	private static final int PREFIX_BYTES = 32 + 56 + 16;
+
+	/** The count of each location ID, for each counted prefix. */
+	private final HashMap<String, int[]> counts;
+
+	/** The most bytes the counts may take up. */
+	private final long maxBytes;
+
+	/** The length of the longest prefixes currently counted, or 0 if none. */
+	private int length;
+
+	/** The estimated number of bytes the counts take up. */
+	private long bytes;
+
+	/**
+	 * Initializes empty counts.
+	 *
+	 * @param maxBytes the most bytes the counts may take up
+	 */
+	public PrefixCounts(long maxBytes) {
+		this.counts = new HashMap<>();
+		this.maxBytes = maxBytes;
+		this.length = MAX_LENGTH;
+		this.bytes = 0;
+	}
+
+	/**
+	 * Initializes a copy of other counts, which can then change independently.
+	 *
+	 * @param other the counts to copy
+	 */
+	public PrefixCounts(PrefixCounts other) {
+		this.counts = new HashMap<>(other.counts.size() * 2);
+		for (var entry : other.counts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().clone());
+		}
+		this.maxBytes = other.maxBytes;
+		this.length = other.length;
+		this.bytes = other.bytes;
+	}
+
+	/**
+	 * Adds appearances of a key in a location to the counts of each of its
+	 * prefixes.
+	 *
+	 * @param key   the key that appears in the location
+	 * @param id    the location ID
+	 * @param count the number of positions added
+	 */
+	public void add(String key, int id, int count) {
+		for (int end = 1; end <= Math.min(length, key.length()); end++) {
+			String prefix = key.substring(0, end);
+			int[] array = counts.get(prefix);
+			if (array == null) {
+				array = new int[id + 1];
+				counts.put(prefix, array);
+				bytes += PREFIX_BYTES + 4L * array.length;
+			}
+			else if (id >= array.length) {
+				// grow by half at a time, since location IDs are handed out in order
+				int[] grown = Arrays.copyOf(array, Math.max(id + 1, array.length + (array.length >> 1)));
+				bytes += 4L * (grown.length - array.length);
+				array = grown;
+				counts.put(prefix, array);
+			}
+			array[id] += count;
+		}
+
+		while (bytes > maxBytes && length > 0) {
+			shorten();
+		}
+	}
+
+	/**
+	 * Stops counting the longest prefixes still counted, freeing their counts.
+	 */
+	private void shorten() {
+		Iterator<Map.Entry<String, int[]>> iterator = counts.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, int[]> entry = iterator.next();
+			if (entry.getKey().length() == length) {
+				bytes -= PREFIX_BYTES + 4L * entry.getValue().length;
+				iterator.remove();
+			}
+		}
+		length--;
+	}
+
+	/**
+	 * Adds the counts of a prefix to the query count of each location ID, if the
+	 * prefix is short enough to be counted.
+	 *
+	 * @param prefix      the prefix to look up
+	 * @param accumulator the query count of each location ID
+	 * @return {@code true} if the counts were added, or no key starts with the
+	 *         prefix; {@code false} if the prefix is not counted and the keys
+	 *         starting with it must be searched instead
+	 */
+	public boolean addTo(String prefix, int[] accumulator) {
+		if (prefix.isEmpty() || prefix.length() > length) {
+			return false;
+		}
+		int[] array = counts.get(prefix);
+		if (array != null) {
+			// locations added after the accumulator was sized are left out
+			for (int id = 0; id < Math.min(array.length, accumulator.length); id++) {
+				accumulator[id] += array[id];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the length of the longest prefixes currently counted, which is less
+	 * than {@link #MAX_LENGTH} once the counts have outgrown their limit.
+	 *
+	 * @return the length of the longest counted prefixes, or 0 if none are
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the most bytes the counts may take up.
+	 *
+	 * @return the limit in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the number of prefixes counted.
+	 *
+	 * @return the number of prefixes
+	 */
+	public int size() {
+		return counts.size();
+	}
+
+	/**
+	 * Estimates the number of bytes the counts take up, which is at most the
+	 * limit they were created with.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	public long sizeInBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,365 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A search query that can require words to appear next to or near each other,
+ * using the positions stored in the inverted index. A query is made of clauses,
+ * each of which is one of:
+ *
+ * <ul>
+ * <li>a single word, such as {@code fox}, which matches every time the word
+ * appears, the same as a regular search</li>
+ * <li>a quoted phrase, such as {@code "quick brown fox"}, which matches every
+ * time the words appear in order at consecutive positions</li>
+ * <li>two words joined by {@code NEAR/n}, such as {@code quick NEAR/3 fox},
+ * which matches every pair of positions of the two words at most {@code n}
+ * positions apart, in either order</li>
+ * </ul>
+ *
+ * The query count of a location is the number of matches of all the clauses
+ * added together. Positions are compared by skipping ahead with exponential
+ * (galloping) search, so long documents do not have to be scanned position by
+ * position.
+ *
+ * @author evancarlson
+ *
+ * @see InvertedIndex#proximitySearch(ProximityQuery, boolean)
+ */
+public class ProximityQuery {
+
+	/** Matches a quoted phrase, a NEAR/n operator, or any other run of text. */
+	private static final Pattern TOKEN_REGEX = Pattern.compile("\"([^\"]*)\"?|\\bNEAR/(\\d+)\\b|[^\\s\"]+");
+
+	/** Matches a query that uses a quoted phrase or a NEAR/n operator. */
+	private static final Pattern PROXIMITY_REGEX = Pattern.compile("\"|\\bNEAR/\\d+\\b");
+
+	/** The clauses of the query. */
+	private final List<Clause> clauses;
+
+	/**
+	 * Initializes a query from its clauses.
+	 *
+	 * @param clauses the clauses of the query
+	 */
+	public ProximityQuery(List<Clause> clauses) {
+		this.clauses = Collections.unmodifiableList(new ArrayList<>(clauses));
+	}
+
+	/**
+	 * Checks whether a query uses a quoted phrase or a NEAR/n operator, and should
+	 * be parsed with {@link #parse(String)} rather than as a set of words.
+	 *
+	 * @param line a user-input query string
+	 * @return {@code true} if the query uses phrases or proximity
+	 */
+	public static boolean isProximity(String line) {
+		return PROXIMITY_REGEX.matcher(line).find();
+	}
+
+	/**
+	 * Parses a query string into clauses, cleaning and stemming every word the
+	 * same way documents are. A NEAR/n operator without a word on both sides is
+	 * ignored, and a phrase that cleans to a single word is a regular word.
+	 *
+	 * @param line a user-input query string
+	 * @return the parsed query
+	 */
+	public static ProximityQuery parse(String line) {
+		Stemmer stemmer = StemCache.SHARED;
+		Tokenizer tokenizer = new Tokenizer();
+		ArrayList<Clause> clauses = new ArrayList<>();
+		// the distance of a NEAR/n operator waiting for its second word, or -1
+		int near = -1;
+
+		Matcher matcher = TOKEN_REGEX.matcher(line);
+		while (matcher.find()) {
+			if (matcher.group(2) != null) {
+				// only join a single word to the next one
+				boolean single = !clauses.isEmpty() && clauses.get(clauses.size() - 1).size() == 1;
+				// a distance too large for an int is as good as any distance
+				String digits = matcher.group(2);
+				near = !single ? -1 : TextParser.isInt(digits) ? Integer.parseInt(digits) : Integer.MAX_VALUE;
+				continue;
+			}
+
+			String[] words = stem(tokenizer.parse(matcher.group(1) != null ? matcher.group(1) : matcher.group()), stemmer);
+			if (words.length == 0) {
+				continue;
+			}
+
+			if (matcher.group(1) != null && words.length > 1) {
+				clauses.add(new Clause(words, 1, true));
+				near = -1;
+				continue;
+			}
+
+			int first = 0;
+			if (near >= 0) {
+				String previous = clauses.remove(clauses.size() - 1).word(0);
+				clauses.add(new Clause(new String[] { previous, words[0] }, near, false));
+				first = 1;
+				near = -1;
+			}
+			for (int i = first; i < words.length; i++) {
+				clauses.add(new Clause(new String[] { words[i] }, 0, false));
+			}
+		}
+		return new ProximityQuery(clauses);
+	}
+
+	/**
+	 * Stems each of a list of cleaned words.
+	 *
+	 * @param words   the cleaned words
+	 * @param stemmer the stemmer to use
+	 * @return the stemmed words
+	 */
+	private static String[] stem(String[] words, Stemmer stemmer) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] = stemmer.stem(words[i]).toString();
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the clauses of the query.
+	 *
+	 * @return an immutable list of the clauses
+	 */
+	public List<Clause> getClauses() {
+		return clauses;
+	}
+
+	/**
+	 * Checks whether the query has no clauses.
+	 *
+	 * @return {@code true} if there is nothing to search for
+	 */
+	public boolean isEmpty() {
+		return clauses.isEmpty();
+	}
+
+	/**
+	 * Returns the cleaned and stemmed query, with phrases in quotes, which can be
+	 * parsed back into the same query.
+	 */
+	@Override
+	public String toString() {
+		ArrayList<String> parts = new ArrayList<>();
+		for (Clause clause : clauses) {
+			parts.add(clause.toString());
+		}
+		return String.join(" ", parts);
+	}
+
+	/**
+	 * One clause of a query: a single word, a phrase, or two words near each
+	 * other.
+	 */
+	public static class Clause {
+
+		/** The cleaned and stemmed words of the clause. */
+		private final String[] words;
+
+		/**
+		 * The most positions apart the words may be, or the exact distance between
+		 * consecutive words of a phrase.
+		 */
+		private final int distance;
+
+		/** {@code true} for a phrase, {@code false} for a word or NEAR/n. */
+		private final boolean phrase;
+
+		/**
+		 * Initializes a clause.
+		 *
+		 * @param words    the cleaned and stemmed words of the clause
+		 * @param distance the distance between consecutive words of a phrase, or the
+		 *                 most positions apart two words may be
+		 * @param phrase   {@code true} if the words must appear in order exactly
+		 *                 {@code distance} positions apart
+		 */
+		public Clause(String[] words, int distance, boolean phrase) {
+			this.words = words.clone();
+			this.distance = distance;
+			this.phrase = phrase;
+		}
+
+		/**
+		 * Returns the number of words in the clause.
+		 *
+		 * @return the number of words
+		 */
+		public int size() {
+			return words.length;
+		}
+
+		/**
+		 * Returns a word of the clause.
+		 *
+		 * @param index the index of the word
+		 * @return the cleaned and stemmed word
+		 */
+		public String word(int index) {
+			return words[index];
+		}
+
+		/**
+		 * Returns the distance between consecutive words of a phrase, or the most
+		 * positions apart the words of a NEAR/n clause may be.
+		 *
+		 * @return the distance
+		 */
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Checks whether the words must appear in order.
+		 *
+		 * @return {@code true} for a phrase
+		 */
+		public boolean isPhrase() {
+			return phrase;
+		}
+
+		/**
+		 * Adds the number of matches of the clause in each location to an
+		 * accumulator, for a clause of more than one word. Only locations that have
+		 * every word are compared, found by skipping ahead through the postings.
+		 *
+		 * @param postings the postings of each word of the clause
+		 * @param counts   the query count of each location ID
+		 */
+		public void accumulate(PostingList[] postings, int[] counts) {
+			int[] cursors = new int[postings.length];
+			int[][] positions = new int[postings.length][];
+
+			while (true) {
+				// find the highest next location, then skip every list ahead to it
+				int document = -1;
+				for (int i = 0; i < postings.length; i++) {
+					if (cursors[i] >= postings[i].size()) {
+						return;
+					}
+					document = Math.max(document, postings[i].document(cursors[i]));
+				}
+
+				boolean all = true;
+				for (int i = 0; i < postings.length; i++) {
+					cursors[i] = postings[i].seek(cursors[i], document);
+					if (cursors[i] >= postings[i].size()) {
+						return;
+					}
+					all &= postings[i].document(cursors[i]) == document;
+				}
+
+				if (all) {
+					for (int i = 0; i < postings.length; i++) {
+						positions[i] = postings[i].positions(cursors[i]).toIntArray();
+						cursors[i]++;
+					}
+					// locations added after the counts were sized are left out
+					if (document < counts.length) {
+						counts[document] += count(positions);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Counts the matches of the clause among the positions of its words in one
+		 * location.
+		 *
+		 * @param positions the positions of each word in ascending order
+		 * @return the number of times the phrase appears, or the number of pairs of
+		 *         positions near each other
+		 */
+		public int count(int[][] positions) {
+			return phrase ? countPhrase(positions) : countNear(positions[0], positions[1]);
+		}
+
+		/**
+		 * Counts the times the words appear in order at consecutive positions. Walks
+		 * the positions of the rarest word, and gallops through the others to where
+		 * they would have to be.
+		 *
+		 * @param positions the positions of each word in ascending order
+		 * @return the number of times the phrase appears
+		 */
+		private int countPhrase(int[][] positions) {
+			int rarest = 0;
+			for (int i = 1; i < positions.length; i++) {
+				if (positions[i].length < positions[rarest].length) {
+					rarest = i;
+				}
+			}
+
+			int count = 0;
+			int[] cursors = new int[positions.length];
+			for (int position : positions[rarest]) {
+				// the position of the first word, if this is part of the phrase
+				int start = position - rarest * distance;
+				boolean match = true;
+				for (int i = 0; i < positions.length && match; i++) {
+					if (i != rarest) {
+						int target = start + i * distance;
+						cursors[i] = PositionList.gallop(positions[i], cursors[i], positions[i].length, target);
+						match = cursors[i] < positions[i].length && positions[i][cursors[i]] == target;
+					}
+				}
+				if (match) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Counts the pairs of positions of two words that are at most the distance
+		 * apart. Walks the positions of the rarer word, and gallops through the
+		 * other to the window around each one.
+		 *
+		 * @param first  the positions of the first word in ascending order
+		 * @param second the positions of the second word in ascending order
+		 * @return the number of pairs of positions near each other
+		 */
+		private int countNear(int[] first, int[] second) {
+			int[] rarer = first.length <= second.length ? first : second;
+			int[] other = rarer == first ? second : first;
+
+			int count = 0;
+			int low = 0;
+			int high = 0;
+			for (int position : rarer) {
+				// clamp the window, which overflows for large distances
+				int from = (int) Math.max(Integer.MIN_VALUE, (long) position - distance);
+				int to = (int) Math.min(Integer.MAX_VALUE, (long) position + distance + 1);
+				low = PositionList.gallop(other, low, other.length, from);
+				high = PositionList.gallop(other, Math.max(low, high), other.length, to);
+				count += high - low;
+			}
+			// a word is always near itself, which does not count
+			if (words[0].equals(words[1])) {
+				count -= rarer.length;
+			}
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			if (phrase) {
+				return "\"" + String.join(" ", words) + "\"";
+			}
+			if (words.length == 2) {
+				return words[0] + " NEAR/" + distance + " " + words[1];
+			}
+			return words[0];
+		}
+	}
+}
@@ -6,7 +6,6 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A class used for working with query files.
@@ -24,14 +23,57 @@ public class Queries implements QueriesInterface {
 	 */
 	private final SortedMap<String, ArrayList<InvertedIndex.SearchResult>> resultMap;
 
+	/**
+	 * {@code true} if quoted phrases and NEAR/n operators should be searched by
+	 * position.
+	 */
+	private final boolean proximity;
+
+	/**
+	 * {@code true} if AND, OR, NOT and parentheses should be searched as a boolean
+	 * query.
+	 */
+	private final boolean operators;
+
 	/**
 	 * Initializes a query processor
 	 * 
 	 * @param index the inverted index the search
 	 */
 	public Queries(InvertedIndex index) {
+		this(index, false);
+	}
+
+	/**
+	 * Initializes a query processor that may search phrases and words near each
+	 * other.
+	 * 
+	 * @param index     the inverted index the search
+	 * @param proximity {@code true} if quoted phrases and NEAR/n operators should
+	 *                  be searched by position
+	 * @see ProximityQuery
+	 */
+	public Queries(InvertedIndex index, boolean proximity) {
+		this(index, proximity, false);
+	}
+
+	/**
+	 * Initializes a query processor that may search phrases, words near each
+	 * other, and boolean queries.
+	 * 
+	 * @param index     the inverted index the search
+	 * @param proximity {@code true} if quoted phrases and NEAR/n operators should
+	 *                  be searched by position
+	 * @param operators {@code true} if AND, OR, NOT and parentheses should be
+	 *                  searched as a boolean query
+	 * @see ProximityQuery
+	 * @see BooleanQuery
+	 */
+	public Queries(InvertedIndex index, boolean proximity, boolean operators) {
 		this.index = index;
 		this.resultMap = new TreeMap<>();
+		this.proximity = proximity;
+		this.operators = operators;
 	}
 
 	/**
@@ -42,14 +84,32 @@ public class Queries implements QueriesInterface {
 	 * @param exact defines whether to perform an exact or partial search
 	 */
 	public void processQuery(String line, boolean exact) {
+		if (proximity && ProximityQuery.isProximity(line)) {
+			ProximityQuery query = ProximityQuery.parse(line);
+			String joined = query.toString();
+			if (!query.isEmpty() && !resultMap.containsKey(joined)) {
+				resultMap.put(joined, index.proximitySearch(query, exact));
+			}
+			return;
+		}
+
+		if (operators && BooleanQuery.isBoolean(line)) {
+			BooleanQuery query = BooleanQuery.parse(line);
+			String joined = query.toString();
+			if (!query.isEmpty() && !resultMap.containsKey(joined)) {
+				resultMap.put(joined, index.booleanSearch(query, exact));
+			}
+			return;
+		}
+
 		// split and clean the words in the query
-		String[] cleanedWords = TextParser.parse(line);
+		String[] cleanedWords = new Tokenizer().parse(line);
 		// return if there are no valid words in the query
 		if (cleanedWords.length == 0) {
 			return;
 		}
-		// create one stemmer per query
-		Stemmer stemmer = new SnowballStemmer(InvertedIndexBuilder.DEFAULT);
+		// stem with the stems cached by every thread
+		Stemmer stemmer = StemCache.SHARED;
 		// initialize an empty set of sorted and unique stems from a query
 		TreeSet<String> query = new TreeSet<>();
 		// stem and add each word from the query
@@ -31,10 +31,16 @@ public interface QueriesInterface {
 
 	/**
 	 * Processes a single search query into unique and stemmed words, then searches
-	 * the inverted index and saves the results in resultMap.
+	 * the inverted index and saves the results in resultMap. Processors created
+	 * with proximity enabled instead search queries with quoted phrases or NEAR/n
+	 * operators by position, and processors created with operators enabled search
+	 * queries with AND, OR, NOT or parentheses as boolean queries, saving the
+	 * results under the parsed query.
 	 * 
 	 * @param line  the search query to parse and search
 	 * @param exact defines whether to perform an exact or partial search
+	 * @see ProximityQuery
+	 * @see BooleanQuery
 	 */
 	public void processQuery(String line, boolean exact);
 
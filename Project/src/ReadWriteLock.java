@@ -1,13 +1,19 @@
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
+ * A simple read/write lock built on a single monitor. Readers are let in as long
+ * as no writer is active, so a steady stream of readers can keep a writer
+ * waiting.
+ * 
  * @author evancarlson
  *
+ * @see StampedReadWriteLock
  */
-public class ReadWriteLock {
+public class ReadWriteLock implements ReadWriteLockInterface {
 	/** A logger specifically for this class. */
 	private static final Logger log = LogManager.getLogger(ReadWriteLock.class);
 
@@ -37,20 +43,12 @@ public class ReadWriteLock {
 		writers = 0;
 	}
 
-	/**
-	 * Returns the reader lock.
-	 *
-	 * @return the reader lock
-	 */
+	@Override
 	public SimpleLockInterface readLock() {
 		return readerLock;
 	}
 
-	/**
-	 * Returns the writer lock.
-	 *
-	 * @return the writer lock
-	 */
+	@Override
 	public SimpleLockInterface writeLock() {
 		return writerLock;
 	}
@@ -70,6 +68,23 @@ public class ReadWriteLock {
 		return other != null && other.getId() == Thread.currentThread().getId();
 	}
 
+	/**
+	 * Waits on the lock until notified or until a deadline passes. Must be called
+	 * while synchronized on the lock.
+	 * 
+	 * @param deadline the deadline as a {@link System#nanoTime()} value
+	 * @return {@code false} if the deadline has passed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private boolean await(long deadline) throws InterruptedException {
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0) {
+			return false;
+		}
+		TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+		return true;
+	}
+
 	/**
 	 * Used to maintain simultaneous read operations.
 	 */
@@ -95,6 +110,25 @@ public class ReadWriteLock {
 			}
 		}
 
+		/**
+		 * Will wait until there are no active writers in the system or the waiting
+		 * time elapses, and then will increase the number of active readers if there
+		 * are no active writers.
+		 */
+		@Override
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (lock) {
+				while (writers > 0) {
+					if (!await(deadline)) {
+						return false;
+					}
+				}
+				readers++;
+				return true;
+			}
+		}
+
 		/**
 		 * Will decrease the number of active readers, and notify any waiting threads if
 		 * necessary.
@@ -141,6 +175,26 @@ public class ReadWriteLock {
 			}
 		}
 
+		/**
+		 * Will wait until there are no active readers or writers in the system or the
+		 * waiting time elapses, and then will acquire the write lock if it is safe to
+		 * write.
+		 */
+		@Override
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (lock) {
+				while (readers > 0 || writers > 0) {
+					if (!await(deadline)) {
+						return false;
+					}
+				}
+				writers++;
+				holding = Thread.currentThread();
+				return true;
+			}
+		}
+
 		/**
 		 * Will decrease the number of active writers, and notify any waiting threads if
 		 * necessary. If unlock is called by a thread that does not hold the lock, then
@@ -0,0 +1,46 @@
+import java.util.function.IntSupplier;
+
+/**
+ * A lock with a shared read lock and an exclusive write lock, so that
+ * {@link ThreadSafeInvertedIndex} can choose between lock implementations.
+ * 
+ * @author evancarlson
+ *
+ * @see ReadWriteLock
+ * @see StampedReadWriteLock
+ */
+public interface ReadWriteLockInterface {
+
+	/**
+	 * Returns the reader lock.
+	 *
+	 * @return the reader lock
+	 */
+	public SimpleLockInterface readLock();
+
+	/**
+	 * Returns the writer lock.
+	 *
+	 * @return the writer lock
+	 */
+	public SimpleLockInterface writeLock();
+
+	/**
+	 * Reads a value while no writer is active. Implementations may run the reader
+	 * without locking and retry if a writer interfered, so the reader must be
+	 * short and must not fail if the data changes underneath it, such as reading
+	 * the size of a collection.
+	 * 
+	 * @param reader reads the value
+	 * @return the value read
+	 */
+	public default int optimisticRead(IntSupplier reader) {
+		readLock().lock();
+		try {
+			return reader.getAsInt();
+		}
+		finally {
+			readLock().unlock();
+		}
+	}
+}
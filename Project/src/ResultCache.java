@@ -0,0 +1,213 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of search results, keyed by the cleaned and stemmed query
+ * and whether the search was exact. Once it holds as many queries as it can,
+ * the least recently used one is evicted.
+ *
+ * Every entry belongs to one generation of the index, and the whole cache is
+ * cleared as soon as a search sees that the index has changed, such as after a
+ * crawl adds more pages. Results found while the index was changing are not
+ * kept, since they may already be out of date.
+ *
+ * @param <V> the type of results kept
+ *
+ * @author evancarlson
+ *
+ * @see ThreadSafeInvertedIndex#getGeneration()
+ */
+public class ResultCache<V> {
+
+	/** The default number of queries to keep. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** The most queries to keep. */
+	private final int capacity;
+
+	/** The results of each query, from least to most recently used. */
+	private final LinkedHashMap<String, V> entries;
+
+	/** The generation of the index the entries belong to. */
+	private long generation;
+
+	/** The number of lookups that found results. */
+	private final AtomicLong hits;
+
+	/** The number of lookups that found nothing. */
+	private final AtomicLong misses;
+
+	/** The number of entries evicted to make room for others. */
+	private final AtomicLong evictions;
+
+	/** The number of times the cache was cleared because the index changed. */
+	private final AtomicLong invalidations;
+
+	/**
+	 * Initializes an empty cache with the default capacity.
+	 */
+	public ResultCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity the most queries to keep
+	 */
+	public ResultCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				if (size() > ResultCache.this.capacity) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.generation = 0;
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.invalidations = new AtomicLong();
+	}
+
+	/**
+	 * Returns the cached results of a query.
+	 *
+	 * @param query      the cleaned and stemmed query, joined into a string
+	 * @param exact      {@code true} for an exact search
+	 * @param generation the generation of the index being searched, read before
+	 *                   the lookup
+	 * @return the results, or {@code null} if they are not cached for this
+	 *         generation
+	 */
+	public V get(String query, boolean exact, long generation) {
+		V results;
+		synchronized (entries) {
+			results = advance(generation) ? entries.get(key(query, exact)) : null;
+		}
+		(results != null ? hits : misses).incrementAndGet();
+		return results;
+	}
+
+	/**
+	 * Caches the results of a query, unless the index has changed since the
+	 * generation they were found in.
+	 *
+	 * @param query      the cleaned and stemmed query, joined into a string
+	 * @param exact      {@code true} for an exact search
+	 * @param generation the generation of the index that was searched, read
+	 *                   before searching
+	 * @param results    the results of the query, which must not be modified
+	 *                   afterwards
+	 */
+	public void put(String query, boolean exact, long generation, V results) {
+		synchronized (entries) {
+			if (advance(generation)) {
+				entries.put(key(query, exact), results);
+			}
+		}
+	}
+
+	/**
+	 * Clears the cache if the index has moved on to a newer generation. Should
+	 * only be called while synchronized on the entries.
+	 *
+	 * @param generation the generation of the index as seen by the caller
+	 * @return {@code true} if the entries belong to the given generation, or
+	 *         {@code false} if the caller saw an older one
+	 */
+	private boolean advance(long generation) {
+		if (generation > this.generation) {
+			if (!entries.isEmpty()) {
+				entries.clear();
+				invalidations.incrementAndGet();
+			}
+			this.generation = generation;
+		}
+		return generation == this.generation;
+	}
+
+	/**
+	 * Combines a query and its kind of search into a key.
+	 *
+	 * @param query the cleaned and stemmed query
+	 * @param exact {@code true} for an exact search
+	 * @return the key of the query
+	 */
+	private static String key(String query, boolean exact) {
+		return (exact ? "exact:" : "partial:") + query;
+	}
+
+	/**
+	 * Returns the number of queries cached.
+	 *
+	 * @return the number of queries
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the most queries kept.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of lookups that found results.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that found nothing.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of entries evicted to make room for others.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of times the cache was cleared because the index
+	 * changed.
+	 *
+	 * @return the number of invalidations
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the counters of the cache, for sizing it.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d of %d queries cached, %d hits, %d misses, %d evictions, %d invalidations", size(),
+				capacity, getHits(), getMisses(), getEvictions(), getInvalidations());
+	}
+}
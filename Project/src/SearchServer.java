@@ -43,6 +43,12 @@ public class SearchServer {
 	/** The number of URLs to crawl when adding to index */
 	private final int limit;
 
+	/** The most keys to search for each prefix in a query */
+	private final int expansions;
+
+	/** The cache of search results, or null to always search */
+	private final ResultCache<TopResults> cache;
+
 	/**
 	 * Initializes a server with necessary information.
 	 * 
@@ -52,10 +58,42 @@ public class SearchServer {
 	 * @param port  the port to connect to
 	 */
 	public SearchServer(ThreadSafeInvertedIndex index, WorkQueue queue, int limit, int port) {
+		this(index, queue, limit, port, SearchServlet.DEFAULT_EXPANSIONS);
+	}
+
+	/**
+	 * Initializes a server with necessary information and a limit on how many keys
+	 * a prefix is expanded to.
+	 * 
+	 * @param index      an inverted index
+	 * @param queue      a WorkQueue
+	 * @param limit      the number of URLs to crawl
+	 * @param port       the port to connect to
+	 * @param expansions the most keys to search for each prefix in a query
+	 */
+	public SearchServer(ThreadSafeInvertedIndex index, WorkQueue queue, int limit, int port, int expansions) {
+		this(index, queue, limit, port, expansions, new ResultCache<>());
+	}
+
+	/**
+	 * Initializes a server with necessary information, a limit on how many keys a
+	 * prefix is expanded to, and a cache of search results.
+	 * 
+	 * @param index      an inverted index
+	 * @param queue      a WorkQueue
+	 * @param limit      the number of URLs to crawl
+	 * @param port       the port to connect to
+	 * @param expansions the most keys to search for each prefix in a query
+	 * @param cache      the cache of search results, or null to always search
+	 */
+	public SearchServer(ThreadSafeInvertedIndex index, WorkQueue queue, int limit, int port, int expansions,
+			ResultCache<TopResults> cache) {
 		this.index = index;
 		this.queue = queue;
 		this.limit = limit;
 		this.port = port;
+		this.expansions = expansions;
+		this.cache = cache;
 	}
 
 	/**
@@ -85,10 +123,10 @@ public class SearchServer {
 
 		// add servlet mappings to the handler
 		servletContext.addServlet(MainServlet.class, "/");
-		servletContext.addServlet(new ServletHolder(new SearchServlet(index)), "/results");
+		servletContext.addServlet(new ServletHolder(new SearchServlet(index, expansions, cache)), "/results");
 		servletContext.addServlet(new ServletHolder(new AddServlet(index, queue, limit)), "/add");
 		servletContext.addServlet(new ServletHolder(new IndexServlet(index)), "/index");
-		servletContext.addServlet(new ServletHolder(new LocationServlet(index.getLocationToCountMap())), "/locations");
+		servletContext.addServlet(new ServletHolder(new LocationServlet(index)), "/locations");
 		servletContext.addServlet(new ServletHolder(new CreateServlet(connector)), "/create");
 		servletContext.addServlet(new ServletHolder(new LoginServlet(connector)), "/login");
 		servletContext.addServlet(LogoutServlet.class, "/logout");
@@ -2,8 +2,9 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -31,17 +32,59 @@ public class SearchServlet extends HttpServlet {
 	/** The title to use for this webpage. */
 	private static final String TITLE = "Search Results";
 
+	/** The number of results to display. */
+	private static final int RESULTS = 50;
+
+	/** The default number of keys to search for each prefix in a query. */
+	public static final int DEFAULT_EXPANSIONS = 100;
+
 	/* The inverted index to search */
 	ThreadSafeInvertedIndex index;
 
+	/** The most keys to search for each prefix in a query. */
+	private final int expansions;
+
+	/** The results of recent queries, or {@code null} to always search. */
+	private final ResultCache<TopResults> cache;
+
+	/** The searches in progress, shared by identical requests. */
+	private final SingleFlight<TopResults> flights;
+
 	/**
 	 * Initializes a SearchServlet with an index.
 	 * 
 	 * @param index the inverted index to search
 	 */
 	public SearchServlet(ThreadSafeInvertedIndex index) {
+		this(index, DEFAULT_EXPANSIONS);
+	}
+
+	/**
+	 * Initializes a SearchServlet with an index and a limit on how many keys a
+	 * prefix is expanded to.
+	 * 
+	 * @param index      the inverted index to search
+	 * @param expansions the most keys to search for each prefix in a query
+	 */
+	public SearchServlet(ThreadSafeInvertedIndex index, int expansions) {
+		this(index, expansions, new ResultCache<>());
+	}
+
+	/**
+	 * Initializes a SearchServlet with an index, a limit on how many keys a prefix
+	 * is expanded to, and a cache of the results of recent queries.
+	 * 
+	 * @param index      the inverted index to search
+	 * @param expansions the most keys to search for each prefix in a query
+	 * @param cache      the cache of results to use, or {@code null} to always
+	 *                   search
+	 */
+	public SearchServlet(ThreadSafeInvertedIndex index, int expansions, ResultCache<TopResults> cache) {
 		super();
 		this.index = index;
+		this.expansions = expansions;
+		this.cache = cache;
+		this.flights = new SingleFlight<>();
 	}
 
 	/**
@@ -65,14 +108,38 @@ public class SearchServlet extends HttpServlet {
 			query = request.getParameter("url");
 		}
 
+		// read the generation first, so results are never cached for a newer one
+		long generation = index.getGeneration();
+
+		// search phrases and NEAR/n operators by position, and AND, OR and NOT as a
+		// boolean query, parsing the quotes before they are escaped
+		TopResults top = null;
+		if (ProximityQuery.isProximity(query)) {
+			ProximityQuery parsed = ProximityQuery.parse(query);
+			top = search("proximity:" + parsed, generation, () -> top(index.proximitySearch(parsed, false)));
+		}
+		else if (BooleanQuery.isBoolean(query)) {
+			BooleanQuery parsed = BooleanQuery.parse(query);
+			top = search("boolean:" + parsed, generation, () -> top(index.booleanSearch(parsed, false)));
+		}
+
 		// sanitize query to protect against XSS
 		query = StringEscapeUtils.escapeHtml4(query);
 
-		// clean the query
-		Set<String> cleanedQuery = MultithreadedQueries.cleanQuery(query);
+		if (top == null) {
+			// clean the query
+			Set<String> cleanedQuery = MultithreadedQueries.cleanQuery(query);
 
-		// search for results
-		ArrayList<InvertedIndex.SearchResult> results = index.partialSearch(cleanedQuery);
+			// search for the best results
+			// short prefixes only search their most common expansions
+			top = search(String.join(" ", cleanedQuery), generation,
+					() -> index.impactSearch(cleanedQuery, false, RESULTS, expansions));
+		}
+		log.info(flights.getShared() + " searches shared with identical requests so far.");
+		if (cache != null) {
+			log.info("Result cache: " + cache);
+		}
+		List<InvertedIndex.SearchResult> results = top.getResults();
 
 		// form HTML
 		response.setContentType("text/html");
@@ -136,8 +203,15 @@ public class SearchServlet extends HttpServlet {
 		}
 		else {
 			out.printf(
-					"				<h2 class=\"title\"><i class=\"fas fa-check\"></i> Found %d results in %f seconds.</h2>%n",
-					results.size(), seconds);
+					"				<h2 class=\"title\"><i class=\"fas fa-check\"></i> Found %s%d results in %f seconds.</h2>%n",
+					top.isTotalExact() ? "" : "at least ", top.getTotal(), seconds);
+			if (top.getTotal() > results.size()) {
+				out.printf("				<p>Showing the top %d results.</p>%n", results.size());
+			}
+			if (top.isTruncated()) {
+				out.printf("				<p>Some words matched too many others, so only their %d most common matches were searched.</p>%n",
+						expansions);
+			}
 
 			// How can I retrieve the title and content-length efficiently? That is,
 			// without having to fetch the headers and HTML for each result, as these
@@ -185,4 +259,39 @@ public class SearchServlet extends HttpServlet {
 		out.close();
 		response.setStatus(HttpServletResponse.SC_OK);
 	}
+
+	/**
+	 * Returns the cached results of a query, or searches for them and caches them.
+	 * Identical requests that arrive while the same generation of the index is
+	 * being searched wait for that search rather than running their own.
+	 * 
+	 * @param key        the parsed query as a string, which must differ for each
+	 *                   kind of search
+	 * @param generation the generation of the index, read before searching
+	 * @param search     the search to run if the results are not cached
+	 * @return the results of the query
+	 */
+	private TopResults search(String key, long generation, Supplier<TopResults> search) {
+		return flights.run(generation + " " + key, () -> {
+			TopResults top = cache == null ? null : cache.get(key, false, generation);
+			if (top == null) {
+				top = search.get();
+				if (cache != null) {
+					cache.put(key, false, generation, top);
+				}
+			}
+			return top;
+		});
+	}
+
+	/**
+	 * Keeps the results to display out of every result of a query.
+	 * 
+	 * @param all every result of the query, in sorted order
+	 * @return the results to display and the total number of results
+	 */
+	private static TopResults top(List<InvertedIndex.SearchResult> all) {
+		// copy the results to display, so a cached copy does not keep the rest
+		return new TopResults(List.copyOf(all.subList(0, Math.min(RESULTS, all.size()))), all.size());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,901 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread-safe inverted index made of segments, so that adding to the index
+ * does not stall searches. New documents are added to a small buffer segment,
+ * which is flushed into an immutable segment once it holds enough locations.
+ * Searches read the immutable segments without locking and only lock the buffer.
+ * A background thread merges segments of similar size, so the number of
+ * segments stays bounded.
+ *
+ * Every location is kept in exactly one segment, so search results from the
+ * segments never overlap and are merged by sorting them together. For the same
+ * reason, prefix counts are kept by each segment for its own locations, and a
+ * search adds up those of every segment the same way it adds up postings.
+ *
+ * @author evancarlson
+ *
+ */
+public class SegmentedInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/** A logger specifically for this class. */
+	private static final Logger log = LogManager.getLogger(SegmentedInvertedIndex.class);
+
+	/** The default number of locations in the buffer before it is flushed. */
+	public static final int DEFAULT_FLUSH = 100;
+
+	/** The default number of segments of the same tier that are merged at once. */
+	public static final int DEFAULT_MERGE_FACTOR = 10;
+
+	/**
+	 * The segments and buffer of the index. A new state is published whenever the
+	 * segments change, so a reader always sees a consistent set of segments.
+	 */
+	private volatile State state;
+
+	/** Serializes changes to the segments and buffer. */
+	private final Object writer;
+
+	/** The number of locations in the buffer before it is flushed. */
+	private final int flush;
+
+	/** The number of segments of the same tier that are merged at once. */
+	private final int factor;
+
+	/** The background thread that merges segments. */
+	private final Merger merger;
+
+	/**
+	 * The most bytes the prefix counts of every segment may take up together, or
+	 * -1 if prefixes are not tracked.
+	 */
+	private volatile long maxPrefixBytes;
+
+	/**
+	 * Initializes an empty segmented inverted index with the default flush size
+	 * and merge factor, storing positions in compressed lists.
+	 */
+	public SegmentedInvertedIndex() {
+		this(true);
+	}
+
+	/**
+	 * Initializes an empty segmented inverted index with the default flush size
+	 * and merge factor.
+	 *
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 */
+	public SegmentedInvertedIndex(boolean compressed) {
+		this(compressed, DEFAULT_FLUSH, DEFAULT_MERGE_FACTOR);
+	}
+
+	/**
+	 * Initializes an empty segmented inverted index.
+	 *
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 * @param flush      the number of locations in the buffer before it is flushed
+	 * @param factor     the number of segments of the same tier merged at once;
+	 *                   should be greater than 1
+	 */
+	public SegmentedInvertedIndex(boolean compressed, int flush, int factor) {
+		super(compressed);
+		this.state = new State(Collections.emptyList(), new InvertedIndex(compressed));
+		this.writer = new Object();
+		this.flush = Math.max(1, flush);
+		this.factor = Math.max(2, factor);
+		this.maxPrefixBytes = -1;
+		this.merger = new Merger();
+		this.merger.start();
+	}
+
+	/**
+	 * Stops the background merge thread. Segments that have not been merged yet
+	 * are left as they are, and the index can still be used.
+	 */
+	public void shutdown() {
+		merger.shutdown();
+	}
+
+	/**
+	 * Returns the number of flushed segments, not counting the buffer.
+	 *
+	 * @return the number of segments
+	 */
+	public int numSegments() {
+		return state.segments.size();
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		// seal the other index, since it is only read from here on
+		other.seal();
+		Set<String> locations = other.getLocationToCountMap().keySet();
+
+		synchronized (writer) {
+			State current = state;
+
+			// find the segments that already hold any of the new locations
+			ArrayList<InvertedIndex> colliding = new ArrayList<>();
+			for (InvertedIndex segment : current.segments) {
+				for (String location : locations) {
+					if (segment.hasLocation(location)) {
+						colliding.add(segment);
+						break;
+					}
+				}
+			}
+
+			if (colliding.isEmpty()) {
+				current.lock.writeLock().lock();
+				try {
+					current.buffer.addAll(other);
+				}
+				finally {
+					current.lock.writeLock().unlock();
+				}
+			}
+			else {
+				// move the colliding segments into a new buffer with the other index, so
+				// every location is still kept in exactly one segment
+				seal(current);
+				InvertedIndex buffer = new InvertedIndex(isCompressed());
+				buffer.addAll(current.buffer);
+				for (InvertedIndex segment : colliding) {
+					buffer.addAll(segment);
+				}
+				buffer.addAll(other);
+				track(buffer, locations(current) + other.numLocations());
+
+				ArrayList<InvertedIndex> segments = new ArrayList<>(current.segments);
+				segments.removeAll(colliding);
+				state = new State(segments, buffer);
+				log.debug("Moved {} segments back into the buffer.", colliding.size());
+			}
+
+			if (state.buffer.numLocations() >= flush) {
+				flush();
+			}
+			advance();
+		}
+	}
+
+	@Override
+	public void add(String key, String location, int position) {
+		synchronized (writer) {
+			State current = state;
+			boolean buffered = current.buffer.hasLocation(location);
+
+			// a location in a flushed segment has to be moved back into the buffer, so
+			// route it through a single-position index like any colliding document
+			if (!buffered && find(current, location) != null) {
+				InvertedIndex single = new InvertedIndex(isCompressed());
+				single.add(key, location, position);
+				addAll(single);
+				return;
+			}
+
+			// flush before a new location rather than after it, so a document added a
+			// word at a time is not flushed after its first word
+			if (!buffered && current.buffer.numLocations() >= flush) {
+				flush();
+				current = state;
+			}
+
+			// otherwise add to the buffer directly, rather than copying the positions
+			// of the location for every word
+			current.lock.writeLock().lock();
+			try {
+				current.buffer.add(key, location, position);
+			}
+			finally {
+				current.lock.writeLock().unlock();
+			}
+			advance();
+		}
+	}
+
+	/**
+	 * Seals the position lists added to the buffer one position at a time. Added
+	 * documents are sealed already.
+	 */
+	@Override
+	public void seal() {
+		synchronized (writer) {
+			seal(state);
+		}
+	}
+
+	/**
+	 * Seals the open position lists of the buffer, such as before it is flushed or
+	 * copied. Should only be called while holding the writer lock.
+	 *
+	 * @param current the state whose buffer to seal
+	 */
+	private static void seal(State current) {
+		current.lock.writeLock().lock();
+		try {
+			current.buffer.seal();
+		}
+		finally {
+			current.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Starts keeping the merged counts of short prefixes in every segment and the
+	 * buffer, and in every segment flushed or merged from now on. Each segment may
+	 * take up its share of the limit by number of locations. Since segments are
+	 * never changed, the flushed ones are replaced by copies that count prefixes.
+	 */
+	@Override
+	public void trackPrefixes(long maxBytes) {
+		synchronized (writer) {
+			maxPrefixBytes = maxBytes;
+			State current = state;
+			int total = locations(current);
+
+			ArrayList<InvertedIndex> segments = new ArrayList<>(current.segments.size());
+			for (InvertedIndex segment : current.segments) {
+				InvertedIndex copy = new InvertedIndex(isCompressed());
+				copy.addAll(segment);
+				track(copy, total);
+				segments.add(copy);
+			}
+
+			current.lock.writeLock().lock();
+			try {
+				track(current.buffer, total);
+			}
+			finally {
+				current.lock.writeLock().unlock();
+			}
+			state = new State(segments, current.buffer, current.lock);
+			advance();
+		}
+	}
+
+	/**
+	 * Starts counting the prefixes of a segment or the buffer, if prefixes are
+	 * tracked, limited to its share of the limit by number of locations. A new
+	 * buffer gets the share of a full one.
+	 *
+	 * @param part  the segment or buffer, which other threads must not read
+	 *              without holding the buffer lock
+	 * @param total the number of locations in the whole index
+	 */
+	private void track(InvertedIndex part, int total) {
+		long maxBytes = maxPrefixBytes;
+		if (maxBytes >= 0) {
+			int locations = Math.max(flush, part.numLocations());
+			part.trackPrefixes((long) ((double) maxBytes * locations / Math.max(locations, total)));
+		}
+	}
+
+	/**
+	 * Returns the number of locations in every segment and the buffer.
+	 *
+	 * @param current the state to count
+	 * @return the number of locations
+	 */
+	private static int locations(State current) {
+		int locations = 0;
+		for (InvertedIndex segment : current.segments) {
+			locations += segment.numLocations();
+		}
+		current.lock.readLock().lock();
+		try {
+			return locations + current.buffer.numLocations();
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long getPrefixBytes() {
+		State current = state;
+		long bytes = 0;
+		for (InvertedIndex segment : current.segments) {
+			bytes += segment.getPrefixBytes();
+		}
+		current.lock.readLock().lock();
+		try {
+			return bytes + current.buffer.getPrefixBytes();
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getPrefixLength() {
+		State current = state;
+		int length;
+		current.lock.readLock().lock();
+		try {
+			length = current.buffer.getPrefixLength();
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		for (InvertedIndex segment : current.segments) {
+			length = Math.min(length, segment.getPrefixLength());
+		}
+		return length;
+	}
+
+	/**
+	 * Flushes the buffer into a new immutable segment, and signals the background
+	 * merge thread. Should only be called while holding the writer lock.
+	 */
+	private void flush() {
+		State current = state;
+		if (current.buffer.numLocations() == 0) {
+			return;
+		}
+
+		// the segment is never changed again, so it can be read without locking
+		seal(current);
+		ArrayList<InvertedIndex> segments = new ArrayList<>(current.segments);
+		segments.add(current.buffer);
+		InvertedIndex buffer = new InvertedIndex(isCompressed());
+		track(buffer, locations(current));
+		state = new State(segments, buffer);
+		merger.signal();
+	}
+
+	/**
+	 * Returns the tier of a segment; that is, the number of times the flush size
+	 * must be multiplied by the merge factor to reach the segment size.
+	 *
+	 * @param segment a segment of the index
+	 * @return the tier of the segment
+	 */
+	private int tier(InvertedIndex segment) {
+		int tier = 0;
+		for (long size = (long) flush * factor; segment.numLocations() >= size; size *= factor) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Finds segments to merge; that is, the oldest segments of the lowest tier that
+	 * has at least as many segments as the merge factor.
+	 *
+	 * @param segments the current segments
+	 * @return the segments to merge, or {@code null} if no tier is full
+	 */
+	private List<InvertedIndex> findMerge(List<InvertedIndex> segments) {
+		TreeMap<Integer, ArrayList<InvertedIndex>> tiers = new TreeMap<>();
+		for (InvertedIndex segment : segments) {
+			tiers.computeIfAbsent(tier(segment), tier -> new ArrayList<>()).add(segment);
+		}
+		for (ArrayList<InvertedIndex> tier : tiers.values()) {
+			if (tier.size() >= factor) {
+				return tier.subList(0, factor);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces merged segments with the segment they were merged into, unless any
+	 * of them was removed from the index while merging.
+	 *
+	 * @param inputs the segments that were merged
+	 * @param merged the merged segment
+	 * @return {@code true} if the merged segment was published
+	 */
+	private boolean publish(List<InvertedIndex> inputs, InvertedIndex merged) {
+		synchronized (writer) {
+			State current = state;
+			for (InvertedIndex input : inputs) {
+				// a collision moved this segment back into the buffer, so discard the merge
+				if (!current.segments.contains(input)) {
+					return false;
+				}
+			}
+
+			ArrayList<InvertedIndex> segments = new ArrayList<>(current.segments.size());
+			for (InvertedIndex segment : current.segments) {
+				// keep the merged segment where its oldest input was
+				if (segment == inputs.get(0)) {
+					segments.add(merged);
+				}
+				else if (!inputs.contains(segment)) {
+					segments.add(segment);
+				}
+			}
+			state = new State(segments, current.buffer, current.lock);
+			return true;
+		}
+	}
+
+	/**
+	 * Combines every segment and the buffer into a single inverted index. Position
+	 * lists are shared rather than copied.
+	 *
+	 * @return an inverted index with the contents of this index
+	 */
+	private InvertedIndex combine() {
+		State current = state;
+		InvertedIndex combined = new InvertedIndex(isCompressed());
+		for (InvertedIndex segment : current.segments) {
+			combined.addAll(segment);
+		}
+		current.lock.readLock().lock();
+		try {
+			combined.addAll(current.buffer);
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		return combined;
+	}
+
+	/**
+	 * Copies the segments and buffer into an immutable generation.
+	 */
+	@Override
+	protected IndexGeneration freeze() {
+		// read the generation first, so the copy never claims changes it is missing
+		long generation = getGeneration();
+		InvertedIndex combined = combine();
+		return new IndexGeneration(generation, combined.postings(), combined.documents(), isCompressed());
+	}
+
+	/**
+	 * Finds the segment or buffer that holds a location.
+	 *
+	 * @param current  the state to search
+	 * @param location a location in the index
+	 * @return the segment holding the location, or {@code null} if it is not in
+	 *         any flushed segment
+	 */
+	private static InvertedIndex find(State current, String location) {
+		for (InvertedIndex segment : current.segments) {
+			if (segment.hasLocation(location)) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean hasKey(String key) {
+		State current = state;
+		for (InvertedIndex segment : current.segments) {
+			if (segment.hasKey(key)) {
+				return true;
+			}
+		}
+		current.lock.readLock().lock();
+		try {
+			return current.buffer.hasKey(key);
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean hasLocation(String key, String location) {
+		return numPositions(key, location) > 0;
+	}
+
+	@Override
+	public boolean hasLocation(String location) {
+		State current = state;
+		if (find(current, location) != null) {
+			return true;
+		}
+		current.lock.readLock().lock();
+		try {
+			return current.buffer.hasLocation(location);
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean hasPosition(String key, String location, int position) {
+		return getPositions(key, location).contains(position);
+	}
+
+	@Override
+	public int numKeys() {
+		return getKeys().size();
+	}
+
+	@Override
+	public int numLocations() {
+		State current = state;
+		int count = 0;
+		for (InvertedIndex segment : current.segments) {
+			count += segment.numLocations();
+		}
+		current.lock.readLock().lock();
+		try {
+			return count + current.buffer.numLocations();
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int numLocations(String key) {
+		State current = state;
+		// locations are never split across segments, so the counts can be summed
+		int count = 0;
+		for (InvertedIndex segment : current.segments) {
+			count += segment.numLocations(key);
+		}
+		current.lock.readLock().lock();
+		try {
+			return count + current.buffer.numLocations(key);
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		return getPositions(key, location).size();
+	}
+
+	@Override
+	public Set<String> getKeys() {
+		State current = state;
+		TreeSet<String> keys = new TreeSet<>();
+		for (InvertedIndex segment : current.segments) {
+			keys.addAll(segment.getKeys());
+		}
+		current.lock.readLock().lock();
+		try {
+			keys.addAll(current.buffer.getKeys());
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		return keys.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+	}
+
+	@Override
+	public Set<String> getLocations(String key) {
+		State current = state;
+		TreeSet<String> locations = new TreeSet<>();
+		for (InvertedIndex segment : current.segments) {
+			locations.addAll(segment.getLocations(key));
+		}
+		current.lock.readLock().lock();
+		try {
+			locations.addAll(current.buffer.getLocations(key));
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		return locations.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> getPositions(String key, String location) {
+		State current = state;
+		InvertedIndex segment = find(current, location);
+		if (segment != null) {
+			return segment.getPositions(key, location);
+		}
+		current.lock.readLock().lock();
+		try {
+			return current.buffer.getPositions(key, location);
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getLocationToCountMap() {
+		State current = state;
+		TreeMap<String, Integer> counts = new TreeMap<>();
+		for (InvertedIndex segment : current.segments) {
+			counts.putAll(segment.getLocationToCountMap());
+		}
+		current.lock.readLock().lock();
+		try {
+			counts.putAll(current.buffer.getLocationToCountMap());
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		return counts.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<? extends String> query) {
+		return search(state, segment -> segment.search(query, true));
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<? extends String> query) {
+		return search(state, segment -> segment.search(query, false));
+	}
+
+	/**
+	 * Searches every segment and the buffer, then sorts the results together. Since
+	 * every location is in exactly one segment, the results are the same as
+	 * searching a single inverted index.
+	 *
+	 * @param current the state to search
+	 * @param search  finds the results of a segment
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         word frequency
+	 */
+	private static ArrayList<SearchResult> search(State current, Function<InvertedIndex, ArrayList<SearchResult>> search) {
+		ArrayList<SearchResult> results = new ArrayList<>();
+		for (InvertedIndex segment : current.segments) {
+			results.addAll(search.apply(segment));
+		}
+		current.lock.readLock().lock();
+		try {
+			results.addAll(search.apply(current.buffer));
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public TopResults search(Collection<? extends String> query, boolean exact, int k) {
+		return top(state, segment -> segment.search(query, exact, k), k);
+	}
+
+	@Override
+	public TopResults pruneSearch(Collection<? extends String> query, boolean exact, int k) {
+		return top(state, segment -> segment.pruneSearch(query, exact, k), k);
+	}
+
+	/**
+	 * Keeps the best {@code k} results of every segment and the buffer, then keeps
+	 * the best {@code k} of those. If a prefix matches too many keys, the keys to
+	 * search are chosen once from the number of locations of each key in every
+	 * segment, so a location scores the same whichever segment it is in.
+	 */
+	@Override
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k, int expansions) {
+		State current = state;
+		ArrayList<String> keys = new ArrayList<>();
+		if (exact || !chooseExpansions(query, expansions, prefix -> {
+			TreeMap<String, Integer> frequencies = new TreeMap<>();
+			countExpansions(current, prefix, frequencies);
+			return frequencies;
+		}, keys)) {
+			return top(current, segment -> segment.impactSearch(query, exact, k, expansions), k);
+		}
+		TopResults top = top(current, segment -> segment.impactSearch(keys, true, k, Integer.MAX_VALUE), k);
+		return new TopResults(top.getResults(), top.getTotal(), top.isTotalExact(), true);
+	}
+
+	@Override
+	public void countExpansions(String prefix, Map<String, Integer> frequencies) {
+		countExpansions(state, prefix, frequencies);
+	}
+
+	/**
+	 * Adds the number of locations of every key starting with a prefix in every
+	 * segment and the buffer to a map of frequencies.
+	 *
+	 * @param current     the state to count
+	 * @param prefix      a clean and stemmed word from a search query
+	 * @param frequencies the number of locations of each key, added to
+	 */
+	private static void countExpansions(State current, String prefix, Map<String, Integer> frequencies) {
+		for (InvertedIndex segment : current.segments) {
+			segment.countExpansions(prefix, frequencies);
+		}
+		current.lock.readLock().lock();
+		try {
+			current.buffer.countExpansions(prefix, frequencies);
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Searches every segment and the buffer, then sorts the results together. A
+	 * location is never split across segments, so neither are its phrases, nor is
+	 * it counted by a boolean query in one segment and excluded in another.
+	 */
+	@Override
+	public ArrayList<SearchResult> proximitySearch(ProximityQuery query, boolean exact) {
+		return search(state, segment -> segment.proximitySearch(query, exact));
+	}
+
+	@Override
+	public ArrayList<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		return search(state, segment -> segment.booleanSearch(query, exact));
+	}
+
+	/**
+	 * Keeps the best {@code k} results of every segment and the buffer, then keeps
+	 * the best {@code k} of those.
+	 *
+	 * @param current the state to search
+	 * @param search  finds the best {@code k} results of a segment
+	 * @param k       the number of results to keep
+	 * @return the best {@code k} results and the total number of matches
+	 */
+	private static TopResults top(State current, Function<InvertedIndex, TopResults> search, int k) {
+		ArrayList<TopResults> parts = new ArrayList<>();
+		for (InvertedIndex segment : current.segments) {
+			parts.add(search.apply(segment));
+		}
+		current.lock.readLock().lock();
+		try {
+			parts.add(search.apply(current.buffer));
+		}
+		finally {
+			current.lock.readLock().unlock();
+		}
+		return TopResults.merge(parts, k);
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		combine().writeIndex(path);
+	}
+
+	@Override
+	public void writeSnapshot(Path path) throws IOException {
+		combine().writeSnapshot(path);
+	}
+
+	@Override
+	public void writeSegment(Path path) throws IOException {
+		combine().writeSegment(path);
+	}
+
+	@Override
+	public void readSnapshot(Path path) throws IOException {
+		InvertedIndex other = new InvertedIndex(isCompressed());
+		other.readSnapshot(path);
+		addAll(other);
+	}
+
+	@Override
+	public String toString() {
+		return combine().toString();
+	}
+
+	/**
+	 * The immutable list of flushed segments and the mutable buffer of the index,
+	 * with the lock that protects the buffer.
+	 */
+	private static class State {
+
+		/** The flushed segments, which are never changed. */
+		private final List<InvertedIndex> segments;
+
+		/** The segment new documents are added to. */
+		private final InvertedIndex buffer;
+
+		/** The lock used to protect concurrent access to the buffer. */
+		private final ReadWriteLockInterface lock;
+
+		/**
+		 * Initializes a state with a new lock for the buffer.
+		 *
+		 * @param segments the flushed segments
+		 * @param buffer   the segment new documents are added to
+		 */
+		private State(List<InvertedIndex> segments, InvertedIndex buffer) {
+			this(segments, buffer, new StampedReadWriteLock());
+		}
+
+		/**
+		 * Initializes a state.
+		 *
+		 * @param segments the flushed segments
+		 * @param buffer   the segment new documents are added to
+		 * @param lock     the lock protecting the buffer
+		 */
+		private State(List<InvertedIndex> segments, InvertedIndex buffer, ReadWriteLockInterface lock) {
+			this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+			this.buffer = buffer;
+			this.lock = lock;
+		}
+	}
+
+	/**
+	 * The background thread that merges segments of the same tier whenever a tier
+	 * has as many segments as the merge factor. Segments are merged without holding
+	 * any lock, and the result is only published if its inputs are still present.
+	 */
+	private class Merger extends Thread {
+
+		/** {@code true} if there may be segments to merge. */
+		private boolean pending;
+
+		/** Used to signal the merge thread should stop. */
+		private volatile boolean shutdown;
+
+		/**
+		 * Initializes the merge thread as a daemon, so it does not keep the program
+		 * running.
+		 */
+		private Merger() {
+			super("SegmentMerger");
+			setDaemon(true);
+			pending = false;
+			shutdown = false;
+		}
+
+		/**
+		 * Signals the merge thread that segments may need merging.
+		 */
+		private synchronized void signal() {
+			pending = true;
+			notifyAll();
+		}
+
+		/**
+		 * Signals the merge thread to stop once it finishes its current merge.
+		 */
+		private synchronized void shutdown() {
+			shutdown = true;
+			notifyAll();
+		}
+
+		@Override
+		public void run() {
+			while (!shutdown) {
+				synchronized (this) {
+					while (!pending && !shutdown) {
+						try {
+							wait();
+						}
+						catch (InterruptedException e) {
+							log.debug("Segment merger interrupted.");
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+					pending = false;
+				}
+
+				List<InvertedIndex> inputs;
+				while (!shutdown && (inputs = findMerge(state.segments)) != null) {
+					InvertedIndex merged = new InvertedIndex(isCompressed());
+					for (InvertedIndex input : inputs) {
+						merged.addAll(input);
+					}
+					track(merged, locations(state));
+					if (publish(inputs, merged)) {
+						log.debug("Merged {} segments into a segment of {} locations.", inputs.size(), merged.numLocations());
+					}
+				}
+			}
+		}
+	}
+}
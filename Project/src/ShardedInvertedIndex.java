@@ -0,0 +1,418 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A thread-safe inverted index that splits locations across several
+ * {@link ThreadSafeInvertedIndex} shards by the hash of the location. Each
+ * shard has its own lock, so documents added to different shards do not wait
+ * for each other, and searches run on every shard in parallel.
+ *
+ * Every location is kept in exactly one shard, so search results from the
+ * shards never overlap and are merged by sorting them together.
+ *
+ * @author evancarlson
+ *
+ */
+public class ShardedInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/** The shards of the index. */
+	private final ThreadSafeInvertedIndex[] shards;
+
+	/**
+	 * Initializes an empty sharded inverted index.
+	 *
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 * @param shards     the number of shards; should be greater than 1
+	 */
+	public ShardedInvertedIndex(boolean compressed, int shards) {
+		super(compressed);
+		this.shards = new ThreadSafeInvertedIndex[Math.max(1, shards)];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new ThreadSafeInvertedIndex(compressed);
+		}
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int numShards() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns the index of the shard a location belongs to.
+	 *
+	 * @param location a location
+	 * @return the index of its shard
+	 */
+	private int shardOf(String location) {
+		return Math.floorMod(location.hashCode(), shards.length);
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		other.seal();
+		DocumentTable documents = other.documents();
+
+		// the other index usually holds a single document, which belongs to one shard
+		int shard = documents.size() == 0 ? 0 : shardOf(documents.getName(0));
+		boolean single = true;
+		for (int id = 1; id < documents.size() && single; id++) {
+			single = shardOf(documents.getName(id)) == shard;
+		}
+
+		if (single) {
+			shards[shard].addAll(other);
+		}
+		else {
+			InvertedIndex[] parts = split(other);
+			for (int i = 0; i < shards.length; i++) {
+				if (parts[i] != null) {
+					shards[i].addAll(parts[i]);
+				}
+			}
+		}
+		advance();
+	}
+
+	/**
+	 * Splits another index into one index per shard.
+	 *
+	 * @param other the index to split
+	 * @return the part of the index for each shard, or {@code null} for shards
+	 *         without any of its locations
+	 */
+	private InvertedIndex[] split(InvertedIndex other) {
+		DocumentTable documents = other.documents();
+		DocumentTable[] tables = new DocumentTable[shards.length];
+		int[] shardIds = new int[documents.size()];
+		int[] localIds = new int[documents.size()];
+
+		for (int id = 0; id < documents.size(); id++) {
+			int shard = shardOf(documents.getName(id));
+			if (tables[shard] == null) {
+				tables[shard] = new DocumentTable();
+			}
+			shardIds[id] = shard;
+			localIds[id] = tables[shard].add(documents.getName(id));
+			tables[shard].updateCount(localIds[id], documents.getCount(id));
+		}
+
+		List<TreeMap<String, PostingList>> maps = new ArrayList<>();
+		for (int i = 0; i < shards.length; i++) {
+			maps.add(new TreeMap<>());
+		}
+		for (var word : other.postings().entrySet()) {
+			PostingList postings = word.getValue();
+			for (int i = 0; i < postings.size(); i++) {
+				int shard = shardIds[postings.document(i)];
+				maps.get(shard).computeIfAbsent(word.getKey(), key -> new PostingList()).put(localIds[postings.document(i)], postings.positions(i));
+			}
+		}
+
+		InvertedIndex[] parts = new InvertedIndex[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			if (tables[i] != null) {
+				parts[i] = new InvertedIndex(maps.get(i), tables[i], isCompressed());
+			}
+		}
+		return parts;
+	}
+
+	@Override
+	public void add(String key, String location, int position) {
+		shards[shardOf(location)].add(key, location, position);
+		advance();
+	}
+
+	@Override
+	public void seal() {
+		for (ThreadSafeInvertedIndex shard : shards) {
+			shard.seal();
+		}
+	}
+
+	/**
+	 * Tracks prefixes in every shard, splitting the limit between them.
+	 */
+	@Override
+	public void trackPrefixes(long maxBytes) {
+		for (ThreadSafeInvertedIndex shard : shards) {
+			shard.trackPrefixes(maxBytes / shards.length);
+		}
+		advance();
+	}
+
+	@Override
+	public long getPrefixBytes() {
+		long bytes = 0;
+		for (ThreadSafeInvertedIndex shard : shards) {
+			bytes += shard.getPrefixBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public int getPrefixLength() {
+		int length = PrefixCounts.MAX_LENGTH;
+		for (ThreadSafeInvertedIndex shard : shards) {
+			length = Math.min(length, shard.getPrefixLength());
+		}
+		return length;
+	}
+
+	/**
+	 * Combines the current generation of every shard into a single inverted index.
+	 * Position lists are shared rather than copied.
+	 *
+	 * @return an inverted index with the contents of this index
+	 */
+	private InvertedIndex combine() {
+		InvertedIndex combined = new InvertedIndex(isCompressed());
+		for (ThreadSafeInvertedIndex shard : shards) {
+			combined.addAll(shard.snapshot());
+		}
+		return combined;
+	}
+
+	/**
+	 * Copies the current generation of every shard into an immutable generation.
+	 */
+	@Override
+	protected IndexGeneration freeze() {
+		// read the generation first, so the copy never claims changes it is missing
+		long generation = getGeneration();
+		InvertedIndex combined = combine();
+		return new IndexGeneration(generation, combined.postings(), combined.documents(), isCompressed());
+	}
+
+	@Override
+	public boolean hasKey(String key) {
+		for (ThreadSafeInvertedIndex shard : shards) {
+			if (shard.hasKey(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasLocation(String key, String location) {
+		return shards[shardOf(location)].hasLocation(key, location);
+	}
+
+	@Override
+	public boolean hasLocation(String location) {
+		return shards[shardOf(location)].hasLocation(location);
+	}
+
+	@Override
+	public boolean hasPosition(String key, String location, int position) {
+		return shards[shardOf(location)].hasPosition(key, location, position);
+	}
+
+	@Override
+	public int numKeys() {
+		return getKeys().size();
+	}
+
+	@Override
+	public int numLocations() {
+		int count = 0;
+		for (ThreadSafeInvertedIndex shard : shards) {
+			count += shard.numLocations();
+		}
+		return count;
+	}
+
+	@Override
+	public int numLocations(String key) {
+		// locations are never split across shards, so the counts can be summed
+		int count = 0;
+		for (ThreadSafeInvertedIndex shard : shards) {
+			count += shard.numLocations(key);
+		}
+		return count;
+	}
+
+	@Override
+	public int numPositions(String key, String location) {
+		return shards[shardOf(location)].numPositions(key, location);
+	}
+
+	@Override
+	public Set<String> getKeys() {
+		TreeSet<String> keys = new TreeSet<>();
+		for (ThreadSafeInvertedIndex shard : shards) {
+			keys.addAll(shard.getKeys());
+		}
+		return keys.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+	}
+
+	@Override
+	public Set<String> getLocations(String key) {
+		TreeSet<String> locations = new TreeSet<>();
+		for (ThreadSafeInvertedIndex shard : shards) {
+			locations.addAll(shard.getLocations(key));
+		}
+		return locations.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(locations);
+	}
+
+	@Override
+	public Set<Integer> getPositions(String key, String location) {
+		return shards[shardOf(location)].getPositions(key, location);
+	}
+
+	@Override
+	public Map<String, Integer> getLocationToCountMap() {
+		TreeMap<String, Integer> counts = new TreeMap<>();
+		for (ThreadSafeInvertedIndex shard : shards) {
+			counts.putAll(shard.getLocationToCountMap());
+		}
+		return counts.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<? extends String> query) {
+		return scatter(shard -> shard.search(query, true));
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<? extends String> query) {
+		return scatter(shard -> shard.search(query, false));
+	}
+
+	/**
+	 * Searches every shard in parallel, then sorts the results together. Since
+	 * every location is in exactly one shard, the results are the same as
+	 * searching a single inverted index.
+	 *
+	 * The shards are searched with a parallel stream rather than a
+	 * {@link WorkQueue}, since the search is usually itself running on a work
+	 * queue thread, and waiting on the same queue could deadlock.
+	 *
+	 * @param search finds the results of a shard
+	 * @return an {@code ArrayList<SearchResult>} where SearchResults are sorted by
+	 *         word frequency
+	 */
+	private ArrayList<SearchResult> scatter(Function<ThreadSafeInvertedIndex, ArrayList<SearchResult>> search) {
+		List<ArrayList<SearchResult>> parts = Arrays.stream(shards).parallel()
+				.map(search)
+				.collect(Collectors.toList());
+
+		ArrayList<SearchResult> results = new ArrayList<>();
+		for (ArrayList<SearchResult> part : parts) {
+			results.addAll(part);
+		}
+		// each part is already sorted, which the sort takes advantage of
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public TopResults search(Collection<? extends String> query, boolean exact, int k) {
+		return gather(shard -> shard.search(query, exact, k), k);
+	}
+
+	@Override
+	public TopResults pruneSearch(Collection<? extends String> query, boolean exact, int k) {
+		return gather(shard -> shard.pruneSearch(query, exact, k), k);
+	}
+
+	/**
+	 * Keeps the best {@code k} results of every shard in parallel, then keeps the
+	 * best {@code k} of those. If a prefix matches too many keys, the keys to
+	 * search are chosen once from the number of locations of each key in every
+	 * shard, so a location scores the same whichever shard it is in.
+	 */
+	@Override
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k, int expansions) {
+		ArrayList<String> keys = new ArrayList<>();
+		if (exact || !chooseExpansions(query, expansions, prefix -> {
+			TreeMap<String, Integer> frequencies = new TreeMap<>();
+			countExpansions(prefix, frequencies);
+			return frequencies;
+		}, keys)) {
+			return gather(shard -> shard.impactSearch(query, exact, k, expansions), k);
+		}
+		TopResults top = gather(shard -> shard.impactSearch(keys, true, k, Integer.MAX_VALUE), k);
+		return new TopResults(top.getResults(), top.getTotal(), top.isTotalExact(), true);
+	}
+
+	@Override
+	public void countExpansions(String prefix, Map<String, Integer> frequencies) {
+		for (ThreadSafeInvertedIndex shard : shards) {
+			shard.countExpansions(prefix, frequencies);
+		}
+	}
+
+	/**
+	 * Searches every shard in parallel, then sorts the results together, the same
+	 * way as {@link #scatter(Function)}.
+	 */
+	@Override
+	public ArrayList<SearchResult> proximitySearch(ProximityQuery query, boolean exact) {
+		return scatter(shard -> shard.proximitySearch(query, exact));
+	}
+
+	@Override
+	public ArrayList<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		return scatter(shard -> shard.booleanSearch(query, exact));
+	}
+
+	/**
+	 * Keeps the best {@code k} results of every shard in parallel, then keeps the
+	 * best {@code k} of those.
+	 *
+	 * @param search finds the best {@code k} results of a shard
+	 * @param k      the number of results to keep
+	 * @return the best {@code k} results and the total number of matches
+	 */
+	private TopResults gather(Function<ThreadSafeInvertedIndex, TopResults> search, int k) {
+		List<TopResults> parts = Arrays.stream(shards).parallel()
+				.map(search)
+				.collect(Collectors.toList());
+		return TopResults.merge(parts, k);
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		combine().writeIndex(path);
+	}
+
+	@Override
+	public void writeSnapshot(Path path) throws IOException {
+		combine().writeSnapshot(path);
+	}
+
+	@Override
+	public void writeSegment(Path path) throws IOException {
+		combine().writeSegment(path);
+	}
+
+	@Override
+	public void readSnapshot(Path path) throws IOException {
+		InvertedIndex other = new InvertedIndex(isCompressed());
+		other.readSnapshot(path);
+		addAll(other);
+	}
+
+	@Override
+	public String toString() {
+		return combine().toString();
+	}
+}
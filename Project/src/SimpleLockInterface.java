@@ -1,3 +1,4 @@
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -17,6 +18,17 @@ public interface SimpleLockInterface {
 	 */
 	public void lock();
 
+	/**
+	 * Acquires the lock if it becomes available within the given waiting time.
+	 * 
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit    the time unit of the timeout
+	 * @return {@code true} if the lock was acquired, {@code false} if the waiting
+	 *         time elapsed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException;
+
 	/**
 	 * Releases the lock.
 	 */
@@ -0,0 +1,111 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets threads that ask for the same thing at the same time share a single
+ * computation of it. The first thread to ask for a key computes it, and every
+ * thread that asks for the same key before it is done waits for and returns the
+ * same result, rather than computing it again. Once the computation is done,
+ * the next thread to ask computes it anew.
+ *
+ * For example, when many users search for the same query at once, only one of
+ * them has to search the index.
+ *
+ * @param <V> the type of results computed
+ *
+ * @author evancarlson
+ *
+ */
+public class SingleFlight<V> {
+
+	/** The computation in progress for each key. */
+	private final ConcurrentHashMap<String, CompletableFuture<V>> flights;
+
+	/** The number of times a thread waited for another's computation. */
+	private final AtomicLong shared;
+
+	/**
+	 * Initializes a single flight with nothing in progress.
+	 */
+	public SingleFlight() {
+		this.flights = new ConcurrentHashMap<>();
+		this.shared = new AtomicLong();
+	}
+
+	/**
+	 * Computes the result for a key, or waits for the computation already in
+	 * progress for the same key and returns its result.
+	 *
+	 * @param key         identifies the result; equal keys must have the same
+	 *                    result
+	 * @param computation computes the result, if no computation is in progress
+	 * @return the result
+	 * @throws RuntimeException if the computation this thread ran or waited for
+	 *                          threw one
+	 */
+	public V run(String key, Supplier<V> computation) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> current = flights.putIfAbsent(key, flight);
+		if (current != null) {
+			shared.incrementAndGet();
+			return await(current);
+		}
+
+		try {
+			V result = computation.get();
+			flight.complete(result);
+			return result;
+		}
+		catch (RuntimeException | Error e) {
+			// let the waiting threads fail the same way
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Waits for another thread's computation.
+	 *
+	 * @param flight the computation in progress
+	 * @return its result
+	 */
+	private V await(CompletableFuture<V> flight) {
+		try {
+			return flight.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of times a thread got the result of another thread's
+	 * computation rather than computing it itself.
+	 *
+	 * @return the number of shared results
+	 */
+	public long getShared() {
+		return shared.get();
+	}
+
+	/**
+	 * Returns the number of computations in progress.
+	 *
+	 * @return the number of computations in progress
+	 */
+	public int size() {
+		return flights.size();
+	}
+}
@@ -0,0 +1,141 @@
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A read/write lock built on {@link StampedLock}. Unlike {@link ReadWriteLock},
+ * waiting threads are queued in arrival order and a waiting writer holds back
+ * readers that arrive after it, so neither searches nor writers can be kept
+ * waiting indefinitely. Waiting threads are woken one at a time rather than all
+ * at once, and short reads can run without locking at all.
+ *
+ * Like {@link ReadWriteLock}, the lock is not reentrant.
+ *
+ * @author evancarlson
+ *
+ */
+public class StampedReadWriteLock implements ReadWriteLockInterface {
+
+	/** A logger specifically for this class. */
+	private static final Logger log = LogManager.getLogger(StampedReadWriteLock.class);
+
+	/** The lock used for reading. */
+	private final SimpleLockInterface readerLock;
+
+	/** The lock used for writing. */
+	private final SimpleLockInterface writerLock;
+
+	/** The underlying lock. */
+	private final StampedLock lock;
+
+	/**
+	 * Initializes a new stamped read/write lock.
+	 */
+	public StampedReadWriteLock() {
+		readerLock = new ReadLock();
+		writerLock = new WriteLock();
+		lock = new StampedLock();
+	}
+
+	@Override
+	public SimpleLockInterface readLock() {
+		return readerLock;
+	}
+
+	@Override
+	public SimpleLockInterface writeLock() {
+		return writerLock;
+	}
+
+	/**
+	 * Runs the reader without locking, and only takes the read lock to run it again
+	 * if a writer was active at any point while it ran.
+	 */
+	@Override
+	public int optimisticRead(IntSupplier reader) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			int value = reader.getAsInt();
+			if (lock.validate(stamp)) {
+				return value;
+			}
+		}
+		return ReadWriteLockInterface.super.optimisticRead(reader);
+	}
+
+	/**
+	 * Used to maintain simultaneous read operations.
+	 */
+	private class ReadLock implements SimpleLockInterface {
+
+		@Override
+		public void lock() {
+			lock.readLock();
+		}
+
+		@Override
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			return lock.tryReadLock(timeout, unit) != 0;
+		}
+
+		/**
+		 * Releases one hold of the read lock.
+		 *
+		 * @throws ConcurrentModificationException if the read lock is not held
+		 */
+		@Override
+		public void unlock() throws ConcurrentModificationException {
+			if (!lock.tryUnlockRead()) {
+				log.debug("ReadLock.unlock() called without holding the read lock.");
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * Used to maintain exclusive write operations.
+	 */
+	private class WriteLock implements SimpleLockInterface {
+
+		/** The thread that currently holds the write lock */
+		private volatile Thread holding = null;
+
+		@Override
+		public void lock() {
+			lock.writeLock();
+			holding = Thread.currentThread();
+		}
+
+		@Override
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			if (lock.tryWriteLock(timeout, unit) == 0) {
+				return false;
+			}
+			holding = Thread.currentThread();
+			return true;
+		}
+
+		/**
+		 * Releases the write lock. If unlock is called by a thread that does not hold
+		 * the lock, then a {@link ConcurrentModificationException} is thrown.
+		 *
+		 * @throws ConcurrentModificationException if unlock is called without
+		 *                                         previously calling lock or if unlock
+		 *                                         is called by a thread that does not
+		 *                                         hold the write lock
+		 */
+		@Override
+		public void unlock() throws ConcurrentModificationException {
+			if (!ReadWriteLock.sameThread(holding)) {
+				log.debug("Wrong thread is calling WriteLock.unlock() or lock() was never called.");
+				throw new ConcurrentModificationException();
+			}
+			holding = null;
+			lock.tryUnlockWrite();
+		}
+	}
+}
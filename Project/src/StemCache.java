@@ -0,0 +1,140 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A thread-safe stemmer that remembers the stem of every word it has seen, up
+ * to a fixed number of words. Since most words of a text are a few common ones,
+ * most words are looked up rather than stemmed again.
+ *
+ * Words that are not cached are stemmed by a stemmer that belongs to the
+ * calling thread, so threads never share a stemmer and never have to create
+ * one for each file or query. Once the cache is full, the words already in it
+ * stay and new words are stemmed without being cached; the words seen first
+ * are usually the most common ones, and nothing has to be evicted or locked.
+ *
+ * @author evancarlson
+ *
+ * @see SnowballStemmer
+ */
+public class StemCache implements Stemmer {
+
+	/** The default number of words to remember. */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/**
+	 * The stem cache shared by the builders, crawlers and queries, which all stem
+	 * with the default algorithm.
+	 */
+	public static final StemCache SHARED = new StemCache(InvertedIndexBuilder.DEFAULT, DEFAULT_CAPACITY);
+
+	/** The stem of each cached word. */
+	private final ConcurrentHashMap<String, String> stems;
+
+	/** The stemmer of each thread. */
+	private final ThreadLocal<Stemmer> stemmers;
+
+	/** The most words to remember. */
+	private final int capacity;
+
+	/** The number of words looked up. */
+	private final LongAdder hits;
+
+	/** The number of words stemmed. */
+	private final LongAdder misses;
+
+	/**
+	 * Initializes an empty stem cache.
+	 *
+	 * @param algorithm the stemming algorithm to use
+	 * @param capacity  the most words to remember
+	 */
+	public StemCache(SnowballStemmer.ALGORITHM algorithm, int capacity) {
+		this.stems = new ConcurrentHashMap<>();
+		this.stemmers = ThreadLocal.withInitial(() -> new SnowballStemmer(algorithm));
+		this.capacity = capacity;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the stem of a word, stemming it only if it is not cached.
+	 *
+	 * @param word the cleaned word to stem
+	 * @return the stem of the word, as a string
+	 */
+	@Override
+	public String stem(CharSequence word) {
+		String key = word.toString();
+		String stem = stems.get(key);
+		if (stem != null) {
+			hits.increment();
+			return stem;
+		}
+
+		misses.increment();
+		stem = stemmers.get().stem(key).toString();
+		if (stems.size() < capacity) {
+			stems.putIfAbsent(key, stem);
+		}
+		return stem;
+	}
+
+	/**
+	 * Returns the number of words cached.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return stems.size();
+	}
+
+	/**
+	 * Returns the most words remembered.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of words whose stem was cached.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of words that had to be stemmed.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of words whose stem was cached.
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if no words were stemmed
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the counters of the cache, for sizing it.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d of %d words cached, %d hits, %d misses, %.1f%% hit rate", size(), capacity, getHits(),
+				getMisses(), 100 * getHitRate());
+	}
+}
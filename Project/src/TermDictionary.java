@@ -0,0 +1,186 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A compact dictionary of sorted terms that finds the range of term IDs
+ * starting with a prefix in time proportional to the length of the prefix. A
+ * term's ID is its position in sorted order, so the terms starting with a
+ * prefix always have consecutive IDs.
+ *
+ * The terms are stored as a compressed trie, in which each edge is labeled with
+ * as many characters as the terms below it share. The nodes are numbered in
+ * breadth-first order and kept in a few flat arrays, so the children of each
+ * node are consecutive, and the characters of every label are stored once in a
+ * single array, with no objects per term.
+ *
+ * @author evancarlson
+ *
+ */
+public class TermDictionary {
+
+	/** The labels of every node, one after the other in node order. */
+	private final char[] labels;
+
+	/**
+	 * The index into {@link #labels} of the label of each node; the last element
+	 * is the total length of the labels.
+	 */
+	private final int[] labelStarts;
+
+	/**
+	 * The index of the first child of each node; the last element is the number of
+	 * nodes.
+	 */
+	private final int[] firstChildren;
+
+	/** The ID of the first term below each node. */
+	private final int[] lows;
+
+	/** One more than the ID of the last term below each node. */
+	private final int[] highs;
+
+	/** The number of terms. */
+	private final int size;
+
+	/**
+	 * Builds a dictionary of sorted terms.
+	 *
+	 * @param size  the number of terms
+	 * @param terms the term with each ID, which must be distinct and sorted by
+	 *              {@link String#compareTo(String)}
+	 */
+	public TermDictionary(int size, IntFunction<String> terms) {
+		this.size = size;
+		// a compressed trie has at most one node more than twice the number of terms
+		int capacity = 2 * size + 1;
+		int[] starts = new int[capacity + 1];
+		int[] children = new int[capacity + 1];
+		int[] low = new int[capacity];
+		int[] high = new int[capacity];
+		// the number of characters from the root to the end of each node's label
+		int[] depths = new int[capacity];
+		StringBuilder text = new StringBuilder();
+
+		// the root has an empty label and every term below it
+		int nodes = 1;
+		high[0] = size;
+
+		// create the children of each node in turn, which numbers them breadth-first
+		for (int node = 0; node < nodes; node++) {
+			children[node] = nodes;
+			int depth = depths[node];
+			int start = low[node];
+			// a term that ends at this node sorts before every term below it
+			if (start < high[node] && terms.apply(start).length() == depth) {
+				start++;
+			}
+
+			while (start < high[node]) {
+				String first = terms.apply(start);
+				char next = first.charAt(depth);
+				int end = start + 1;
+				while (end < high[node] && terms.apply(end).charAt(depth) == next) {
+					end++;
+				}
+
+				// the terms of a sorted range all share the prefix of its first and last
+				String last = terms.apply(end - 1);
+				int shared = depth + 1;
+				while (shared < first.length() && shared < last.length() && first.charAt(shared) == last.charAt(shared)) {
+					shared++;
+				}
+
+				starts[nodes] = text.length();
+				text.append(first, depth, shared);
+				low[nodes] = start;
+				high[nodes] = end;
+				depths[nodes] = shared;
+				nodes++;
+				start = end;
+			}
+		}
+		starts[nodes] = text.length();
+		children[nodes] = nodes;
+
+		this.labels = text.toString().toCharArray();
+		this.labelStarts = Arrays.copyOf(starts, nodes + 1);
+		this.firstChildren = Arrays.copyOf(children, nodes + 1);
+		this.lows = Arrays.copyOf(low, nodes);
+		this.highs = Arrays.copyOf(high, nodes);
+	}
+
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return the number of terms
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the IDs of every term that starts with a prefix.
+	 *
+	 * @param prefix the prefix to find
+	 * @return the first ID and one more than the last ID of the matching terms,
+	 *         which are equal if no term matches
+	 */
+	public int[] range(String prefix) {
+		int node = 0;
+		int matched = 0;
+		while (matched < prefix.length()) {
+			node = child(node, prefix.charAt(matched));
+			if (node < 0) {
+				return new int[] { 0, 0 };
+			}
+			// the prefix may end partway along the label
+			for (int i = labelStarts[node]; i < labelStarts[node + 1] && matched < prefix.length(); i++, matched++) {
+				if (labels[i] != prefix.charAt(matched)) {
+					return new int[] { 0, 0 };
+				}
+			}
+		}
+		return new int[] { lows[node], highs[node] };
+	}
+
+	/**
+	 * Finds the child of a node whose label starts with a character, by binary
+	 * search over the children, which are sorted by their first character.
+	 *
+	 * @param node      the parent node
+	 * @param character the first character of the label
+	 * @return the child, or -1 if there is none
+	 */
+	private int child(int node, char character) {
+		int low = firstChildren[node];
+		int high = firstChildren[node + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char first = labels[labelStarts[middle]];
+			if (first < character) {
+				low = middle + 1;
+			}
+			else if (first > character) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Estimates the number of bytes the dictionary takes up, counting the arrays
+	 * and their headers.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	public long sizeInBytes() {
+		long bytes = 16 + 2L * labels.length;
+		for (int[] array : new int[][] { labelStarts, firstChildren, lows, highs }) {
+			bytes += 16 + 4L * array.length;
+		}
+		return bytes;
+	}
+}
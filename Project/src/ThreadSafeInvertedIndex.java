@@ -4,10 +4,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A thread-safe version of {@link InvertedIndex} using a read/write lock.
  * 
+ * Every change to the index starts a new generation. Readers that need several
+ * consistent calls, or that iterate the returned sets, can pin an immutable
+ * copy of the current generation with {@link #snapshot()} and read it without
+ * locking. Searches use the latest copy when it is still current.
+ * 
  * @author evancarlson
  *
  */
@@ -16,21 +23,132 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	/**
 	 * The lock used to protect concurrent access to the underlying set.
 	 */
-	private final ReadWriteLock lock;
+	private final ReadWriteLockInterface lock;
+
+	/** The number of changes made to the index. */
+	private final AtomicLong generation;
+
+	/** The most recent immutable copy of the index, or {@code null} if none. */
+	private final AtomicReference<IndexGeneration> latest;
 
 	/**
 	 * Initializes a thread-safe inverted index.
 	 */
 	public ThreadSafeInvertedIndex() {
-		super();
-		lock = new ReadWriteLock();
+		this(true);
+	}
+
+	/**
+	 * Initializes a thread-safe inverted index.
+	 * 
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 */
+	public ThreadSafeInvertedIndex(boolean compressed) {
+		this(compressed, new ReadWriteLock());
+	}
+
+	/**
+	 * Initializes a thread-safe inverted index protected by the given lock.
+	 * 
+	 * @param compressed {@code true} to store positions in compressed lists,
+	 *                   {@code false} to use the original {@code TreeSet} layout
+	 * @param lock       the lock used to protect the index, such as a
+	 *                   {@link StampedReadWriteLock} to keep searches and writes
+	 *                   from starving each other
+	 */
+	public ThreadSafeInvertedIndex(boolean compressed, ReadWriteLockInterface lock) {
+		super(compressed);
+		this.lock = lock;
+		this.generation = new AtomicLong();
+		this.latest = new AtomicReference<>();
+	}
+
+	/**
+	 * Returns the generation of the index; that is, the number of changes made to
+	 * it so far.
+	 * 
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Starts a new generation. Should be called after every change to the index,
+	 * while the change is still locked, so a copy never claims a generation it
+	 * does not contain. The latest copy is dropped, since it can no longer be
+	 * used.
+	 */
+	protected void advance() {
+		generation.incrementAndGet();
+		latest.set(null);
+	}
+
+	/**
+	 * Returns an immutable copy of the current generation of the index, which can
+	 * be read without locking and does not change while it is used. The copy is
+	 * shared with other readers until the index changes.
+	 * 
+	 * Making a new copy takes time and memory in proportion to the size of the
+	 * whole index, so callers should only pin one when they need it, rather than
+	 * after every change.
+	 * 
+	 * @return an immutable copy of the index
+	 */
+	public InvertedIndex snapshot() {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned;
+		}
+
+		IndexGeneration copy = freeze();
+		// publish the copy unless another thread published a newer one first
+		latest.accumulateAndGet(copy, (previous, next) -> previous != null && previous.getGeneration() >= next.getGeneration() ? previous : next);
+		return copy;
+	}
+
+	/**
+	 * Returns the latest immutable copy if it is still current.
+	 * 
+	 * @return the latest copy, or {@code null} if the index changed since it was
+	 *         made
+	 */
+	private IndexGeneration current() {
+		IndexGeneration pinned = latest.get();
+		if (pinned != null && pinned.getGeneration() == generation.get()) {
+			return pinned;
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the index into an immutable generation. Subclasses that keep their
+	 * own data structures should override this.
+	 * 
+	 * @return an immutable copy of the index
+	 */
+	protected IndexGeneration freeze() {
+		lock.readLock().lock();
+		try {
+			IndexGeneration copy = new IndexGeneration(generation.get(), postings(), documents(), isCompressed());
+			copy.copyPrefixes(this);
+			return copy;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	@Override
 	public void addAll(InvertedIndex other) {
+		// seal outside of the lock, since compressing the other index's positions
+		// does not touch this index
+		other.seal();
 		lock.writeLock().lock();
 		try {
 			super.addAll(other);
+			advance();
 		}
 		finally {
 			lock.writeLock().unlock();
@@ -42,12 +160,58 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		lock.writeLock().lock();
 		try {
 			super.add(key, location, position);
+			advance();
 		}
 		finally {
 			lock.writeLock().unlock();
 		}
 	}
 
+	@Override
+	public void seal() {
+		lock.writeLock().lock();
+		try {
+			super.seal();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void trackPrefixes(long maxBytes) {
+		lock.writeLock().lock();
+		try {
+			super.trackPrefixes(maxBytes);
+			advance();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long getPrefixBytes() {
+		lock.readLock().lock();
+		try {
+			return super.getPrefixBytes();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getPrefixLength() {
+		lock.readLock().lock();
+		try {
+			return super.getPrefixLength();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public boolean hasKey(String key) {
 		lock.readLock().lock();
@@ -71,10 +235,10 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	}
 
 	@Override
-	public boolean hasPosition(String key, String location, int position) {
+	public boolean hasLocation(String location) {
 		lock.readLock().lock();
 		try {
-			return super.hasPosition(key, location, position);
+			return super.hasLocation(location);
 		}
 		finally {
 			lock.readLock().unlock();
@@ -82,16 +246,26 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	}
 
 	@Override
-	public int numKeys() {
+	public boolean hasPosition(String key, String location, int position) {
 		lock.readLock().lock();
 		try {
-			return super.numKeys();
+			return super.hasPosition(key, location, position);
 		}
 		finally {
 			lock.readLock().unlock();
 		}
 	}
 
+	@Override
+	public int numKeys() {
+		return lock.optimisticRead(super::numKeys);
+	}
+
+	@Override
+	public int numLocations() {
+		return lock.optimisticRead(super::numLocations);
+	}
+
 	@Override
 	public int numLocations(String key) {
 		lock.readLock().lock();
@@ -160,6 +334,11 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 
 	@Override
 	public ArrayList<SearchResult> exactSearch(Collection<? extends String> query) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.exactSearch(query);
+		}
+
 		lock.readLock().lock();
 		try {
 			return super.exactSearch(query);
@@ -171,6 +350,11 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 
 	@Override
 	public ArrayList<SearchResult> partialSearch(Collection<? extends String> query) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.partialSearch(query);
+		}
+
 		lock.readLock().lock();
 		try {
 			return super.partialSearch(query);
@@ -180,6 +364,103 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public TopResults search(Collection<? extends String> query, boolean exact, int k) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.search(query, exact, k);
+		}
+
+		lock.readLock().lock();
+		try {
+			return super.search(query, exact, k);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public TopResults pruneSearch(Collection<? extends String> query, boolean exact, int k) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.pruneSearch(query, exact, k);
+		}
+
+		lock.readLock().lock();
+		try {
+			return super.pruneSearch(query, exact, k);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public TopResults impactSearch(Collection<? extends String> query, boolean exact, int k, int expansions) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.impactSearch(query, exact, k, expansions);
+		}
+
+		lock.readLock().lock();
+		try {
+			return super.impactSearch(query, exact, k, expansions);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void countExpansions(String prefix, Map<String, Integer> frequencies) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			pinned.countExpansions(prefix, frequencies);
+			return;
+		}
+
+		lock.readLock().lock();
+		try {
+			super.countExpansions(prefix, frequencies);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> proximitySearch(ProximityQuery query, boolean exact) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.proximitySearch(query, exact);
+		}
+
+		lock.readLock().lock();
+		try {
+			return super.proximitySearch(query, exact);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<SearchResult> booleanSearch(BooleanQuery query, boolean exact) {
+		InvertedIndex pinned = current();
+		if (pinned != null) {
+			return pinned.booleanSearch(query, exact);
+		}
+
+		lock.readLock().lock();
+		try {
+			return super.booleanSearch(query, exact);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public void writeIndex(Path path) throws IOException {
 		lock.readLock().lock();
@@ -191,6 +472,40 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public void writeSnapshot(Path path) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.writeSnapshot(path);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void writeSegment(Path path) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.writeSegment(path);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void readSnapshot(Path path) throws IOException {
+		lock.writeLock().lock();
+		try {
+			super.readSnapshot(path);
+			advance();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	@Override
 	public String toString() {
 		lock.readLock().lock();
@@ -0,0 +1,409 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Splits text into cleaned words in a single pass over its characters, without
+ * regular expressions or copies of the whole text. Produces exactly the same
+ * words as {@link TextParser#parse(String)}: diacritical marks and other
+ * non-letters are removed, letters are lowercased, and the text is split by
+ * whitespace.
+ *
+ * Each run of text between whitespace is cleaned on its own. Runs of plain
+ * ASCII, which are most of the text, only have their letters kept and
+ * lowercased, and accented Latin letters are looked up in a table. Runs with
+ * any other character are decomposed first, the same as
+ * {@link TextParser#clean(String)} does; since no decomposition spans
+ * whitespace, this gives the same result as cleaning the whole text at once.
+ * The only letter whose lowercase depends on the other words is the capital
+ * sigma, so text with one is parsed by {@link TextParser#parse(String)}
+ * instead.
+ *
+ * Text can also be split straight from UTF-8 bytes, such as a file mapped into
+ * memory. Runs of ASCII bytes and accented Latin letters are cleaned without
+ * being decoded, and only runs with other characters are decoded first.
+ *
+ * Words are built in a buffer that is reused, so a tokenizer should only be
+ * used by one thread at a time.
+ *
+ * @author evancarlson
+ *
+ * @see TextParser#parse(String)
+ */
+public class Tokenizer {
+
+	/** The whitespace character types, as bits indexed by character type. */
+	private static final int SPACE_TYPES = 1 << Character.SPACE_SEPARATOR | 1 << Character.LINE_SEPARATOR
+			| 1 << Character.PARAGRAPH_SEPARATOR;
+
+	/**
+	 * The end of the characters that are cleaned by {@link #LATIN}, which are
+	 * never combining marks, so each is cleaned the same way wherever it appears.
+	 */
+	private static final int LATIN_END = 0x300;
+
+	/**
+	 * The cleaned form of each accented Latin letter and other character from
+	 * 0x80 up to {@link #LATIN_END}, indexed by the character less 0x80; or
+	 * {@code null} for whitespace.
+	 */
+	private static final String[] LATIN = new String[LATIN_END - 0x80];
+
+	static {
+		for (char c = 0x80; c < LATIN_END; c++) {
+			if (!isSpace(c)) {
+				StringBuilder cleaned = new StringBuilder();
+				clean(String.valueOf(c), cleaned);
+				LATIN[c - 0x80] = cleaned.toString();
+			}
+		}
+	}
+
+	/** The word being built, reused for every word. */
+	private final StringBuilder word;
+
+	/** Decodes runs of UTF-8 bytes that are not plain ASCII. */
+	private final CharsetDecoder decoder;
+
+	/**
+	 * Whether anything other than the whitespace removed by String#strip() has
+	 * been seen in the current text.
+	 */
+	private boolean started;
+
+	/**
+	 * Whether the current text started with a non-breaking space, in which case
+	 * TextParser#split(String) starts with an empty word.
+	 */
+	private boolean leading;
+
+	/**
+	 * {@code true} if the default locale lowercases each letter without looking at
+	 * the letters around it, which Turkish, Azerbaijani and Lithuanian do not.
+	 */
+	private final boolean contextFree;
+
+	/**
+	 * Initializes a tokenizer for the default locale.
+	 */
+	public Tokenizer() {
+		this.word = new StringBuilder();
+		this.decoder = StandardCharsets.UTF_8.newDecoder();
+		String language = Locale.getDefault().getLanguage();
+		this.contextFree = !language.equals("tr") && !language.equals("az") && !language.equals("lt");
+	}
+
+	/**
+	 * Passes each cleaned word of a text and its position to an action, in order.
+	 * The word is only valid until the action returns, since its buffer is reused
+	 * for the next word.
+	 *
+	 * @param text     the text to clean and split, such as a line of a file
+	 * @param position the position of the word before the text, such as the
+	 *                 number of words in the lines before it
+	 * @param action   the action to perform on each word and its position
+	 * @return the position of the last word, or the given position if the text
+	 *         has no words
+	 */
+	public int tokenize(CharSequence text, int position, ObjIntConsumer<CharSequence> action) {
+		// a capital sigma is lowercased depending on the words around it, so leave
+		// it, and any locale that lowercases letters by their neighbors, to the
+		// regular parser
+		if (!contextFree || contains(text, '\u03A3')) {
+			for (String parsed : TextParser.parse(text.toString())) {
+				action.accept(parsed, ++position);
+			}
+			return position;
+		}
+
+		started = false;
+		leading = false;
+		return split(text, position, action);
+	}
+
+	/**
+	 * Passes each cleaned word of a line of UTF-8 text and its position to an
+	 * action, in order, the same as decoding the line and passing it to
+	 * {@link #tokenize(CharSequence, int, ObjIntConsumer)}. The word is only
+	 * valid until the action returns.
+	 *
+	 * @param bytes    the bytes that hold the line
+	 * @param from     the index of the first byte of the line
+	 * @param to       the index after the last byte of the line, not including
+	 *                 the line break
+	 * @param position the position of the word before the line
+	 * @param action   the action to perform on each word and its position
+	 * @return the position of the last word, or the given position if the line
+	 *         has no words
+	 * @throws CharacterCodingException if the line is not valid UTF-8
+	 */
+	public int tokenize(byte[] bytes, int from, int to, int position, ObjIntConsumer<CharSequence> action)
+			throws CharacterCodingException {
+		// a capital sigma is encoded as these two bytes, which are never part of
+		// any other character
+		if (!contextFree || contains(bytes, from, to, (byte) 0xCE, (byte) 0xA3)) {
+			return tokenize(decode(bytes, from, to), position, action);
+		}
+
+		started = false;
+		leading = false;
+		int start = from;
+		while (start < to) {
+			// ASCII whitespace is never part of a longer character, and is all removed
+			// by String#strip()
+			if (isSpace(bytes[start])) {
+				start++;
+				continue;
+			}
+
+			// find the end of the run
+			int end = start;
+			while (end < to && !isSpace(bytes[end])) {
+				end++;
+			}
+
+			if (append(bytes, start, end)) {
+				position = emit(position, action);
+			}
+			else {
+				// the run may still hold other whitespace, such as a non-breaking space
+				position = split(decode(bytes, start, end), position, action);
+			}
+			start = end;
+		}
+		return position;
+	}
+
+	/**
+	 * Splits a text by whitespace and passes each cleaned word to an action,
+	 * continuing the current text.
+	 *
+	 * @param text     the text to clean and split
+	 * @param position the position of the word before the text
+	 * @param action   the action to perform on each word and its position
+	 * @return the position of the last word
+	 */
+	private int split(CharSequence text, int position, ObjIntConsumer<CharSequence> action) {
+		int length = text.length();
+		int start = 0;
+		while (start < length) {
+			char first = text.charAt(start);
+			if (isSpace(first)) {
+				if (!started && !Character.isWhitespace(first)) {
+					started = true;
+					leading = true;
+				}
+				start++;
+				continue;
+			}
+
+			// find the end of the run, noting whether it only has characters that are
+			// cleaned the same way on their own
+			int end = start;
+			boolean latin = true;
+			while (end < length && !isSpace(text.charAt(end))) {
+				latin &= text.charAt(end) < LATIN_END;
+				end++;
+			}
+
+			word.setLength(0);
+			if (latin) {
+				for (int i = start; i < end; i++) {
+					char c = text.charAt(i);
+					if (c < 128) {
+						appendLetter(c);
+					}
+					else {
+						word.append(LATIN[c - 0x80]);
+					}
+				}
+			}
+			else {
+				clean(text.subSequence(start, end), word);
+			}
+			position = emit(position, action);
+			start = end;
+		}
+		return position;
+	}
+
+	/**
+	 * Passes the word that was built to an action, unless it is empty.
+	 *
+	 * @param position the position of the word before it
+	 * @param action   the action to perform on the word and its position
+	 * @return the position of the word, or the given position if it is empty
+	 */
+	private int emit(int position, ObjIntConsumer<CharSequence> action) {
+		// a run without letters leaves nothing behind
+		if (word.length() == 0) {
+			return position;
+		}
+		if (leading) {
+			action.accept("", ++position);
+			leading = false;
+		}
+		started = true;
+		action.accept(word, ++position);
+		return position;
+	}
+
+	/**
+	 * Builds the word from a run of UTF-8 bytes without decoding it, if the run
+	 * only has ASCII and the characters cleaned by {@link #LATIN}, as plain text
+	 * and most accented text in Latin letters does.
+	 *
+	 * @param bytes the bytes that hold the run
+	 * @param from  the index of the first byte of the run
+	 * @param to    the index after the last byte of the run
+	 * @return {@code true} if the word was built, or {@code false} if the run
+	 *         must be decoded instead
+	 */
+	private boolean append(byte[] bytes, int from, int to) {
+		word.setLength(0);
+		int i = from;
+		while (i < to) {
+			int b = bytes[i];
+			if (b >= 0) {
+				appendLetter(b);
+				i++;
+				continue;
+			}
+			// two bytes encode the characters from 0x80 to 0x7FF, and anything else or
+			// any malformed bytes are left to the decoder
+			if ((b & 0xE0) != 0xC0 || i + 1 == to || (bytes[i + 1] & 0xC0) != 0x80) {
+				return false;
+			}
+			int c = ((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F);
+			if (c < 0x80 || c >= LATIN_END || LATIN[c - 0x80] == null) {
+				return false;
+			}
+			word.append(LATIN[c - 0x80]);
+			i += 2;
+		}
+		return true;
+	}
+
+	/**
+	 * Appends an ASCII character to the word, lowercased, if it is a letter.
+	 *
+	 * @param c the ASCII character
+	 */
+	private void appendLetter(int c) {
+		if (c >= 'A' && c <= 'Z') {
+			word.append((char) (c + ('a' - 'A')));
+		}
+		else if (c >= 'a' && c <= 'z') {
+			word.append((char) c);
+		}
+	}
+
+	/**
+	 * Decomposes accented letters, then appends the letters lowercased, the same
+	 * as {@link TextParser#clean(String)} but without its regular expression.
+	 *
+	 * @param run     a run of text without whitespace
+	 * @param cleaned where to append the cleaned run
+	 */
+	private static void clean(CharSequence run, StringBuilder cleaned) {
+		String decomposed = Normalizer.normalize(run, Normalizer.Form.NFD);
+		for (int i = 0; i < decomposed.length(); ) {
+			int c = decomposed.codePointAt(i);
+			if (Character.isAlphabetic(c)) {
+				cleaned.appendCodePoint(Character.toLowerCase(c));
+			}
+			i += Character.charCount(c);
+		}
+	}
+
+	/**
+	 * Decodes a range of UTF-8 bytes.
+	 *
+	 * @param bytes the bytes to decode from
+	 * @param from  the index of the first byte
+	 * @param to    the index after the last byte
+	 * @return the decoded characters
+	 * @throws CharacterCodingException if the bytes are not valid UTF-8
+	 */
+	private CharSequence decode(byte[] bytes, int from, int to) throws CharacterCodingException {
+		return decoder.decode(ByteBuffer.wrap(bytes, from, to - from));
+	}
+
+	/**
+	 * Cleans and splits a text into words, the same as
+	 * {@link TextParser#parse(String)}.
+	 *
+	 * @param text the text to clean and split
+	 * @return the cleaned words
+	 */
+	public String[] parse(CharSequence text) {
+		ArrayList<String> words = new ArrayList<>();
+		tokenize(text, 0, (word, position) -> words.add(word.toString()));
+		return words.toArray(new String[0]);
+	}
+
+	/**
+	 * Checks whether a text contains a character.
+	 *
+	 * @param text      the text to search
+	 * @param character the character to find
+	 * @return {@code true} if the text contains the character
+	 */
+	private static boolean contains(CharSequence text, char character) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == character) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a range of bytes contains a pair of bytes.
+	 *
+	 * @param bytes  the bytes to search
+	 * @param from   the index of the first byte to search
+	 * @param to     the index after the last byte to search
+	 * @param first  the first byte of the pair
+	 * @param second the second byte of the pair
+	 * @return {@code true} if the range contains the pair
+	 */
+	private static boolean contains(byte[] bytes, int from, int to, byte first, byte second) {
+		for (int i = from; i < to - 1; i++) {
+			if (bytes[i] == first && bytes[i + 1] == second) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a byte is ASCII whitespace.
+	 *
+	 * @param b the byte to check
+	 * @return {@code true} if the byte is ASCII whitespace
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || (b >= '\t' && b <= '\r');
+	}
+
+	/**
+	 * Checks whether a character is whitespace by the same Unicode definition as
+	 * {@link TextParser#SPLIT_REGEX}, which unlike
+	 * {@link Character#isWhitespace(char)} includes non-breaking spaces.
+	 *
+	 * @param c the character to check
+	 * @return {@code true} if the character is whitespace
+	 */
+	private static boolean isSpace(char c) {
+		if (c < 128) {
+			return c == ' ' || (c >= '\t' && c <= '\r');
+		}
+		return c == '\u0085' || ((SPACE_TYPES >> Character.getType(c)) & 1) != 0;
+	}
+}
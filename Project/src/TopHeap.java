@@ -0,0 +1,165 @@
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A bounded heap that keeps the best location IDs of a search, compared the
+ * same way {@link InvertedIndex.SearchResult#compareTo} compares search
+ * results, without creating them. The worst of the kept IDs is at the root, so
+ * a new ID only has to be compared against the root to know if it belongs in
+ * the heap.
+ *
+ * @author evancarlson
+ *
+ */
+public class TopHeap {
+
+	/** The kept location IDs. */
+	private final int[] heap;
+
+	/** The number of kept location IDs. */
+	private int size;
+
+	/** The query count of each location ID. */
+	private final int[] counts;
+
+	/** The name of each location ID. */
+	private final IntFunction<String> names;
+
+	/** The word count of each location ID. */
+	private final IntUnaryOperator totals;
+
+	/**
+	 * Initializes an empty heap.
+	 *
+	 * @param k      the number of location IDs to keep
+	 * @param counts the query count of each location ID, which must not change for
+	 *               IDs in the heap
+	 * @param names  the name of each location ID
+	 * @param totals the word count of each location ID
+	 */
+	public TopHeap(int k, int[] counts, IntFunction<String> names, IntUnaryOperator totals) {
+		this.heap = new int[Math.max(0, Math.min(k, counts.length))];
+		this.size = 0;
+		this.counts = counts;
+		this.names = names;
+		this.totals = totals;
+	}
+
+	/**
+	 * Offers a location ID to the heap, which keeps it if the heap is not full or
+	 * if it sorts before the worst kept ID, which is then dropped.
+	 *
+	 * @param id a location ID with a non-zero query count
+	 * @return {@code true} if the ID was kept
+	 */
+	public boolean offer(int id) {
+		if (size < heap.length) {
+			// sift the new location up from the bottom of the heap
+			int child = size++;
+			while (child > 0) {
+				int parent = (child - 1) / 2;
+				if (compare(heap[parent], id) >= 0) {
+					break;
+				}
+				heap[child] = heap[parent];
+				child = parent;
+			}
+			heap[child] = id;
+			return true;
+		}
+		if (size > 0 && compare(id, heap[0]) < 0) {
+			siftDown(id);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the heap holds as many IDs as it keeps.
+	 *
+	 * @return {@code true} if the heap is full
+	 */
+	public boolean isFull() {
+		return size == heap.length;
+	}
+
+	/**
+	 * Returns the score of the worst kept ID. Once the heap is full, a location
+	 * with a lower score can never be kept.
+	 *
+	 * @return the lowest kept score, or 0 if the heap is empty
+	 */
+	public double threshold() {
+		return size == 0 ? 0 : score(heap[0]);
+	}
+
+	/**
+	 * Removes every ID from the heap.
+	 *
+	 * @return the kept IDs, best first
+	 */
+	public int[] drain() {
+		int[] ids = new int[size];
+		// remove the worst location until the heap is empty, filling from the back
+		while (size > 0) {
+			ids[--size] = heap[0];
+			if (size > 0) {
+				siftDown(heap[size]);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Replaces the root with an ID and sifts it down until no child is worse than
+	 * it.
+	 *
+	 * @param id the location ID to place at the root
+	 */
+	private void siftDown(int id) {
+		int parent = 0;
+		while (2 * parent + 1 < size) {
+			int child = 2 * parent + 1;
+			if (child + 1 < size && compare(heap[child + 1], heap[child]) > 0) {
+				child++;
+			}
+			if (compare(heap[child], id) <= 0) {
+				break;
+			}
+			heap[parent] = heap[child];
+			parent = child;
+		}
+		heap[parent] = id;
+	}
+
+	/**
+	 * Returns the score of a location ID, calculated exactly as a search result
+	 * calculates it.
+	 *
+	 * @param id a location ID
+	 * @return the score of the location
+	 */
+	private double score(int id) {
+		return Double.valueOf(counts[id]) / Double.valueOf(totals.applyAsInt(id));
+	}
+
+	/**
+	 * Compares two location IDs the same way {@link InvertedIndex.SearchResult}
+	 * compares their search results.
+	 *
+	 * @param a a location ID
+	 * @param b another location ID
+	 * @return a negative number if {@code a} sorts first, a positive number if
+	 *         {@code b} sorts first, and 0 otherwise
+	 */
+	private int compare(int a, int b) {
+		int result = Double.compare(score(b), score(a));
+		if (result == 0) {
+			result = Integer.compare(counts[b], counts[a]);
+		}
+		if (result == 0) {
+			result = names.apply(a).compareToIgnoreCase(names.apply(b));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,144 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The best search results of a query, sorted the same way as a full search,
+ * along with the total number of locations that matched the query.
+ *
+ * @author evancarlson
+ *
+ * @see InvertedIndex#search(Collection, boolean, int)
+ */
+public class TopResults {
+
+	/** The best results, sorted by {@link InvertedIndex.SearchResult#compareTo}. */
+	private final List<InvertedIndex.SearchResult> results;
+
+	/** The total number of locations that matched the query. */
+	private final int total;
+
+	/** Whether the total is exact, rather than a lower bound. */
+	private final boolean exactTotal;
+
+	/** Whether some keys matching a prefix were left out of the search. */
+	private final boolean truncated;
+
+	/**
+	 * Initializes the top results of a query.
+	 *
+	 * @param results the best results in sorted order
+	 * @param total   the total number of locations that matched the query
+	 */
+	public TopResults(List<InvertedIndex.SearchResult> results, int total) {
+		this(results, total, true);
+	}
+
+	/**
+	 * Initializes the top results of a query whose total number of matches may
+	 * only be known to be at least a certain number.
+	 *
+	 * @param results    the best results in sorted order
+	 * @param total      the total number of locations that matched the query, or a
+	 *                   lower bound of it
+	 * @param exactTotal {@code true} if the total is exact
+	 */
+	public TopResults(List<InvertedIndex.SearchResult> results, int total, boolean exactTotal) {
+		this(results, total, exactTotal, false);
+	}
+
+	/**
+	 * Initializes the top results of a query whose prefixes may not have been
+	 * expanded to every matching key.
+	 *
+	 * @param results    the best results in sorted order
+	 * @param total      the total number of locations that matched the query, or a
+	 *                   lower bound of it
+	 * @param exactTotal {@code true} if the total is exact
+	 * @param truncated  {@code true} if some keys matching a prefix were left out
+	 */
+	public TopResults(List<InvertedIndex.SearchResult> results, int total, boolean exactTotal, boolean truncated) {
+		this.results = Collections.unmodifiableList(results);
+		this.total = total;
+		this.exactTotal = exactTotal;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * Returns the best results in sorted order.
+	 *
+	 * @return an immutable list of the best results
+	 */
+	public List<InvertedIndex.SearchResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * Returns the total number of locations that matched the query, which may be
+	 * more than the number of results returned.
+	 *
+	 * @return the total number of matches, or a lower bound of it if
+	 *         {@link #isTotalExact()} is {@code false}
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns whether {@link #getTotal()} is the exact number of matches. A search
+	 * that skips locations which cannot make it into the results only knows a lower
+	 * bound.
+	 *
+	 * @return {@code true} if the total is exact
+	 */
+	public boolean isTotalExact() {
+		return exactTotal;
+	}
+
+	/**
+	 * Returns whether a prefix matched more keys than a search expands, so only
+	 * the keys found in the most locations were searched. The results and total
+	 * are then those of the searched keys only.
+	 *
+	 * @return {@code true} if some keys matching a prefix were left out
+	 *
+	 * @see InvertedIndex#impactSearch(Collection, boolean, int, int)
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Merges the top results of indexes that share no locations, such as the
+	 * segments or shards of an index.
+	 *
+	 * @param parts the top results of each index
+	 * @param k     the number of results to keep
+	 * @return the best {@code k} results of all the parts
+	 */
+	public static TopResults merge(Collection<TopResults> parts, int k) {
+		ArrayList<InvertedIndex.SearchResult> results = new ArrayList<>();
+		int total = 0;
+		boolean exactTotal = true;
+		boolean truncated = false;
+		for (TopResults part : parts) {
+			results.addAll(part.results);
+			total += part.total;
+			exactTotal &= part.exactTotal;
+			truncated |= part.truncated;
+		}
+		// each part is already sorted, which the sort takes advantage of
+		Collections.sort(results);
+		if (results.size() > k) {
+			results = new ArrayList<>(results.subList(0, Math.max(0, k)));
+		}
+		return new TopResults(results, total, exactTotal, truncated);
+	}
+
+	@Override
+	public String toString() {
+		return results.size() + " of " + (exactTotal ? "" : "at least ") + total + (truncated ? " (truncated) " : " ")
+				+ results;
+	}
+}
@@ -0,0 +1,77 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * A position list backed by a {@code TreeSet<Integer>}; the original layout of
+ * the inverted index, kept for comparison with {@link CompressedPositionList}.
+ *
+ * @author evancarlson
+ *
+ */
+public class TreeSetPositionList extends PositionList {
+
+	/** The sorted set of positions. */
+	private final TreeSet<Integer> positions;
+
+	/** {@code true} once the list has been sealed. */
+	private boolean sealed;
+
+	/**
+	 * Initializes an empty position list.
+	 */
+	public TreeSetPositionList() {
+		positions = new TreeSet<Integer>();
+		sealed = false;
+	}
+
+	@Override
+	public void insert(int position) {
+		positions.add(position);
+	}
+
+	@Override
+	public boolean contains(int position) {
+		return positions.contains(position);
+	}
+
+	@Override
+	public int size() {
+		return positions.size();
+	}
+
+	@Override
+	public int[] toIntArray() {
+		int[] array = new int[positions.size()];
+		int i = 0;
+		for (int position : positions) {
+			array[i++] = position;
+		}
+		return array;
+	}
+
+	@Override
+	public void seal() {
+		// nothing to compact
+		sealed = true;
+	}
+
+	@Override
+	public boolean isSealed() {
+		return sealed;
+	}
+
+	@Override
+	public void shift(int offset) {
+		int[] shifted = toIntArray();
+		positions.clear();
+		for (int position : shifted) {
+			positions.add(position + offset);
+		}
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return Collections.unmodifiableSet(positions).iterator();
+	}
+}
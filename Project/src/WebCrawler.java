@@ -8,7 +8,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A multithreaded web crawler using a work queue to build an inverted index
@@ -102,18 +101,11 @@ public class WebCrawler extends InvertedIndexBuilder {
 		html = HtmlCleaner.stripEntities(html); // strip html entities
 
 		// clean, parse and stem text to populate the inverted index
-		Stemmer stemmer = new SnowballStemmer(InvertedIndexBuilder.DEFAULT);
-		// starting position
-		int pos = 0;
+		Stemmer stemmer = StemCache.SHARED;
 		String location = url.toString();
-		// split by white space and clean
-		String[] words = TextParser.parse(html);
-		// stem and add data to inverted index
-		for (String word : words) {
-			word = stemmer.stem(word).toString();
-			++pos;
-			index.add(word, location, pos);
-		}
+		// split by white space and clean, then stem and add data to inverted index
+		new Tokenizer().tokenize(html, 0,
+				(word, position) -> index.add(stemmer.stem(word).toString(), location, position));
 	}
 
 	/**
@@ -137,7 +129,7 @@ public class WebCrawler extends InvertedIndexBuilder {
 		@Override
 		public void run() {
 			try {
-				InvertedIndex local = new InvertedIndex();
+				InvertedIndex local = new InvertedIndex(index.isCompressed());
 				parse(url, local);
 
 				synchronized (index) {